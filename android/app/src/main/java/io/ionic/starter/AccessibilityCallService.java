@@ -3,19 +3,22 @@ package io.ionic.starter;
 import android.accessibilityservice.AccessibilityService;
 import android.accessibilityservice.AccessibilityServiceInfo;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
 import android.media.AudioManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.telecom.TelecomManager;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.accessibility.AccessibilityEvent;
 
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Locale;
+import java.util.List;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 public class AccessibilityCallService extends AccessibilityService {
     private static final String TAG = "AccCallService";
@@ -28,38 +31,78 @@ public class AccessibilityCallService extends AccessibilityService {
             "com.miui.voip",
             "com.coloros.phone",
             "com.oneplus.dialer",
-            "com.huawei.contacts"
+            "com.huawei.contacts",
+            "com.android.incallui",
+            "com.samsung.android.incallui"
     ));
 
-    private static final Pattern DURATION_PATTERN = Pattern.compile("^\\d{1,2}:\\d{2}(:\\d{2})?$");
+    // Signals found in event text and class names
+    static final int SIGNAL_END = 1;
+    static final int SIGNAL_ACTIVE = 1 << 1;
+    static final int SIGNAL_CANDIDATE = 1 << 2;
+    static final int SIGNAL_CALL_CLASS = 1 << 3;
 
-    private boolean callUiVisible = false;
+    // "call ended" is covered by "ended"; "call" is only consulted for class names
+    // (InCallActivity, InCallScreen, ...)
+    static final KeywordMatcher SIGNALS = new KeywordMatcher(
+            new String[]{"end call", "ended", "on going", "ongoing", "calling", "ringing", "call"},
+            new int[]{SIGNAL_END, SIGNAL_END, SIGNAL_ACTIVE, SIGNAL_ACTIVE,
+                    SIGNAL_CANDIDATE, SIGNAL_CANDIDATE, SIGNAL_CALL_CLASS});
+
+    private static final long END_GRACE_MS = 1500;
+
+    /** How far along a call the UI appears to be; decides which events we subscribe to. */
+    enum State {
+        // No call UI; only window changes of dialer packages are delivered
+        IDLE,
+        // Dialing or ringing UI seen, recorder prepared (pre-roll) but not started
+        CANDIDATE,
+        // Recording
+        ACTIVE,
+        // Call UI ended or left; stop fires after END_GRACE_MS unless the call reappears
+        ENDING
+    }
+
+    private State state = State.IDLE;
+    private State filterState;
+    // Call UI state before ENDING, to resume when the UI comes back
+    private State resumeState = State.IDLE;
     private boolean recordingStarted = false;
+    // Recorder prepared (and pre-rolling) for a call that has not connected yet
+    private boolean candidatePrepared = false;
     private boolean speakerForced = false;
+    private String[] dialerPackages;
+
+    // Signals gathered since the last frame, evaluated once per frame
+    private int pendingSignals = 0;
+    private boolean pendingForeign = false;
+    private boolean evaluationScheduled = false;
+    private Choreographer choreographer;
 
     private final Handler handler = new Handler(Looper.getMainLooper());
     private final Runnable delayedStop = () -> {
-        if (recordingStarted) {
+        if (recordingStarted || candidatePrepared) {
             stopRecording();
         }
-        callUiVisible = false;
+        setState(State.IDLE);
+    };
+    private final Choreographer.FrameCallback evaluateFrame = frameTimeNanos -> {
+        evaluationScheduled = false;
+        int signals = pendingSignals;
+        boolean foreign = pendingForeign;
+        pendingSignals = 0;
+        pendingForeign = false;
+        evaluate(signals, foreign);
     };
 
     @Override
     public void onServiceConnected() {
         super.onServiceConnected();
-        AccessibilityServiceInfo info = new AccessibilityServiceInfo();
-        info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
-                | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
-                | AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
-                | AccessibilityEvent.TYPE_VIEW_CLICKED
-                | AccessibilityEvent.TYPE_VIEW_FOCUSED;
-        info.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
-        info.flags = AccessibilityServiceInfo.FLAG_REPORT_VIEW_IDS
-                | AccessibilityServiceInfo.FLAG_INCLUDE_NOT_IMPORTANT_VIEWS;
-        info.notificationTimeout = 100; // ms
-        setServiceInfo(info);
-        Log.i(TAG, "Accessibility service connected");
+        choreographer = Choreographer.getInstance();
+        dialerPackages = resolveDialerPackages();
+        filterState = null;
+        applyFilter();
+        Log.i(TAG, "Accessibility service connected, watching " + dialerPackages.length + " dialer packages");
     }
 
     @Override
@@ -70,56 +113,194 @@ public class AccessibilityCallService extends AccessibilityService {
         final String pkg = pkgCs != null ? pkgCs.toString() : "";
         if (TextUtils.isEmpty(pkg) || !looksLikeDialer(pkg)) {
             // Non-dialer app; if we were on call UI, consider this a potential exit.
-            scheduleDelayedStop();
+            if (state == State.CANDIDATE || state == State.ACTIVE) {
+                pendingForeign = true;
+                scheduleEvaluation();
+            }
             return;
         }
 
-        // We are in a dialer package; inspect the event for call state hints
-        boolean indicatesActive = false;
-        boolean indicatesEnd = false;
-
+        // We are in a dialer package; collect call state hints. The event is recycled
+        // after this returns, so classify now and act on the merged signals next frame.
+        int signals = classifyText(event.getText());
         // Class name often includes InCallActivity/InCallScreen, etc.
-        final CharSequence clsCs = event.getClassName();
-        final String cls = clsCs != null ? clsCs.toString() : "";
-        if (cls.toLowerCase(Locale.ROOT).contains("incall") || cls.toLowerCase(Locale.ROOT).contains("call")) {
-            indicatesActive = true;
-        }
-
-        // Text content can include timer like 00:12 or strings like "End call" / "Calling" / "Ringing"
-        if (event.getText() != null) {
-            for (CharSequence t : event.getText()) {
-                if (t == null) continue;
-                String s = t.toString().trim();
-                if (s.isEmpty()) continue;
-                if (DURATION_PATTERN.matcher(s).matches()) {
-                    indicatesActive = true;
-                }
-                String sl = s.toLowerCase(Locale.ROOT);
-                if (sl.contains("end call") || sl.contains("call ended") || sl.contains("ended")) {
-                    indicatesEnd = true;
-                }
-                if (sl.contains("calling") || sl.contains("on going") || sl.contains("ongoing") || sl.contains("ringing")) {
-                    indicatesActive = true;
+        if ((SIGNALS.match(event.getClassName()) & SIGNAL_CALL_CLASS) != 0) {
+            signals |= SIGNAL_CANDIDATE;
+        }
+        if (signals == 0) return;
+        pendingSignals |= signals;
+        pendingForeign = false;
+        scheduleEvaluation();
+    }
+
+    @Override
+    public void onInterrupt() {
+        // No-op
+    }
+
+    @Override
+    public void onDestroy() {
+        handler.removeCallbacks(delayedStop);
+        if (choreographer != null) choreographer.removeFrameCallback(evaluateFrame);
+        super.onDestroy();
+    }
+
+    private void scheduleEvaluation() {
+        if (evaluationScheduled) return;
+        evaluationScheduled = true;
+        if (choreographer != null) {
+            choreographer.postFrameCallback(evaluateFrame);
+        } else {
+            handler.post(() -> evaluateFrame.doFrame(0));
+        }
+    }
+
+    // One step of the state machine for everything seen during a frame
+    private void evaluate(int signals, boolean foreign) {
+        boolean end = (signals & SIGNAL_END) != 0;
+        boolean active = (signals & SIGNAL_ACTIVE) != 0;
+        boolean candidate = (signals & SIGNAL_CANDIDATE) != 0;
+
+        if (end || (foreign && signals == 0)) {
+            // Give UI a short grace period to avoid flapping on transitions
+            if (state == State.CANDIDATE || state == State.ACTIVE) {
+                resumeState = state;
+                setState(State.ENDING);
+                handler.postDelayed(delayedStop, END_GRACE_MS);
+            }
+            return;
+        }
+        if (state == State.ENDING && (active || candidate)) {
+            handler.removeCallbacks(delayedStop);
+            setState(resumeState);
+        }
+
+        if (candidate && !active && !recordingStarted) {
+            if (RecorderSettings.get(this).isPreRollEnabled()) {
+                // Start buffering now; the recording itself waits for a connected call
+                if (!candidatePrepared) {
+                    prepareCandidate();
                 }
+                setState(State.CANDIDATE);
+                return;
             }
+            active = true;
         }
 
-        if (indicatesActive) {
-            callUiVisible = true;
-            handler.removeCallbacks(delayedStop);
+        if (active) {
             if (!recordingStarted) {
                 startRecording();
             }
+            if (recordingStarted) setState(State.ACTIVE);
         }
+    }
+
+    private void setState(State next) {
+        if (state == next) return;
+        Log.i(TAG, "Call UI state " + state + " -> " + next);
+        state = next;
+        applyFilter();
+    }
 
-        if (indicatesEnd) {
-            scheduleDelayedStop();
+    /**
+     * Narrows the event subscription to what the current state needs. While idle only
+     * window changes from dialer packages wake us; content and text changes, foreign
+     * packages and not-important views are only requested while a call is on screen.
+     */
+    private void applyFilter() {
+        // ENDING keeps the ACTIVE/CANDIDATE subscription so the call can resume
+        State effective = state == State.ENDING ? resumeState : state;
+        if (effective == filterState) return;
+        filterState = effective;
+
+        AccessibilityServiceInfo info = new AccessibilityServiceInfo();
+        info.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
+        info.notificationTimeout = 100; // ms
+        switch (effective) {
+            case CANDIDATE:
+                info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+                        | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                        | AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED;
+                info.flags = AccessibilityServiceInfo.FLAG_REPORT_VIEW_IDS
+                        | AccessibilityServiceInfo.FLAG_INCLUDE_NOT_IMPORTANT_VIEWS;
+                break;
+            case ACTIVE:
+                // The timer is already running; only end-of-call hints matter now
+                info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+                        | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                        | AccessibilityEvent.TYPE_VIEW_CLICKED;
+                info.flags = AccessibilityServiceInfo.FLAG_REPORT_VIEW_IDS
+                        | AccessibilityServiceInfo.FLAG_INCLUDE_NOT_IMPORTANT_VIEWS;
+                break;
+            default:
+                info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
+                // An empty list would mean "all packages" as well; fall back to that
+                info.packageNames = dialerPackages != null && dialerPackages.length > 0 ? dialerPackages : null;
+                break;
         }
+        setServiceInfo(info);
     }
 
-    @Override
-    public void onInterrupt() {
-        // No-op
+    /** Installed dialer and in-call UI packages: known OEM names plus whatever handles ACTION_DIAL. */
+    private String[] resolveDialerPackages() {
+        Set<String> packages = new HashSet<>(KNOWN_DIALERS);
+        try {
+            PackageManager pm = getPackageManager();
+            for (ResolveInfo ri : pm.queryIntentActivities(new Intent(Intent.ACTION_DIAL), 0)) {
+                if (ri.activityInfo != null) packages.add(ri.activityInfo.packageName);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                TelecomManager tm = (TelecomManager) getSystemService(TELECOM_SERVICE);
+                String defaultDialer = tm != null ? tm.getDefaultDialerPackage() : null;
+                if (defaultDialer != null) packages.add(defaultDialer);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not resolve dialer packages: " + e.getMessage());
+        }
+        packages.remove(getPackageName());
+        return packages.toArray(new String[0]);
+    }
+
+    /**
+     * Signals in an event's text nodes. Reads the CharSequences in place (no toString,
+     * lower-casing or iterator) since this runs for every event on the main looper.
+     */
+    static int classifyText(List<CharSequence> texts) {
+        if (texts == null) return 0;
+        int signals = 0;
+        for (int i = 0, n = texts.size(); i < n; i++) {
+            CharSequence t = texts.get(i);
+            if (t == null) continue;
+            if (isDuration(t)) signals |= SIGNAL_ACTIVE;
+            signals |= SIGNALS.match(t) & ~SIGNAL_CALL_CLASS;
+        }
+        return signals;
+    }
+
+    /** Call timer text such as "0:07", "12:34" or "1:02:03", surrounding whitespace allowed. */
+    static boolean isDuration(CharSequence s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) <= ' ') start++;
+        while (end > start && s.charAt(end - 1) <= ' ') end--;
+
+        int i = start;
+        while (i < end && i - start < 3 && isAsciiDigit(s.charAt(i))) i++;
+        int leading = i - start;
+        if (leading < 1 || leading > 2) return false;
+
+        // One or two ":dd" groups
+        int groups = 0;
+        while (groups < 2 && i + 2 < end && s.charAt(i) == ':'
+                && isAsciiDigit(s.charAt(i + 1)) && isAsciiDigit(s.charAt(i + 2))) {
+            i += 3;
+            groups++;
+        }
+        return groups > 0 && i == end;
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     private boolean looksLikeDialer(String pkg) {
@@ -128,29 +309,24 @@ public class AccessibilityCallService extends AccessibilityService {
         return pkg.contains("dialer") || pkg.contains("phone") || pkg.contains("incall");
     }
 
+    private void prepareCandidate() {
+        try {
+            CallRecorderService.sendCommand(this, CallRecorderService.ACTION_PREPARE, null, "accessibility-candidate");
+            candidatePrepared = true;
+            Log.i(TAG, "Pre-roll requested for candidate call UI");
+        } catch (Throwable t) {
+            Log.e(TAG, "Failed to prepare recorder: " + t.getMessage(), t);
+        }
+    }
+
     private void startRecording() {
         try {
-            // Try to force speaker route via InCallService when available
-            MyInCallService svc = MyInCallService.getInstance();
-            if (svc != null) {
-                svc.toggleSpeaker(true);
-                speakerForced = true;
-            } else {
-                // Fallback: set speakerphone via AudioManager
-                AudioManager am = (AudioManager) getSystemService(AUDIO_SERVICE);
-                if (am != null && !am.isSpeakerphoneOn()) {
-                    am.setSpeakerphoneOn(true);
-                    speakerForced = true;
-                }
+            // The mic only hears the far end on speaker, unless playback capture records it apart
+            if (!CallRecorderService.capturesCallAudio(this)) {
+                forceSpeaker();
             }
 
-            Intent i = new Intent(this, CallRecorderService.class);
-            i.setAction("START_RECORDING");
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                startForegroundService(i);
-            } else {
-                startService(i);
-            }
+            CallRecorderService.sendCommand(this, CallRecorderService.ACTION_START, null, "accessibility");
             recordingStarted = true;
             Log.i(TAG, "Recording triggered by Accessibility");
         } catch (Throwable t) {
@@ -159,12 +335,29 @@ public class AccessibilityCallService extends AccessibilityService {
         }
     }
 
+    private void forceSpeaker() {
+        // Try to force speaker route via InCallService when available
+        MyInCallService svc = MyInCallService.getInstance();
+        if (svc != null) {
+            svc.toggleSpeaker(true);
+            speakerForced = true;
+        } else {
+            // Fallback: set speakerphone via AudioManager
+            AudioManager am = (AudioManager) getSystemService(AUDIO_SERVICE);
+            if (am != null && !am.isSpeakerphoneOn()) {
+                am.setSpeakerphoneOn(true);
+                speakerForced = true;
+            }
+        }
+    }
+
     private void stopRecording() {
         try {
             Intent i = new Intent(this, CallRecorderService.class);
-            i.setAction("STOP_RECORDING");
+            i.setAction(CallRecorderService.ACTION_STOP);
             stopService(i);
             recordingStarted = false;
+            candidatePrepared = false;
             Log.i(TAG, "Recording stopped by Accessibility");
             if (speakerForced) {
                 // Try to restore route via InCallService first
@@ -181,10 +374,4 @@ public class AccessibilityCallService extends AccessibilityService {
             Log.e(TAG, "Failed to stop recording: " + t.getMessage(), t);
         }
     }
-
-    private void scheduleDelayedStop() {
-        // Give UI a short grace period to avoid flapping on transitions
-        handler.removeCallbacks(delayedStop);
-        handler.postDelayed(delayedStop, 1500);
-    }
 }
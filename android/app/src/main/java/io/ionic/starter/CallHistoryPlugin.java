@@ -1,15 +1,13 @@
 package io.ionic.starter;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.content.ContentResolver;
-import android.content.Context;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.provider.CallLog;
 import android.provider.CallLog.Calls;
 import android.util.Log;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -21,6 +19,18 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @CapacitorPlugin(
         name = "CallHistory",
         permissions = {
@@ -30,13 +40,37 @@ import org.json.JSONObject;
 public class CallHistoryPlugin extends Plugin {
 
     private static final String TAG = "CallHistoryPlugin";
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final String EVENT_CHUNK = "callHistoryChunk";
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+    // How long stats and search wait for the first cache load before giving up
+    private static final long CACHE_LOAD_TIMEOUT_MS = 10_000;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+
+    // Streams run one at a time, off the bridge thread; cancel removes the id
+    private final ExecutorService streamExecutor = Executors.newSingleThreadExecutor();
+    private final Set<String> activeStreams = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicInteger streamIds = new AtomicInteger();
+    // Stats and search may wait for the first cache load; keep that off the bridge and stream threads
+    private final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor();
 
     @Override
     public void load() {
         super.load();
+        // Warm the cache early so the first history view is already served from memory
+        if (hasRequiredPermissions()) {
+            CallLogCache.getInstance(getContext()).ensureStarted();
+        }
         Log.d(TAG, "CallHistoryPlugin loaded successfully");
     }
 
+    /**
+     * One page of the call log, newest first.
+     *
+     * Options: {@code limit}, {@code before} (the {@code next} token of the previous page),
+     * {@code since} (ms epoch), {@code types} (e.g. ["MISSED"]) and {@code number}. The
+     * result carries {@code next} when more entries may follow.
+     */
     @PluginMethod
     public void getCallHistory(PluginCall call) {
         Log.d(TAG, "getCallHistory method called");
@@ -47,80 +81,490 @@ public class CallHistoryPlugin extends Plugin {
             return;
         }
 
+        resolveCallHistory(call);
+    }
+
+    /**
+     * Streams the call log in chunks instead of one payload. Takes the getCallHistory options
+     * ({@code limit} defaults to the whole log) plus {@code chunkSize}; resolves at once with
+     * a {@code streamId}, then emits {@value #EVENT_CHUNK} events of
+     * {@code {streamId, calls, done}}. The last event has {@code done: true}.
+     */
+    @PluginMethod
+    public void streamCallHistory(PluginCall call) {
+        if (!hasRequiredPermissions()) {
+            requestAllPermissions(call, "streamCallHistory");
+            return;
+        }
+        startStream(call);
+    }
+
+    @PluginMethod
+    public void cancelCallHistoryStream(PluginCall call) {
+        String streamId = call.getString("streamId");
+        JSObject result = new JSObject();
+        result.put("cancelled", streamId != null && activeStreams.remove(streamId));
+        call.resolve(result);
+    }
+
+    /**
+     * Aggregated call statistics from the in-memory cache, costing O(groups) per call.
+     *
+     * Options: {@code since} (ms epoch, 0 for all time; a stable boundary such as the start
+     * of a day keeps hitting the same maintained window), {@code groupBy} ("number", "hour",
+     * "type" or "day"), {@code sortBy} ("calls", "talkTime" or "key") and {@code limit}.
+     * Number groups default to most calls first; the others to key order.
+     */
+    @PluginMethod
+    public void getCallStats(PluginCall call) {
+        if (!hasRequiredPermissions()) {
+            requestAllPermissions(call, "getCallStats");
+            return;
+        }
+        cacheExecutor.execute(() -> resolveCallStats(call));
+    }
+
+    /**
+     * Numbers whose digits or cached name match {@code query}, best first: exact number,
+     * then number or name prefixes, word prefixes and substrings, newest first within each.
+     * Each match is the number's latest call plus {@code calls} (its call count) and
+     * {@code matched} ("number" or "name"). Options: {@code query}, {@code limit} (default 20).
+     */
+    @PluginMethod
+    public void searchCallHistory(PluginCall call) {
+        if (!hasRequiredPermissions()) {
+            requestAllPermissions(call, "searchCallHistory");
+            return;
+        }
+        cacheExecutor.execute(() -> resolveSearch(call));
+    }
+
+    /**
+     * The call log entry a recording belongs to: the newest call that started by the
+     * recording's start and was still running then. Resolves {@code {call}}, with
+     * {@code call} null when there is no such call.
+     */
+    @PluginMethod
+    public void getCallForRecording(PluginCall call) {
+        if (!hasRequiredPermissions()) {
+            requestAllPermissions(call, "getCallForRecording");
+            return;
+        }
+        resolveCallForRecording(call);
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        activeStreams.clear();
+        streamExecutor.shutdownNow();
+        cacheExecutor.shutdownNow();
+        super.handleOnDestroy();
+    }
+
+    private void startStream(PluginCall call) {
+        CallLogQuery query;
+        try {
+            query = parseQuery(call, Integer.MAX_VALUE);
+        } catch (IllegalArgumentException | JSONException e) {
+            call.reject("Invalid call history query: " + e.getMessage());
+            return;
+        }
+        int chunkSize = Math.max(1, Math.min(call.getInt("chunkSize", DEFAULT_CHUNK_SIZE), MAX_PAGE_SIZE));
+        String streamId = "history-" + streamIds.incrementAndGet();
+        activeStreams.add(streamId);
+
+        JSObject result = new JSObject();
+        result.put("streamId", streamId);
+        call.resolve(result);
+        streamExecutor.execute(() -> runStream(streamId, query, chunkSize));
+    }
+
+    private void runStream(String streamId, CallLogQuery query, int chunkSize) {
+        long start = System.nanoTime();
+        int total = query.limit;
+        int sent = 0;
+        long[] last = new long[2];
+        String error = null;
+        try {
+            RecordingIntervalIndex.Snapshot recordings = recordingsSnapshot();
+            CallLogCache cache = CallLogCache.getInstance(getContext());
+            cache.ensureStarted();
+            if (cache.isLoaded()) {
+                // Each chunk is a keyset page continuing after the previous one
+                while (sent < total && activeStreams.contains(streamId)) {
+                    query.limit = Math.min(chunkSize, total - sent);
+                    JSONArray calls = new JSONArray();
+                    int n = cache.page(query, (id, number, date, duration, type, name) -> {
+                        calls.put(toJsonUnchecked(recordings, id, number, date, duration, type, name));
+                        last[0] = date;
+                        last[1] = id;
+                    });
+                    if (n > 0) emitChunk(streamId, calls);
+                    sent += n;
+                    if (n < query.limit) break;
+                    query.beforeDate = last[0];
+                    query.beforeId = last[1];
+                }
+            } else {
+                try (Cursor cursor = query.query(getContext().getContentResolver())) {
+                    if (cursor != null) {
+                        CallLogQuery.Columns col = new CallLogQuery.Columns(cursor);
+                        JSONArray calls = new JSONArray();
+                        while (sent < total && cursor.moveToNext()) {
+                            last[1] = cursor.getLong(col.id);
+                            last[0] = cursor.getLong(col.date);
+                            calls.put(toJson(recordings, last[1], cursor.getString(col.number), last[0],
+                                    cursor.getInt(col.duration), cursor.getInt(col.type),
+                                    cursor.getString(col.cachedName)));
+                            sent++;
+                            if (calls.length() == chunkSize) {
+                                if (!activeStreams.contains(streamId)) break;
+                                emitChunk(streamId, calls);
+                                calls = new JSONArray();
+                            }
+                        }
+                        if (calls.length() > 0 && activeStreams.contains(streamId)) {
+                            emitChunk(streamId, calls);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error streaming call history", e);
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+
+        boolean cancelled = !activeStreams.remove(streamId);
+        JSObject done = new JSObject();
+        done.put("streamId", streamId);
+        done.put("calls", new JSONArray());
+        done.put("done", true);
+        done.put("count", sent);
+        done.put("cancelled", cancelled);
+        if (error != null) done.put("error", error);
+        if (sent == total && error == null && !cancelled) {
+            done.put("next", CallLogQuery.nextToken(last[0], last[1]));
+        }
+        notifyListeners(EVENT_CHUNK, done);
+        Log.d(TAG, "Stream " + streamId + " sent " + sent + " rows in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms" + (cancelled ? " (cancelled)" : ""));
+    }
+
+    private void emitChunk(String streamId, JSONArray calls) {
+        JSObject chunk = new JSObject();
+        chunk.put("streamId", streamId);
+        chunk.put("calls", calls);
+        chunk.put("done", false);
+        notifyListeners(EVENT_CHUNK, chunk);
+    }
+
+    private void resolveCallHistory(PluginCall call) {
         try {
-            int limit = call.getInt("limit", 100);
-            JSObject result = fetchCallHistory(limit);
+            CallLogQuery query = parseQuery(call, MAX_PAGE_SIZE);
+            CallLogCache cache = CallLogCache.getInstance(getContext());
+            cache.ensureStarted();
+            // Served from memory once the cache has loaded; the provider answers until then
+            JSObject result = cache.isLoaded() ? pageFromCache(cache, query) : fetchCallHistory(query);
             call.resolve(result);
+        } catch (IllegalArgumentException e) {
+            call.reject("Invalid call history query: " + e.getMessage());
         } catch (Exception e) {
             Log.e(TAG, "Error getting call history", e);
             call.reject("Failed to get call history: " + e.getMessage());
         }
     }
 
-    private JSObject fetchCallHistory(int limit) throws JSONException {
-        Context context = getContext();
-        ContentResolver contentResolver = context.getContentResolver();
+    private void resolveCallStats(PluginCall call) {
+        CallStatsEngine.GroupBy groupBy;
+        String groupByName = call.getString("groupBy", "number");
+        try {
+            groupBy = CallStatsEngine.GroupBy.valueOf(groupByName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            call.reject("Invalid groupBy: " + groupByName);
+            return;
+        }
+        String sortBy = call.getString("sortBy", groupBy == CallStatsEngine.GroupBy.NUMBER ? "calls" : "key");
+        if (!sortBy.equals("calls") && !sortBy.equals("talkTime") && !sortBy.equals("key")) {
+            call.reject("Invalid sortBy: " + sortBy);
+            return;
+        }
+        long since = call.getLong("since", 0L);
+        int limit = Math.max(1, call.getInt("limit", Integer.MAX_VALUE));
+
+        CallLogCache cache = awaitCache(call);
+        if (cache == null) return;
+
+        long start = System.nanoTime();
+        JSObject result = new JSObject();
+        cache.stats(since, groupBy, stats -> {
+            JSONArray groups = new JSONArray();
+            for (int g : sortGroups(stats, sortBy, limit)) {
+                groups.put(groupToJson(cache, stats, groupBy, g));
+            }
+            result.put("groupBy", groupByName);
+            result.put("since", since);
+            result.put("totalCalls", stats.totalCalls);
+            result.put("totalTalkSeconds", stats.totalTalkSeconds);
+            result.put("groupCount", stats.size);
+            result.put("groups", groups);
+        });
+        Log.d(TAG, "getCallStats(" + groupByName + ") took " + (System.nanoTime() - start) / 1000 + " us");
+        call.resolve(result);
+    }
+
+    // The loaded cache, or null after rejecting the call
+    private CallLogCache awaitCache(PluginCall call) {
+        CallLogCache cache = CallLogCache.getInstance(getContext());
+        cache.ensureStarted();
+        try {
+            if (!cache.awaitLoaded(CACHE_LOAD_TIMEOUT_MS)) {
+                call.reject("Call log is still loading");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.reject("Interrupted");
+            return null;
+        }
+        return cache;
+    }
 
-        String[] projection = new String[] {
-                Calls._ID,
-                Calls.NUMBER,
-                Calls.DATE,
-                Calls.DURATION,
-                Calls.TYPE,
-                Calls.CACHED_NAME,
-                Calls.CACHED_NUMBER_TYPE,
-                Calls.CACHED_NUMBER_LABEL
-        };
+    private void resolveSearch(PluginCall call) {
+        String query = call.getString("query");
+        if (query == null) {
+            call.reject("query is required");
+            return;
+        }
+        int limit = Math.max(1, Math.min(call.getInt("limit", DEFAULT_SEARCH_LIMIT), MAX_PAGE_SIZE));
+        CallLogCache cache = awaitCache(call);
+        if (cache == null) return;
 
-        // ✅ No LIMIT in sortOrder
-        String sortOrder = Calls.DATE + " DESC";
+        long start = System.nanoTime();
+        RecordingIntervalIndex.Snapshot recordings = recordingsSnapshot();
+        JSONArray matches = new JSONArray();
+        cache.search(query, limit, (id, number, date, duration, type, name, calls, matched) -> {
+            JSONObject match = toJsonUnchecked(recordings, id, number, date, duration, type, name);
+            try {
+                match.put("calls", calls);
+                match.put("matched", matched == CallSearchIndex.MATCH_NAME ? "name" : "number");
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            matches.put(match);
+        });
+        Log.d(TAG, "searchCallHistory took " + (System.nanoTime() - start) / 1000 + " us");
+        JSObject result = new JSObject();
+        result.put("matches", matches);
+        call.resolve(result);
+    }
 
-        Cursor cursor = null;
+    private static Integer[] sortGroups(CallStatsEngine.Aggregates stats, String sortBy, int limit) {
+        Integer[] order = new Integer[stats.size];
+        for (int g = 0; g < order.length; g++) order[g] = g;
+        Comparator<Integer> comparator;
+        if (sortBy.equals("calls")) {
+            comparator = (a, b) -> Integer.compare(stats.calls[b], stats.calls[a]);
+        } else if (sortBy.equals("talkTime")) {
+            comparator = (a, b) -> Long.compare(stats.talkSeconds[b], stats.talkSeconds[a]);
+        } else {
+            comparator = (a, b) -> Long.compare(stats.keys[a], stats.keys[b]);
+        }
+        Arrays.sort(order, comparator);
+        return order.length > limit ? Arrays.copyOf(order, limit) : order;
+    }
+
+    private JSONObject groupToJson(CallLogCache cache, CallStatsEngine.Aggregates stats,
+                                   CallStatsEngine.GroupBy groupBy, int g) {
+        JSObject group = new JSObject();
+        long key = stats.keys[g];
+        switch (groupBy) {
+            case NUMBER:
+                group.put("key", stats.numbers[g] != null ? stats.numbers[g] : "");
+                group.put("name", stats.names[g] != null ? stats.names[g] : "");
+                break;
+            case HOUR:
+                group.put("key", String.valueOf(key));
+                break;
+            case TYPE:
+                group.put("key", getCallTypeString((int) key));
+                break;
+            case DAY:
+                long dayStart = cache.dayStart(key);
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+                group.put("key", format.format(dayStart));
+                group.put("start", dayStart);
+                break;
+        }
+        group.put("calls", stats.calls[g]);
+        group.put("incoming", stats.incoming[g]);
+        group.put("outgoing", stats.outgoing[g]);
+        group.put("missed", stats.missed[g]);
+        group.put("rejected", stats.rejected[g]);
+        group.put("talkSeconds", stats.talkSeconds[g]);
+        group.put("lastDate", stats.lastDate[g]);
+        return group;
+    }
+
+    private void resolveCallForRecording(PluginCall call) {
+        String recordingId = call.getString("recordingId");
+        RecordingIntervalIndex.Snapshot recordings = recordingsSnapshot();
+        int index = recordingId != null ? recordings.indexOf(recordingId) : -1;
+        if (index < 0) {
+            call.reject("Unknown recording: " + recordingId);
+            return;
+        }
+        long recordingStart = recordings.starts[index];
+
+        // Newest call dated by the recording's start, found by the same keyset a page uses
+        CallLogQuery query = new CallLogQuery();
+        query.beforeDate = recordingStart + RecordingIntervalIndex.MATCH_SLACK_MS + 1;
+        query.beforeId = Long.MIN_VALUE;
+        query.limit = 1;
+        try {
+            CallLogCache cache = CallLogCache.getInstance(getContext());
+            cache.ensureStarted();
+            JSObject page = cache.isLoaded() ? pageFromCache(cache, query) : fetchCallHistory(query);
+            JSONArray calls = page.getJSONArray("calls");
+            JSObject result = new JSObject();
+            result.put("call", JSONObject.NULL);
+            if (calls.length() > 0) {
+                JSONObject match = calls.getJSONObject(0);
+                long end = match.getLong("date") + match.getLong("duration") * 1000L
+                        + RecordingIntervalIndex.MATCH_SLACK_MS;
+                if (end >= recordingStart) result.put("call", match);
+            }
+            call.resolve(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error matching recording to call", e);
+            call.reject("Failed to match recording: " + e.getMessage());
+        }
+    }
+
+    private CallLogQuery parseQuery(PluginCall call, int maxLimit) throws JSONException {
+        CallLogQuery query = new CallLogQuery();
+        int defaultLimit = maxLimit == MAX_PAGE_SIZE ? 100 : maxLimit;
+        query.limit = Math.max(1, Math.min(call.getInt("limit", defaultLimit), maxLimit));
+        query.setBefore(call.getString("before"));
+        query.since = call.getLong("since", 0L);
+        query.number = call.getString("number");
+
+        JSArray types = call.getArray("types");
+        if (types != null && types.length() > 0) {
+            query.types = new int[types.length()];
+            for (int i = 0; i < types.length(); i++) {
+                int type = parseCallType(types.getString(i));
+                if (type < 0) throw new IllegalArgumentException("unknown call type " + types.getString(i));
+                query.types[i] = type;
+            }
+        }
+        return query;
+    }
+
+    // Only the requested window is turned into JSON; the cache itself holds primitives
+    private JSObject pageFromCache(CallLogCache cache, CallLogQuery query) throws JSONException {
+        RecordingIntervalIndex.Snapshot recordings = recordingsSnapshot();
         JSONArray callsArray = new JSONArray();
+        long[] last = new long[2];
+        int count = cache.page(query, (id, number, date, duration, type, name) -> {
+            callsArray.put(toJsonUnchecked(recordings, id, number, date, duration, type, name));
+            last[0] = date;
+            last[1] = id;
+        });
+        JSObject result = new JSObject();
+        result.put("calls", callsArray);
+        if (count == query.limit) {
+            result.put("next", CallLogQuery.nextToken(last[0], last[1]));
+        }
+        return result;
+    }
 
+    // One snapshot per request, so every row is matched against the same recordings
+    private RecordingIntervalIndex.Snapshot recordingsSnapshot() {
+        return RecordingIntervalIndex.getInstance(getContext()).snapshot();
+    }
+
+    // For visitors, which cannot throw; put() only fails on non-finite numbers
+    private JSONObject toJsonUnchecked(RecordingIntervalIndex.Snapshot recordings, long id, String number,
+                                       long date, int duration, int type, String name) {
         try {
-            cursor = contentResolver.query(
-                    CallLog.Calls.CONTENT_URI,
-                    projection,
-                    null,
-                    null,
-                    sortOrder
-            );
+            return toJson(recordings, id, number, date, duration, type, name);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
+    private JSONObject toJson(RecordingIntervalIndex.Snapshot recordings, long id, String number,
+                              long date, int duration, int type, String name) throws JSONException {
+        JSONObject callObject = new JSONObject();
+        callObject.put("id", String.valueOf(id));
+        callObject.put("number", number != null ? number : "");
+        callObject.put("date", date);
+        callObject.put("duration", duration);
+        callObject.put("type", getCallTypeString(type));
+        callObject.put("name", name != null ? name : "");
+        List<String> recordingIds = recordings.overlapping(date - RecordingIntervalIndex.MATCH_SLACK_MS,
+                date + duration * 1000L + RecordingIntervalIndex.MATCH_SLACK_MS);
+        if (recordingIds != null) {
+            callObject.put("recordings", new JSONArray(recordingIds));
+        }
+        return callObject;
+    }
+
+    private JSObject fetchCallHistory(CallLogQuery query) throws JSONException {
+        ContentResolver contentResolver = getContext().getContentResolver();
+        RecordingIntervalIndex.Snapshot recordings = recordingsSnapshot();
+        JSONArray callsArray = new JSONArray();
+        long lastDate = 0;
+        long lastId = 0;
+        int count = 0;
+
+        try (Cursor cursor = query.query(contentResolver)) {
             if (cursor != null) {
-                int count = 0;
-                while (cursor.moveToNext() && count < limit) {
-                    @SuppressLint("Range") String number = cursor.getString(cursor.getColumnIndex(Calls.NUMBER));
-                    @SuppressLint("Range") long date = cursor.getLong(cursor.getColumnIndex(Calls.DATE));
-                    @SuppressLint("Range") int duration = cursor.getInt(cursor.getColumnIndex(Calls.DURATION));
-                    @SuppressLint("Range") int type = cursor.getInt(cursor.getColumnIndex(Calls.TYPE));
-                    @SuppressLint("Range") String cachedName = cursor.getString(cursor.getColumnIndex(Calls.CACHED_NAME));
-
-                    JSONObject callObject = new JSONObject();
-                    callObject.put("number", number != null ? number : "");
-                    callObject.put("date", date);
-                    callObject.put("duration", duration);
-                    callObject.put("type", getCallTypeString(type));
-                    callObject.put("name", cachedName != null ? cachedName : "");
-
-                    callsArray.put(callObject);
+                CallLogQuery.Columns col = new CallLogQuery.Columns(cursor);
+                // The provider should already stop at the limit; this guards ones that do not
+                while (count < query.limit && cursor.moveToNext()) {
+                    lastId = cursor.getLong(col.id);
+                    lastDate = cursor.getLong(col.date);
+                    callsArray.put(toJson(recordings, lastId, cursor.getString(col.number), lastDate,
+                            cursor.getInt(col.duration), cursor.getInt(col.type),
+                            cursor.getString(col.cachedName)));
                     count++;
                 }
             } else {
                 Log.e(TAG, "Call log query returned null cursor");
             }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
         }
 
         JSObject result = new JSObject();
         result.put("calls", callsArray);
+        // A full page means there may be more; an empty next page is the end marker
+        if (count == query.limit) {
+            result.put("next", CallLogQuery.nextToken(lastDate, lastId));
+        }
         return result;
     }
 
-    private String getCallTypeString(int type) {
+    private static int parseCallType(String type) {
+        if (type == null) return -1;
+        switch (type) {
+            case "INCOMING":
+                return Calls.INCOMING_TYPE;
+            case "OUTGOING":
+                return Calls.OUTGOING_TYPE;
+            case "MISSED":
+                return Calls.MISSED_TYPE;
+            case "VOICEMAIL":
+                return Calls.VOICEMAIL_TYPE;
+            case "REJECTED":
+                return Calls.REJECTED_TYPE;
+            case "BLOCKED":
+                return Calls.BLOCKED_TYPE;
+            default:
+                return -1;
+        }
+    }
+
+    private static String getCallTypeString(int type) {
         switch (type) {
             case Calls.INCOMING_TYPE:
                 return "INCOMING";
@@ -157,14 +601,15 @@ public class CallHistoryPlugin extends Plugin {
         }
 
         if (savedCall.getMethodName().equals("getCallHistory")) {
-            try {
-                int limit = savedCall.getInt("limit", 100);
-                JSObject result = fetchCallHistory(limit);
-                savedCall.resolve(result);
-            } catch (Exception e) {
-                Log.e(TAG, "Error getting call history after permission grant", e);
-                savedCall.reject("Failed to get call history: " + e.getMessage());
-            }
+            resolveCallHistory(savedCall);
+        } else if (savedCall.getMethodName().equals("streamCallHistory")) {
+            startStream(savedCall);
+        } else if (savedCall.getMethodName().equals("getCallForRecording")) {
+            resolveCallForRecording(savedCall);
+        } else if (savedCall.getMethodName().equals("searchCallHistory")) {
+            cacheExecutor.execute(() -> resolveSearch(savedCall));
+        } else if (savedCall.getMethodName().equals("getCallStats")) {
+            cacheExecutor.execute(() -> resolveCallStats(savedCall));
         }
     }
 }
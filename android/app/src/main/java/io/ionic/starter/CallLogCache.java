@@ -0,0 +1,298 @@
+package io.ionic.starter;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.CallLog.Calls;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory copy of the call log, kept current by a {@link ContentObserver}.
+ *
+ * The log is read once; after that a change notification only fetches rows above the
+ * high-water {@code _ID} and, from API 24, rows whose {@code LAST_MODIFIED} is newer than
+ * any seen, which picks up in-place updates such as a cached name filled in after the
+ * call. Deletions are detected by comparing row counts and reconciled against an ids-only
+ * query. Older releases have no modification stamp, so a notification that neither adds
+ * nor deletes rows re-reads the log. All provider work runs on a private handler thread
+ * into a staging store; readers only wait while staged rows are merged in.
+ *
+ * Rows live in a columnar {@link CallLogStore}; only the page a caller asks for is turned
+ * into objects, through a {@link RowVisitor}. Every inserted row is also fed to a
+ * {@link CallStatsEngine} and a {@link CallSearchIndex}, so aggregates and search never
+ * need another pass over the log.
+ */
+public final class CallLogCache {
+    private static final String TAG = "CallLogCache";
+    // Bursts of notifications (e.g. a sync rewriting many rows) collapse into one refresh
+    private static final long REFRESH_DELAY_MS = 250;
+
+    private static CallLogCache instance;
+
+    private final ContentResolver resolver;
+    private final Handler handler;
+    private final ContentObserver observer;
+    private final Runnable refreshTask = this::refresh;
+
+    private final Object lock = new Object();
+    // Replaced whole by a full load
+    private CallLogStore store = new CallLogStore();
+    private final CallStatsEngine stats = new CallStatsEngine();
+    private final CallSearchIndex searchIndex = new CallSearchIndex();
+    private final CountDownLatch loadedLatch = new CountDownLatch(1);
+    // Calls.LAST_MODIFIED exists from API 24; the projection adds it there
+    private final boolean tracksModified = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    private final String[] projection;
+    // Handler thread only
+    private long highWaterId = -1;
+    private long modifiedHighWater = -1;
+    private volatile boolean loaded = false;
+    private boolean started = false;
+
+    /** Receives one call log row; number and name are never null. */
+    public interface RowVisitor {
+        void visit(long id, String number, long date, int duration, int type, String name);
+    }
+
+    private CallLogCache(Context context) {
+        resolver = context.getContentResolver();
+        if (tracksModified) {
+            projection = Arrays.copyOf(CallLogQuery.PROJECTION, CallLogQuery.PROJECTION.length + 1);
+            projection[projection.length - 1] = Calls.LAST_MODIFIED;
+        } else {
+            projection = CallLogQuery.PROJECTION;
+        }
+        HandlerThread thread = new HandlerThread("call-log-cache", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                handler.removeCallbacks(refreshTask);
+                handler.postDelayed(refreshTask, REFRESH_DELAY_MS);
+            }
+        };
+    }
+
+    public static synchronized CallLogCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallLogCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Starts loading in the background and watching for changes. Call once READ_CALL_LOG
+     * is granted; until {@link #isLoaded()} callers should query the provider directly.
+     */
+    public void ensureStarted() {
+        synchronized (lock) {
+            if (started) return;
+            started = true;
+        }
+        handler.post(() -> {
+            try {
+                resolver.registerContentObserver(Calls.CONTENT_URI, true, observer);
+            } catch (SecurityException e) {
+                Log.w(TAG, "Cannot observe call log: " + e.getMessage());
+            }
+            refresh();
+        });
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /** Blocks until the first load has finished; false on timeout. */
+    public boolean awaitLoaded(long timeoutMs) throws InterruptedException {
+        return loadedLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return store.size();
+        }
+    }
+
+    /**
+     * Visits the rows of the page {@code query} describes, newest first, applying the same
+     * keyset and filters the provider would. Returns the number of rows visited.
+     */
+    public int page(CallLogQuery query, RowVisitor visitor) {
+        synchronized (lock) {
+            boolean filterTypes = query.types != null && query.types.length > 0;
+            boolean filterNumber = query.number != null && !query.number.isEmpty();
+            int count = 0;
+            for (int i = store.lastBefore(query.beforeDate, query.beforeId); i >= 0 && count < query.limit; i--) {
+                if (store.date(i) < query.since) break;
+                if (filterTypes && !contains(query.types, store.type(i))) continue;
+                if (filterNumber && !query.number.equals(store.number(i))) continue;
+                visitor.visit(store.id(i), store.number(i), store.date(i), store.duration(i),
+                        store.type(i), store.name(i));
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /** Hands {@code reader} the aggregates of rows dated {@code since} or later (0 for all). */
+    void stats(long since, CallStatsEngine.GroupBy groupBy, CallStatsEngine.Reader reader) {
+        synchronized (lock) {
+            reader.read(stats.query(store, since, groupBy));
+        }
+    }
+
+    /** Visits the best {@code limit} numbers matching {@code query}; returns how many. */
+    int search(String query, int limit, CallSearchIndex.HitVisitor visitor) {
+        synchronized (lock) {
+            return searchIndex.search(query, limit, visitor);
+        }
+    }
+
+    /** Start of a {@link CallStatsEngine.GroupBy#DAY} group in epoch millis. */
+    long dayStart(long day) {
+        return stats.dayStart(day);
+    }
+
+    // Runs on the handler thread
+    private void refresh() {
+        try {
+            if (!loaded) {
+                loadAll();
+            } else {
+                applyChanges();
+            }
+        } catch (RuntimeException e) {
+            // SecurityException when the permission is revoked, provider errors otherwise
+            Log.w(TAG, "Call log refresh failed: " + e.getMessage());
+        }
+    }
+
+    private void loadAll() {
+        long start = System.nanoTime();
+        CallLogStore fresh = new CallLogStore();
+        highWaterId = -1;
+        modifiedHighWater = -1;
+        queryRows(fresh, null, null);
+        synchronized (lock) {
+            store = fresh;
+            // Aggregates and the search index are only ever added to, so a new store rebuilds them
+            stats.rebuild(store);
+            searchIndex.rebuild(store);
+        }
+        loaded = true;
+        loadedLatch.countDown();
+        Log.i(TAG, "Loaded " + fresh.size() + " call log rows in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void applyChanges() {
+        long since = highWaterId;
+        int cachedSize;
+        synchronized (lock) {
+            cachedSize = store.size();
+        }
+        // Ids only grow, so a count that matches cached + added means nothing was deleted
+        int providerCount = countRows();
+        CallLogStore staged = new CallLogStore();
+        if (tracksModified) {
+            queryRows(staged, Calls._ID + " > ? OR " + Calls.LAST_MODIFIED + " > ?",
+                    new String[]{Long.toString(since), Long.toString(modifiedHighWater)});
+        } else {
+            queryRows(staged, Calls._ID + " > ?", new String[]{Long.toString(since)});
+        }
+        // Rows at or below the old high-water id were cached before; they are updates
+        long[] updatedIds = new long[staged.size()];
+        int updated = 0;
+        for (int i = 0; i < staged.size(); i++) {
+            if (staged.id(i) <= since) updatedIds[updated++] = staged.id(i);
+        }
+        int added = staged.size() - updated;
+        if (!tracksModified && added == 0 && providerCount == cachedSize) {
+            // Without LAST_MODIFIED an in-place update is indistinguishable from no change
+            loadAll();
+            return;
+        }
+        long[] liveIds = providerCount != cachedSize + added ? queryIds() : null;
+        Arrays.sort(updatedIds, 0, updated);
+
+        synchronized (lock) {
+            int removed = liveIds != null ? store.retainIds(liveIds) : 0;
+            if (updated > 0) store.removeIds(Arrays.copyOf(updatedIds, updated));
+            for (int i = 0; i < staged.size(); i++) {
+                store.insert(staged.id(i), staged.number(i), staged.date(i), staged.duration(i),
+                        staged.type(i), staged.name(i));
+            }
+            // Aggregates and the search index are only ever added to, so deletions and updates rebuild them
+            if (removed > 0 || updated > 0) {
+                stats.rebuild(store);
+                searchIndex.rebuild(store);
+            } else {
+                for (int i = 0; i < staged.size(); i++) {
+                    stats.add(staged.number(i), staged.name(i), staged.date(i), staged.duration(i), staged.type(i));
+                    searchIndex.add(staged.id(i), staged.number(i), staged.date(i), staged.duration(i),
+                            staged.type(i), staged.name(i));
+                }
+            }
+            if (added > 0 || updated > 0 || removed > 0) {
+                Log.d(TAG, "Call log changed: +" + added + " ~" + updated + " -" + removed
+                        + ", " + store.size() + " rows");
+            }
+        }
+    }
+
+    /**
+     * Reads matching rows into {@code into}, oldest first so they append, and advances the
+     * high-water marks. Does provider IPC, so callers must not hold the lock.
+     */
+    private void queryRows(CallLogStore into, String selection, String[] args) {
+        try (Cursor cursor = resolver.query(Calls.CONTENT_URI, projection, selection, args,
+                Calls.DATE + " ASC, " + Calls._ID + " ASC")) {
+            if (cursor == null) return;
+            CallLogQuery.Columns col = new CallLogQuery.Columns(cursor);
+            int modifiedCol = tracksModified ? cursor.getColumnIndexOrThrow(Calls.LAST_MODIFIED) : -1;
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(col.id);
+                into.insert(id, cursor.getString(col.number), cursor.getLong(col.date),
+                        cursor.getInt(col.duration), cursor.getInt(col.type), cursor.getString(col.cachedName));
+                highWaterId = Math.max(highWaterId, id);
+                if (modifiedCol >= 0) modifiedHighWater = Math.max(modifiedHighWater, cursor.getLong(modifiedCol));
+            }
+        }
+    }
+
+    private int countRows() {
+        try (Cursor cursor = resolver.query(Calls.CONTENT_URI, new String[]{Calls._ID}, null, null, null)) {
+            return cursor != null ? cursor.getCount() : 0;
+        }
+    }
+
+    // Sorted ascending for binary search
+    private long[] queryIds() {
+        try (Cursor cursor = resolver.query(Calls.CONTENT_URI, new String[]{Calls._ID}, null, null,
+                Calls._ID + " ASC")) {
+            if (cursor == null) return new long[0];
+            long[] ids = new long[cursor.getCount()];
+            int n = 0;
+            while (cursor.moveToNext() && n < ids.length) {
+                ids[n++] = cursor.getLong(0);
+            }
+            return n == ids.length ? ids : Arrays.copyOf(ids, n);
+        }
+    }
+
+    private static boolean contains(int[] values, int v) {
+        for (int x : values) if (x == v) return true;
+        return false;
+    }
+}
@@ -0,0 +1,135 @@
+package io.ionic.starter;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.CallLog.Calls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of {@link Calls}, newest first, addressed by a keyset on {@code (date, _id)}.
+ *
+ * The selection and limit are pushed down to the call log provider, so fetching the page
+ * after a given entry costs O(page) however deep into the log it is. Continue with the
+ * {@link #nextToken} of the last row returned.
+ */
+final class CallLogQuery {
+
+    static final String[] PROJECTION = new String[] {
+            Calls._ID,
+            Calls.NUMBER,
+            Calls.DATE,
+            Calls.DURATION,
+            Calls.TYPE,
+            Calls.CACHED_NAME
+    };
+
+    private static final String SORT_ORDER = Calls.DATE + " DESC, " + Calls._ID + " DESC";
+
+    // Keyset of the last row of the previous page; MAX_VALUE starts from the newest call
+    long beforeDate = Long.MAX_VALUE;
+    long beforeId = Long.MAX_VALUE;
+    // Inclusive lower bound on Calls.DATE, 0 for none
+    long since = 0;
+    int limit = 100;
+    // Calls.TYPE values to keep, null for all
+    int[] types;
+    // Exact Calls.NUMBER to match, null for all
+    String number;
+
+    /**
+     * Sets the keyset from a token produced by {@link #nextToken}. A bare number is taken
+     * as a date, so everything strictly older than it is returned.
+     */
+    void setBefore(String token) {
+        if (token == null || token.isEmpty()) return;
+        int sep = token.indexOf(':');
+        if (sep < 0) {
+            beforeDate = Long.parseLong(token);
+            beforeId = Long.MIN_VALUE;
+        } else {
+            beforeDate = Long.parseLong(token.substring(0, sep));
+            beforeId = Long.parseLong(token.substring(sep + 1));
+        }
+    }
+
+    static String nextToken(long date, long id) {
+        return date + ":" + id;
+    }
+
+    Cursor query(ContentResolver resolver) {
+        List<String> args = new ArrayList<>();
+        String selection = buildSelection(args);
+        String[] selectionArgs = args.toArray(new String[0]);
+
+        // Providers that ignore QUERY_ARG_LIMIT still honor the legacy limit parameter
+        Uri uri = Calls.CONTENT_URI.buildUpon()
+                .appendQueryParameter(Calls.LIMIT_PARAM_KEY, Integer.toString(limit))
+                .build();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, SORT_ORDER);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            return resolver.query(uri, PROJECTION, queryArgs, null);
+        }
+        return resolver.query(uri, PROJECTION, selection, selectionArgs, SORT_ORDER);
+    }
+
+    private String buildSelection(List<String> args) {
+        StringBuilder sb = new StringBuilder();
+        if (beforeDate != Long.MAX_VALUE) {
+            sb.append("(").append(Calls.DATE).append(" < ? OR (")
+                    .append(Calls.DATE).append(" = ? AND ").append(Calls._ID).append(" < ?))");
+            args.add(Long.toString(beforeDate));
+            args.add(Long.toString(beforeDate));
+            args.add(Long.toString(beforeId));
+        }
+        if (since > 0) {
+            and(sb).append(Calls.DATE).append(" >= ?");
+            args.add(Long.toString(since));
+        }
+        if (types != null && types.length > 0) {
+            and(sb).append(Calls.TYPE).append(" IN (");
+            for (int i = 0; i < types.length; i++) {
+                sb.append(i == 0 ? "?" : ",?");
+                args.add(Integer.toString(types[i]));
+            }
+            sb.append(")");
+        }
+        if (number != null && !number.isEmpty()) {
+            and(sb).append(Calls.NUMBER).append(" = ?");
+            args.add(number);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static StringBuilder and(StringBuilder sb) {
+        return sb.length() > 0 ? sb.append(" AND ") : sb;
+    }
+
+    /** Column positions of {@link #PROJECTION}, looked up once per cursor. */
+    static final class Columns {
+        final int id;
+        final int number;
+        final int date;
+        final int duration;
+        final int type;
+        final int cachedName;
+
+        Columns(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(Calls._ID);
+            number = cursor.getColumnIndexOrThrow(Calls.NUMBER);
+            date = cursor.getColumnIndexOrThrow(Calls.DATE);
+            duration = cursor.getColumnIndexOrThrow(Calls.DURATION);
+            type = cursor.getColumnIndexOrThrow(Calls.TYPE);
+            cachedName = cursor.getColumnIndexOrThrow(Calls.CACHED_NAME);
+        }
+    }
+}
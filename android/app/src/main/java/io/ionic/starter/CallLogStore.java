@@ -0,0 +1,229 @@
+package io.ionic.starter;
+
+import java.util.Arrays;
+
+/**
+ * Columnar, primitive-array storage for call log rows.
+ *
+ * Rows are kept oldest first, ordered by {@code (date, _id)}, so new calls append at the
+ * end. Numbers and names are interned into per-store string tables and referenced by
+ * {@code int}, so a large log costs a few dozen bytes per row instead of an object graph.
+ * Not thread-safe; {@link CallLogCache} guards it with its lock.
+ */
+final class CallLogStore {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] dates = new long[INITIAL_CAPACITY];
+    private int[] durations = new int[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] numberRefs = new int[INITIAL_CAPACITY];
+    private int[] nameRefs = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private final StringTable numbers = new StringTable();
+    private final StringTable names = new StringTable();
+
+    int size() {
+        return size;
+    }
+
+    long id(int i) {
+        return ids[i];
+    }
+
+    long date(int i) {
+        return dates[i];
+    }
+
+    int duration(int i) {
+        return durations[i];
+    }
+
+    int type(int i) {
+        return types[i];
+    }
+
+    String number(int i) {
+        return numbers.get(numberRefs[i]);
+    }
+
+    int numberRef(int i) {
+        return numberRefs[i];
+    }
+
+    String name(int i) {
+        return names.get(nameRefs[i]);
+    }
+
+    /** Inserts a row at its (date, id) position; rows arriving in ascending order append in O(1). */
+    void insert(long id, String number, long date, int duration, int type, String name) {
+        if (size == ids.length) grow();
+        int at = size;
+        if (size > 0 && compare(dates[size - 1], ids[size - 1], date, id) > 0) {
+            at = firstAfter(date, id);
+            int tail = size - at;
+            System.arraycopy(ids, at, ids, at + 1, tail);
+            System.arraycopy(dates, at, dates, at + 1, tail);
+            System.arraycopy(durations, at, durations, at + 1, tail);
+            System.arraycopy(types, at, types, at + 1, tail);
+            System.arraycopy(numberRefs, at, numberRefs, at + 1, tail);
+            System.arraycopy(nameRefs, at, nameRefs, at + 1, tail);
+        }
+        ids[at] = id;
+        dates[at] = date;
+        durations[at] = duration;
+        types[at] = (byte) type;
+        numberRefs[at] = numbers.intern(number);
+        nameRefs[at] = names.intern(name);
+        size++;
+    }
+
+    /** Drops every row whose id is not in {@code sortedLiveIds}; returns how many went. */
+    int retainIds(long[] sortedLiveIds) {
+        return filterIds(sortedLiveIds, true);
+    }
+
+    /** Drops every row whose id is in {@code sortedIds}, e.g. before re-inserting updated rows. */
+    int removeIds(long[] sortedIds) {
+        return filterIds(sortedIds, false);
+    }
+
+    private int filterIds(long[] sortedIds, boolean keepListed) {
+        int w = 0;
+        for (int r = 0; r < size; r++) {
+            if (Arrays.binarySearch(sortedIds, ids[r]) >= 0 != keepListed) continue;
+            if (w != r) {
+                ids[w] = ids[r];
+                dates[w] = dates[r];
+                durations[w] = durations[r];
+                types[w] = types[r];
+                numberRefs[w] = numberRefs[r];
+                nameRefs[w] = nameRefs[r];
+            }
+            w++;
+        }
+        int removed = size - w;
+        size = w;
+        return removed;
+    }
+
+    /**
+     * Index of the newest row strictly older than (date, id), or -1 if there is none.
+     * Iterating down from it walks the log newest first, as a keyset page does.
+     */
+    int lastBefore(long date, long id) {
+        if (id == Long.MIN_VALUE) return firstAfter(date - 1, Long.MAX_VALUE) - 1;
+        return firstAfter(date, id - 1) - 1;
+    }
+
+    // Index of the first row with (date, id) greater than the given key
+    private int firstAfter(long date, long id) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(dates[mid], ids[mid], date, id) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int compare(long dateA, long idA, long dateB, long idB) {
+        int c = Long.compare(dateA, dateB);
+        return c != 0 ? c : Long.compare(idA, idB);
+    }
+
+    private void grow() {
+        int capacity = ids.length + (ids.length >> 1);
+        ids = Arrays.copyOf(ids, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        types = Arrays.copyOf(types, capacity);
+        numberRefs = Arrays.copyOf(numberRefs, capacity);
+        nameRefs = Arrays.copyOf(nameRefs, capacity);
+    }
+
+    /** Approximate retained heap: column arrays at their current capacity plus both string tables. */
+    long estimateBytes() {
+        long perRow = 8 + 8 + 4 + 1 + 4 + 4;
+        return perRow * ids.length + numbers.estimateBytes() + names.estimateBytes();
+    }
+
+    int distinctNumbers() {
+        return numbers.size();
+    }
+
+    int distinctNames() {
+        return names.size();
+    }
+
+    /**
+     * Append-only intern table: each distinct string is stored once and addressed by an
+     * int. Ref 0 is the empty string, which also stands for null.
+     */
+    static final class StringTable {
+        private String[] values = new String[64];
+        // Open addressing over refs + 1; 0 marks a free slot
+        private int[] slots = new int[128];
+        private int size = 1;
+
+        StringTable() {
+            values[0] = "";
+        }
+
+        int intern(String s) {
+            if (s == null || s.isEmpty()) return 0;
+            int mask = slots.length - 1;
+            int i = mix(s.hashCode()) & mask;
+            while (true) {
+                int slot = slots[i];
+                if (slot == 0) break;
+                if (values[slot - 1].equals(s)) return slot - 1;
+                i = (i + 1) & mask;
+            }
+            int ref = size++;
+            if (ref == values.length) values = Arrays.copyOf(values, ref + (ref >> 1));
+            values[ref] = s;
+            slots[i] = ref + 1;
+            // Keep the load factor under one half
+            if (size * 2 > slots.length) rehash(slots.length * 2);
+            return ref;
+        }
+
+        String get(int ref) {
+            return values[ref];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void rehash(int capacity) {
+            int[] next = new int[capacity];
+            int mask = capacity - 1;
+            for (int ref = 1; ref < size; ref++) {
+                int i = mix(values[ref].hashCode()) & mask;
+                while (next[i] != 0) i = (i + 1) & mask;
+                next[i] = ref + 1;
+            }
+            slots = next;
+        }
+
+        private static int mix(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        long estimateBytes() {
+            // Array slots plus each String object and its backing char data
+            long bytes = 4L * values.length + 4L * slots.length;
+            for (int ref = 1; ref < size; ref++) {
+                bytes += 40 + 2L * values[ref].length();
+            }
+            return bytes;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.telephony.TelephonyManager;
-import android.os.Build;
 import android.util.Log;
 
 public class CallReceiver extends BroadcastReceiver {
@@ -18,34 +17,24 @@ public class CallReceiver extends BroadcastReceiver {
         if (action.equals("android.intent.action.NEW_OUTGOING_CALL")) {
             String outgoingNumber = intent.getStringExtra(Intent.EXTRA_PHONE_NUMBER);
             Log.i(TAG, "Outgoing call: " + outgoingNumber);
-            // start recorder service
-            Intent s = new Intent(ctx, CallRecorderService.class);
-            s.putExtra("call_type", "outgoing");
-            s.putExtra("number", outgoingNumber);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                ctx.startForegroundService(s);
-            } else {
-                ctx.startService(s);
-            }
+            // outgoing call is being placed — pre-warm the recorder, OFFHOOK starts it
+            CallRecorderService.sendCommand(ctx, CallRecorderService.ACTION_PREPARE, outgoingNumber,
+                    "outgoing");
         } else if (action.equals(TelephonyManager.ACTION_PHONE_STATE_CHANGED) || action.equals("android.intent.action.PHONE_STATE")) {
             String state = intent.getStringExtra(TelephonyManager.EXTRA_STATE);
             String incomingNumber = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
             Log.i(TAG, "Phone state changed: " + state + " number: " + incomingNumber);
 
             if (TelephonyManager.EXTRA_STATE_RINGING.equals(state)) {
-                // ringing — do nothing, wait for OFFHOOK
+                // ringing — pre-warm the recorder so answering only has to start it
+                CallRecorderService.sendCommand(ctx, CallRecorderService.ACTION_PREPARE, incomingNumber,
+                        "ringing");
             } else if (TelephonyManager.EXTRA_STATE_OFFHOOK.equals(state)) {
                 // call answered or outgoing in progress — start recording if not running
-                Intent s = new Intent(ctx, CallRecorderService.class);
-                s.putExtra("call_type", "incall");
-                s.putExtra("number", incomingNumber);
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    ctx.startForegroundService(s);
-                } else {
-                    ctx.startService(s);
-                }
+                CallRecorderService.sendCommand(ctx, CallRecorderService.ACTION_START, incomingNumber,
+                        "offhook");
             } else if (TelephonyManager.EXTRA_STATE_IDLE.equals(state)) {
-                // call ended — stop the service
+                // call ended or rejected — stop the service, discarding an unstarted recorder
                 Intent stop = new Intent(ctx, CallRecorderService.class);
                 ctx.stopService(stop);
             }
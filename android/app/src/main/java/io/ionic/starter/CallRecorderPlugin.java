@@ -0,0 +1,578 @@
+package io.ionic.starter;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.media.projection.MediaProjectionManager;
+import android.os.Build;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.ActivityCallback;
+import com.getcapacitor.annotation.CapacitorPlugin;
+import com.getcapacitor.annotation.Permission;
+
+import androidx.activity.result.ActivityResult;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * CallRecorder - native side of src/plugins/call-recorder.ts
+ */
+@CapacitorPlugin(
+        name = "CallRecorder",
+        permissions = {
+                @Permission(strings = { Manifest.permission.RECORD_AUDIO }, alias = "microphone")
+        }
+)
+public class CallRecorderPlugin extends Plugin {
+
+    private static final String TAG = "CallRecorderPlugin";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int DEFAULT_PEAKS_WIDTH = 800;
+    private static final String EVENT_RECOVERED = "recordingsRecovered";
+
+    @Override
+    @PluginMethod
+    public void requestPermissions(PluginCall call) {
+        if (hasRequiredPermissions()) {
+            resolveGranted(call, true);
+            return;
+        }
+        requestAllPermissions(call, "requestPermissions");
+    }
+
+    /**
+     * Starts recording now, whatever the auto-record setting. The file is named by the service.
+     * Option {@code profile} overrides the profile setting for this recording.
+     */
+    @PluginMethod
+    public void startRecording(PluginCall call) {
+        String profile = call.getString("profile");
+        if (profile != null && !RecordingProfile.isKnown(profile)) {
+            call.reject("Unknown profile " + profile);
+            return;
+        }
+        if (!hasRequiredPermissions()) {
+            requestAllPermissions(call, "startRecording");
+            return;
+        }
+        CallRecorderService.sendCommand(getContext(), CallRecorderService.ACTION_START, null,
+                CallRecorderService.SOURCE_MANUAL, profile);
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+
+    /** Stops the recording in progress; resolves with its path, which is cataloged once finalized. */
+    @PluginMethod
+    public void stopRecording(PluginCall call) {
+        File active = CallRecorderService.getActiveRecording();
+        JSObject result = new JSObject();
+        result.put("success", active != null);
+        if (active != null) {
+            Intent i = new Intent(getContext(), CallRecorderService.class);
+            i.setAction(CallRecorderService.ACTION_STOP);
+            getContext().startService(i);
+            result.put("path", active.getAbsolutePath());
+        }
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void isRecording(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put("recording", CallRecorderService.getActiveRecording() != null);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void setAutoRecord(PluginCall call) {
+        Boolean enabled = call.getBoolean("enabled");
+        if (enabled == null) {
+            call.reject("enabled is required");
+            return;
+        }
+        RecorderSettings.get(getContext()).setAutoRecordEnabled(enabled);
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+
+    /**
+     * One page of finished recordings from the catalog, newest first.
+     *
+     * Options: {@code limit} (default 100, at most 500), {@code before} (the {@code next}
+     * token of the previous page) and {@code number}. The result carries {@code next} when
+     * more recordings may follow.
+     */
+    @PluginMethod
+    public void getRecordings(PluginCall call) {
+        int limit = Math.max(1, Math.min(call.getInt("limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE));
+        long beforeCreatedAt = Long.MAX_VALUE;
+        long beforeId = Long.MAX_VALUE;
+        String before = call.getString("before");
+        try {
+            if (before != null && !before.isEmpty()) {
+                int sep = before.indexOf(':');
+                beforeCreatedAt = Long.parseLong(sep < 0 ? before : before.substring(0, sep));
+                beforeId = sep < 0 ? Long.MIN_VALUE : Long.parseLong(before.substring(sep + 1));
+            }
+        } catch (NumberFormatException e) {
+            call.reject("Invalid before token: " + before);
+            return;
+        }
+
+        try {
+            JSArray recordings = new JSArray();
+            long[] last = new long[2];
+            int count = RecordingCatalog.getInstance(getContext()).page(beforeCreatedAt, beforeId,
+                    call.getString("number"), limit,
+                    (id, name, path, number, createdAt, endedAt, durationMs, sizeBytes, mime) -> {
+                        JSObject r = new JSObject();
+                        r.put("id", name);
+                        r.put("name", name);
+                        r.put("path", path);
+                        r.put("createdAt", createdAt);
+                        r.put("endedAt", endedAt);
+                        r.put("durationMs", durationMs);
+                        r.put("sizeBytes", sizeBytes);
+                        r.put("mime", mime);
+                        if (number != null) r.put("number", number);
+                        recordings.put(r);
+                        last[0] = createdAt;
+                        last[1] = id;
+                    });
+            JSObject result = new JSObject();
+            result.put("recordings", recordings);
+            if (count == limit) result.put("next", last[0] + ":" + last[1]);
+            call.resolve(result);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error listing recordings", e);
+            call.reject("Failed to list recordings: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Same-origin URL that streams the recording {@code id} with range support, for the
+     * WebView's audio element; see {@link RecordingWebViewClient}.
+     */
+    @PluginMethod
+    public void getPlaybackUrl(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            call.reject("id is required");
+            return;
+        }
+        File file = new File(RecordingSession.getRecordingsDir(getContext()), id);
+        if (!file.getName().equals(id) || !file.isFile()) {
+            call.reject("Recording not found: " + id);
+            return;
+        }
+        try {
+            JSObject result = new JSObject();
+            result.put("url", RecordingWebViewClient.urlFor(getBridge(), id));
+            result.put("mime", RecordingCatalog.mimeForName(id));
+            // Playing a recording makes it the last to be evicted
+            RecordingCatalog.getInstance(getContext()).markPlayed(id);
+            call.resolve(result);
+        } catch (IOException e) {
+            Log.e(TAG, "Error building playback URL", e);
+            call.reject("Failed to build playback URL: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waveform peaks of recording {@code id} between {@code start} and {@code end} ms
+     * (default: all of it), from the coarsest sidecar level with at least {@code width}
+     * peaks. Works on a recording in progress too. Values are -128..127.
+     */
+    @PluginMethod
+    public void getPeaks(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            call.reject("id is required");
+            return;
+        }
+        File recording = new File(RecordingSession.getRecordingsDir(getContext()), id);
+        File sidecar = WaveformPeaks.sidecarFor(recording);
+        if (!recording.getName().equals(id) || !sidecar.isFile()) {
+            call.reject("No peaks for recording: " + id);
+            return;
+        }
+        try {
+            WaveformPeaks.Range range = WaveformPeaks.read(sidecar, call.getLong("start", 0L),
+                    call.getLong("end", 0L), Math.max(1, call.getInt("width", DEFAULT_PEAKS_WIDTH)));
+            JSArray min = new JSArray();
+            JSArray max = new JSArray();
+            for (int i = 0; i < range.count(); i++) {
+                min.put(range.minMax[2 * i]);
+                max.put(range.minMax[2 * i + 1]);
+            }
+            JSObject result = new JSObject();
+            result.put("start", range.startMs());
+            result.put("windowMs", range.windowMs());
+            result.put("min", min);
+            result.put("max", max);
+            call.resolve(result);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading peaks for " + id, e);
+            call.reject("Failed to read peaks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Where recording {@code id} skipped silence: each segment gives the file position
+     * ({@code fileMs}) at which the call resumes at {@code callMs}. The first segment is
+     * always {0, 0}; a recording without skipped silence has only that one.
+     */
+    @PluginMethod
+    public void getSegments(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            call.reject("id is required");
+            return;
+        }
+        File recording = new File(RecordingSession.getRecordingsDir(getContext()), id);
+        if (!recording.getName().equals(id)) {
+            call.reject("Recording not found: " + id);
+            return;
+        }
+        File index = SilenceGate.indexFor(recording);
+        try {
+            int[] sampleRate = {1};
+            long[] pairs = index.isFile() ? SilenceGate.readIndex(index, sampleRate) : new long[2];
+            JSArray segments = new JSArray();
+            for (int i = 0; i < pairs.length; i += 2) {
+                JSObject segment = new JSObject();
+                segment.put("callMs", pairs[i] * 1000 / sampleRate[0]);
+                segment.put("fileMs", pairs[i + 1] * 1000 / sampleRate[0]);
+                segments.put(segment);
+            }
+            JSObject result = new JSObject();
+            result.put("segments", segments);
+            call.resolve(result);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading segments for " + id, e);
+            call.reject("Failed to read segments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The session manifest of the call that recording {@code id} belongs to: its part files
+     * in order, with where each starts in the call. Parts deleted since are marked unavailable.
+     */
+    @PluginMethod
+    public void getSession(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null || id.isEmpty()) {
+            call.reject("id is required");
+            return;
+        }
+        File dir = RecordingSession.getRecordingsDir(getContext());
+        File recording = new File(dir, id);
+        if (!recording.getName().equals(id)) {
+            call.reject("Recording not found: " + id);
+            return;
+        }
+        File manifestFile = SessionManifest.manifestFor(recording);
+        if (!manifestFile.isFile()) {
+            call.reject("No session manifest for " + id);
+            return;
+        }
+        try {
+            SessionManifest manifest = SessionManifest.read(manifestFile);
+            JSArray parts = new JSArray();
+            for (SessionManifest.Entry e : manifest.segments) {
+                File file = SessionManifest.resolveSegment(dir, e.name);
+                JSObject part = new JSObject();
+                part.put("id", file.getName());
+                part.put("startMs", e.startMs);
+                part.put("durationMs", e.durationMs);
+                part.put("complete", e.complete);
+                part.put("available", file.isFile());
+                parts.put(part);
+            }
+            JSObject result = new JSObject();
+            result.put("session", manifest.session);
+            result.put("createdAt", manifest.createdAt);
+            result.put("segmentMs", manifest.segmentMs);
+            result.put("complete", manifest.complete);
+            result.put("parts", parts);
+            call.resolve(result);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading session manifest for " + id, e);
+            call.reject("Failed to read session: " + e.getMessage());
+        }
+    }
+
+    /** Background transcode jobs: waiting, encoding now, and given up after repeated failures. */
+    @PluginMethod
+    public void getTranscodeStatus(PluginCall call) {
+        int[] counts = TranscodeQueue.getInstance(getContext()).counts();
+        JSObject result = new JSObject();
+        result.put("pending", counts[0]);
+        result.put("running", counts[1]);
+        result.put("failed", counts[2]);
+        call.resolve(result);
+    }
+
+    /** Bytes held by recordings against the retention quota (0 = none) and free on the volume. */
+    @PluginMethod
+    public void getStorageUsage(PluginCall call) {
+        RetentionManager retention = RetentionManager.getInstance(getContext());
+        JSObject result = new JSObject();
+        result.put("usedBytes", retention.usedBytes());
+        result.put("quotaBytes", RecorderSettings.get(getContext()).getRetentionQuotaBytes());
+        result.put("freeBytes", RecordingSession.getRecordingsDir(getContext()).getUsableSpace());
+        result.put("recordings", retention.recordingCount());
+        call.resolve(result);
+    }
+
+    /**
+     * Outcome of the startup scan for recordings a killed process left incomplete; see
+     * {@link RecordingRecovery}. Also sent as a {@code recordingsRecovered} event when the
+     * scan finds anything.
+     */
+    @PluginMethod
+    public void getRecoveryReport(PluginCall call) {
+        RecordingRecovery recovery = RecordingRecovery.getInstance(getContext());
+        RecordingRecovery.Report report = recovery.getReport();
+        JSObject result = report != null ? reportToJs(report) : new JSObject();
+        result.put("running", recovery.isRunning());
+        call.resolve(result);
+    }
+
+    private static JSObject reportToJs(RecordingRecovery.Report report) {
+        JSArray results = new JSArray();
+        for (RecordingRecovery.Result r : report.results) {
+            JSObject o = new JSObject();
+            o.put("id", r.name);
+            o.put("action", r.action);
+            o.put("detail", r.detail);
+            o.put("durationMs", r.durationMs);
+            results.put(o);
+        }
+        JSObject result = new JSObject();
+        result.put("scanned", report.scanned);
+        result.put("startedAt", report.startedAt);
+        result.put("finishedAt", report.finishedAt);
+        result.put("results", results);
+        return result;
+    }
+
+    @Override
+    public void load() {
+        // Playback is served from the WebView's own origin, see getPlaybackUrl()
+        getBridge().setWebViewClient(new RecordingWebViewClient(getBridge(),
+                RecordingSession.getRecordingsDir(getContext())));
+        // Repairs run in the background; nothing here may hold up the activity's onCreate
+        RecordingRecovery recovery = RecordingRecovery.getInstance(getContext());
+        recovery.setListener(report -> notifyListeners(EVENT_RECOVERED, reportToJs(report)));
+        recovery.scanAsync();
+        // Jobs interrupted by process death continue in the background
+        TranscodeQueue.getInstance(getContext()).resume();
+        RetentionManager.getInstance(getContext()).enforceAsync();
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        RecordingRecovery.getInstance(getContext()).setListener(null);
+        super.handleOnDestroy();
+    }
+
+    @Override
+    protected void handleRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.handleRequestPermissionsResult(requestCode, permissions, grantResults);
+
+        PluginCall savedCall = getSavedCall();
+        if (savedCall == null) {
+            Log.e(TAG, "No stored plugin call for permissions request result");
+            return;
+        }
+
+        boolean granted = true;
+        for (int result : grantResults) {
+            if (result != PackageManager.PERMISSION_GRANTED) granted = false;
+        }
+        if (savedCall.getMethodName().equals("requestPermissions")) {
+            resolveGranted(savedCall, granted);
+        } else if (!granted) {
+            savedCall.reject("Permission denied");
+        } else if (savedCall.getMethodName().equals("startRecording")) {
+            startRecording(savedCall);
+        }
+    }
+
+    /**
+     * Asks the user, through the system capture dialog, to let recordings take the far end
+     * from call playback; resolves {@code granted}. Needs Android 10.
+     */
+    @PluginMethod
+    public void requestPlaybackCapture(PluginCall call) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            resolveGranted(call, false);
+            return;
+        }
+        MediaProjectionManager manager =
+                (MediaProjectionManager) getContext().getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        if (manager == null) {
+            call.reject("Playback capture is not available");
+            return;
+        }
+        startActivityForResult(call, manager.createScreenCaptureIntent(), "playbackCaptureResult");
+    }
+
+    @ActivityCallback
+    private void playbackCaptureResult(PluginCall call, ActivityResult result) {
+        if (call == null) return;
+        boolean granted = result.getResultCode() == Activity.RESULT_OK && result.getData() != null
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+        if (granted) {
+            CallRecorderService.grantPlaybackCapture(getContext(), result.getResultCode(), result.getData());
+        }
+        resolveGranted(call, granted);
+    }
+
+    private static void resolveGranted(PluginCall call, boolean granted) {
+        JSObject result = new JSObject();
+        result.put("granted", granted);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getSettings(PluginCall call) {
+        call.resolve(settingsToJs(RecorderSettings.get(getContext())));
+    }
+
+    /** Updates only the options present in the call; returns the resulting settings. */
+    @PluginMethod
+    public void updateSettings(PluginCall call) {
+        RecorderSettings settings = RecorderSettings.get(getContext());
+        Integer preRollSeconds = call.getInt("preRollSeconds");
+        if (preRollSeconds != null) {
+            if (preRollSeconds < 0 || preRollSeconds > RecorderSettings.MAX_PRE_ROLL_SECONDS) {
+                call.reject("preRollSeconds must be between 0 and " + RecorderSettings.MAX_PRE_ROLL_SECONDS);
+                return;
+            }
+            settings.setPreRollSeconds(preRollSeconds);
+        }
+        Boolean autoRecord = call.getBoolean("autoRecord");
+        if (autoRecord != null) settings.setAutoRecordEnabled(autoRecord);
+        Boolean skipSilence = call.getBoolean("skipSilence");
+        if (skipSilence != null) settings.setSkipSilenceEnabled(skipSilence);
+        Boolean transcode = call.getBoolean("transcode");
+        if (transcode != null) settings.setTranscodeEnabled(transcode);
+        String profile = call.getString("profile");
+        if (profile != null) {
+            if (!RecordingProfile.isKnown(profile)) {
+                call.reject("Unknown profile " + profile);
+                return;
+            }
+            settings.setProfileName(profile);
+        }
+        Boolean dualCapture = call.getBoolean("dualCapture");
+        if (dualCapture != null) {
+            settings.setDualCaptureEnabled(dualCapture);
+            // No reason to keep the capture indicator up for a mode that is off
+            if (!dualCapture) PlaybackCapture.revoke();
+        }
+        Integer segmentMinutes = call.getInt("segmentMinutes");
+        if (segmentMinutes != null) {
+            if (segmentMinutes < 0 || segmentMinutes > RecorderSettings.MAX_SEGMENT_MINUTES) {
+                call.reject("segmentMinutes must be between 0 and " + RecorderSettings.MAX_SEGMENT_MINUTES);
+                return;
+            }
+            settings.setSegmentMinutes(segmentMinutes);
+        }
+        Integer quotaMb = call.getInt("retentionQuotaMb");
+        Integer maxAgeDays = call.getInt("retentionMaxAgeDays");
+        if ((quotaMb != null && quotaMb < 0) || (maxAgeDays != null && maxAgeDays < 0)) {
+            call.reject("Retention limits must not be negative");
+            return;
+        }
+        if (quotaMb != null) settings.setRetentionQuotaMb(quotaMb);
+        if (maxAgeDays != null) settings.setRetentionMaxAgeDays(maxAgeDays);
+        if (quotaMb != null || maxAgeDays != null) {
+            RetentionManager.getInstance(getContext()).enforceAsync();
+        }
+        call.resolve(settingsToJs(settings));
+    }
+
+    private static JSObject settingsToJs(RecorderSettings settings) {
+        JSObject result = new JSObject();
+        result.put("preRollSeconds", settings.getPreRollSeconds());
+        result.put("maxPreRollSeconds", RecorderSettings.MAX_PRE_ROLL_SECONDS);
+        result.put("autoRecord", settings.isAutoRecordEnabled());
+        result.put("skipSilence", settings.isSkipSilenceEnabled());
+        result.put("transcode", settings.isTranscodeEnabled());
+        result.put("profile", settings.getProfileName());
+        JSArray profiles = new JSArray();
+        for (String name : RecordingProfile.names()) profiles.put(name);
+        result.put("profiles", profiles);
+        result.put("dualCapture", settings.isDualCaptureEnabled());
+        result.put("playbackCaptureGranted", PlaybackCapture.isAvailable());
+        result.put("segmentMinutes", settings.getSegmentMinutes());
+        result.put("maxSegmentMinutes", RecorderSettings.MAX_SEGMENT_MINUTES);
+        result.put("retentionQuotaMb", settings.getRetentionQuotaMb());
+        result.put("retentionMaxAgeDays", settings.getRetentionMaxAgeDays());
+        return result;
+    }
+
+    /**
+     * Start-latency percentiles (ms after the trigger) for recent recordings, per hop:
+     * service command received, recorder prepared, recorder started, first buffer on disk.
+     */
+    @PluginMethod
+    public void getStartLatencyStats(PluginCall call) {
+        try {
+            int recentLimit = call.getInt("recent", 0);
+            StartLatencyTracker tracker = StartLatencyTracker.getInstance(getContext());
+
+            JSObject stages = new JSObject();
+            for (int hop = 0; hop < StartLatencyTracker.HOP_NAMES.length; hop++) {
+                long[] p = tracker.percentiles(hop);
+                if (p == null) continue;
+                JSObject stage = new JSObject();
+                stage.put("p50", p[0] / 1000.0);
+                stage.put("p95", p[1] / 1000.0);
+                stage.put("p99", p[2] / 1000.0);
+                stages.put(StartLatencyTracker.HOP_NAMES[hop], stage);
+            }
+
+            JSArray recent = new JSArray();
+            tracker.forEachRecent(recentLimit, (source, recordedAt, prewarmed, hopMicros) -> {
+                JSObject r = new JSObject();
+                r.put("source", source);
+                r.put("recordedAt", recordedAt);
+                r.put("prewarmed", prewarmed);
+                for (int hop = 0; hop < hopMicros.length; hop++) {
+                    if (hopMicros[hop] >= 0) {
+                        r.put(StartLatencyTracker.HOP_NAMES[hop], hopMicros[hop] / 1000.0);
+                    }
+                }
+                recent.put(r);
+            });
+
+            JSObject result = new JSObject();
+            result.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+            result.put("sdk", Build.VERSION.SDK_INT);
+            result.put("count", tracker.size());
+            result.put("prewarmed", tracker.prewarmedCount());
+            result.put("stages", stages);
+            result.put("recent", recent);
+            call.resolve(result);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading start latency stats", e);
+            call.reject("Failed to get start latency stats: " + e.getMessage());
+        }
+    }
+}
@@ -16,52 +16,65 @@ import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioPlaybackCaptureConfiguration;
 import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Build;
 import android.os.Environment;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
+import androidx.core.content.IntentCompat;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class CallRecorderService extends Service {
     private static final String TAG = "CallRecorderService";
     private static final int NOTIFICATION_ID = 231;
     private static final String CHANNEL_ID = "callrec";
 
-    private MediaRecorder recorder;
-    private File outFile;
-    private boolean isRecording = false;
-    private AudioRecord audioRecord;
-    // Audio sources to try in order of preference
-    private static final int[] AUDIO_SOURCES = {
-           MediaRecorder.AudioSource.VOICE_COMMUNICATION,
-            MediaRecorder.AudioSource.MIC,
-            MediaRecorder.AudioSource.VOICE_RECOGNITION,
-            MediaRecorder.AudioSource.CAMCORDER
-    };
-
-    private static final String[] SOURCE_NAMES = {
-           "VOICE_COMMUNICATION",
-            "MIC", "VOICE_RECOGNITION",
-            "CAMCORDER"
-    };
+    public static final String ACTION_PREPARE = "PREPARE_RECORDING";
+    public static final String ACTION_START = "START_RECORDING";
+    public static final String ACTION_STOP = "STOP_RECORDING";
+    // Releases a recorder prepared for a call that ended unanswered, see cancelPrepared()
+    public static final String ACTION_CANCEL_PREPARED = "CANCEL_PREPARED_RECORDING";
+    // Carries a capture-consent result, see grantPlaybackCapture()
+    public static final String ACTION_GRANT_CAPTURE = "GRANT_PLAYBACK_CAPTURE";
+    private static final String EXTRA_RESULT_CODE = "result_code";
+    private static final String EXTRA_RESULT_DATA = "result_data";
+    public static final String EXTRA_NUMBER = "number";
+    // elapsedRealtimeNanos() of the telecom/UI event that asked for the command
+    public static final String EXTRA_TRIGGER_NANOS = "trigger_nanos";
+    public static final String EXTRA_TRIGGER_SOURCE = "trigger_source";
+    // Trigger source of recordings the user started from the app; exempt from auto-record
+    public static final String SOURCE_MANUAL = "manual";
+    // A prepared recorder that no answer event picked up is released after this long
+    private static final long PREPARE_TIMEOUT_MS = 2 * 60 * 1000;
+
+    // Serializes prepare/start/stop so a ring-time prepare always completes before start
+    private final ScheduledExecutorService sessionExecutor = Executors.newSingleThreadScheduledExecutor();
+    private RecordingSession session;
+    private ScheduledFuture<?> prepareTimeout;
+    // File being written by a started session in this process, null otherwise
+    private static volatile RecordingSession activeSession;
 
     @Override
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
+        // Started by a call with the app closed, this is the first chance to repair
+        RecordingRecovery.getInstance(this).scanAsync();
     }
 
     private void createNotificationChannel() {
@@ -80,66 +93,11 @@ public class CallRecorderService extends Service {
     @RequiresApi(api = Build.VERSION_CODES.Q)
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        long commandNanos = SystemClock.elapsedRealtimeNanos();
         if (intent != null && intent.getAction() != null) {
-
-            // // 1️⃣ Start foreground first
-            // Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
-            //         .setContentTitle("Call Recording")
-            //         .setContentText("Recording in progress")
-            //         .setSmallIcon(R.mipmap.ic_launcher)
-            //         .build();
-
-            // startForeground(NOTIFICATION_ID, notification,
-            //         ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PROJECTION);
-
-            // // 2️⃣ Now get MediaProjection safely
-            // int resultCode = intent.getIntExtra("resultCode", Activity.RESULT_CANCELED);
-            // Intent data = intent.getParcelableExtra("data");
-
-            // if (data == null) {
-            //     stopSelf();
-            //     return START_NOT_STICKY;
-            // }
-
-            // MediaProjectionManager projectionManager =
-            //         (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
-            // MediaProjection mediaProjection = projectionManager.getMediaProjection(resultCode, data);
-
-            // AudioPlaybackCaptureConfiguration config =
-            //         new AudioPlaybackCaptureConfiguration.Builder(mediaProjection)
-            //                 .addMatchingUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION)
-            //                 .build();
-
-
-            // AudioFormat format = new AudioFormat.Builder()
-            //         .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
-            //         .setSampleRate(44100)
-            //         .setChannelMask(AudioFormat.CHANNEL_IN_MONO)
-            //         .build();
-
-            // int bufferSize = AudioRecord.getMinBufferSize(
-            //         44100,
-            //         AudioFormat.CHANNEL_IN_MONO,
-            //         AudioFormat.ENCODING_PCM_16BIT
-            // );
-
-            // if (ActivityCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
-            //     // TODO: Consider calling
-            //     //    ActivityCompat#requestPermissions
-            //     // here to request the missing permissions, and then overriding
-            //     //   public void onRequestPermissionsResult(int requestCode, String[] permissions,
-            //     //                                          int[] grantResults)
-            //     // to handle the case where the user grants the permission. See the documentation
-            //     // for ActivityCompat#requestPermissions for more details.
-            //     return START_STICKY;
-            // }
-            // audioRecord = new AudioRecord.Builder()
-            //         .setAudioFormat(format)
-            //         .setBufferSizeInBytes(bufferSize)
-            //         .setAudioPlaybackCaptureConfig(config)
-            //         .build();
-
-            if (intent.getAction().equals("START_RECORDING")) {
+            String action = intent.getAction();
+            String source = intent.getStringExtra(EXTRA_TRIGGER_SOURCE);
+            if (ACTION_PREPARE.equals(action) || ACTION_START.equals(action)) {
 
             //     String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
             //     File file = new File(getExternalFilesDir(Environment.DIRECTORY_MUSIC),
@@ -148,49 +106,138 @@ public class CallRecorderService extends Service {
             //     startRecording(file, bufferSize);
                 // Check permissions before starting
                if (checkPermissions()) {
-                   new Thread(this::startRecording).start();
+                   boolean start = ACTION_START.equals(action);
+                   RecorderSettings settings = RecorderSettings.get(this);
+                   int preRollSeconds = start ? 0 : settings.getPreRollSeconds();
+                   boolean skipSilence = settings.isSkipSilenceEnabled();
+                   long segmentMs = settings.getSegmentMinutes() * 60_000L;
+                   boolean dualCapture = capturesBothSides(this);
+                   // A recording already in progress keeps its own notification
+                   if (activeSession == null) {
+                       enterForeground(start ? "Call Recording Active" : "Call Recorder Ready",
+                               start ? "Starting recording"
+                                       : preRollSeconds > 0 ? "Buffering audio until the call connects"
+                                       : "Waiting for the call to connect");
+                   }
+                   String profileName = intent.getStringExtra(RecordingProfile.EXTRA_PROFILE);
+                   RecordingProfile profile = RecordingProfile.forName(
+                           profileName != null ? profileName : settings.getProfileName());
+                   String number = intent.getStringExtra(EXTRA_NUMBER);
+                   long triggerNanos = intent.getLongExtra(EXTRA_TRIGGER_NANOS, commandNanos);
+                   sessionExecutor.execute(() -> {
+                       prepareRecording(profile, number, preRollSeconds, skipSilence, segmentMs, dualCapture);
+                       if (start && session != null) {
+                           session.markStartRequested(source, triggerNanos, commandNanos);
+                           startRecording();
+                       }
+                   });
                } else {
                    Log.e(TAG, "Missing required permissions");
                    stopSelf();
                }
-           } else if (intent.getAction().equals("STOP_RECORDING")) {
+           } else if (ACTION_STOP.equals(action)) {
                 stopRecordingAndService();
+            } else if (ACTION_CANCEL_PREPARED.equals(action)) {
+                sessionExecutor.execute(this::cancelPreparedSession);
+            } else if (ACTION_GRANT_CAPTURE.equals(action)) {
+                // The projection may only be obtained once the service runs with its type
+                enterForeground("Call Recorder", "Enabling call audio capture", true);
+                int resultCode = intent.getIntExtra(EXTRA_RESULT_CODE, Activity.RESULT_CANCELED);
+                Intent data = IntentCompat.getParcelableExtra(intent, EXTRA_RESULT_DATA, Intent.class);
+                sessionExecutor.execute(() -> {
+                    if (data == null || !PlaybackCapture.grant(this, resultCode, data)) {
+                        Log.w(TAG, "Playback capture was not granted");
+                    }
+                    if (session == null) stopSelf();
+                });
             }
         }
         return START_STICKY;
     }
 
-    // private void startRecording(File file, int bufferSize) {
-    //     isRecording = true;
-    //     audioRecord.startRecording();
+    /**
+     * Sends {@code action} to the recorder service, starting it in the foreground where the
+     * platform requires it. Teardown of a prepared but unanswered call goes through
+     * {@link #cancelPrepared} instead.
+     *
+     * @param source short label of the triggering event, kept with the start-latency record
+     */
+    public static void sendCommand(Context context, String action, String number, String source) {
+        sendCommand(context, action, number, source, null);
+    }
 
-    //     new Thread(() -> {
-    //         try {
-    //             FileOutputStream fos = new FileOutputStream(file);
-    //             byte[] buffer = new byte[bufferSize];
+    /**
+     * @param profile {@link RecordingProfile} name for this call; null uses the profile setting
+     */
+    public static void sendCommand(Context context, String action, String number, String source,
+                                   String profile) {
+        RecorderSettings settings = RecorderSettings.get(context);
+        // Checked here rather than in the service, which could not be started without a notification
+        if (!ACTION_STOP.equals(action) && !SOURCE_MANUAL.equals(source)
+                && !settings.isAutoRecordEnabled()) {
+            Log.i(TAG, "Auto-record is off, ignoring " + action + " from " + source);
+            return;
+        }
+        Intent i = new Intent(context, CallRecorderService.class);
+        i.setAction(action);
+        i.putExtra(EXTRA_TRIGGER_NANOS, SystemClock.elapsedRealtimeNanos());
+        i.putExtra(EXTRA_TRIGGER_SOURCE, source);
+        if (number != null) i.putExtra(EXTRA_NUMBER, number);
+        i.putExtra(RecordingProfile.EXTRA_PROFILE, profile != null ? profile : settings.getProfileName());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(i);
+        } else {
+            context.startService(i);
+        }
+    }
 
-    //             // Write placeholder WAV header
-    //             byte[] wavHeader = new byte[44];
-    //             fos.write(wavHeader);
+    /**
+     * Releases the recorder prepared for a call that ended without being answered. Unlike
+     * {@link #ACTION_STOP} this leaves a started recording alone, such as the active call's
+     * when a waiting call is declined.
+     */
+    public static void cancelPrepared(Context context) {
+        Intent i = new Intent(context, CallRecorderService.class);
+        i.setAction(ACTION_CANCEL_PREPARED);
+        try {
+            context.startService(i);
+        } catch (IllegalStateException e) {
+            // Background start refused: the service is not in the foreground, so nothing is prepared
+            Log.d(TAG, "Recorder not running, nothing to cancel");
+        }
+    }
 
-    //             int totalAudioLen = 0;
-    //             while (isRecording) {
-    //                 int read = audioRecord.read(buffer, 0, buffer.length);
-    //                 if (read > 0) {
-    //                     fos.write(buffer, 0, read);
-    //                     totalAudioLen += read;
-    //                 }
-    //             }
+    /**
+     * Hands the result of the system capture-consent dialog to the service, which keeps it
+     * as the {@link PlaybackCapture} projection for later recordings.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    public static void grantPlaybackCapture(Context context, int resultCode, Intent data) {
+        Intent i = new Intent(context, CallRecorderService.class);
+        i.setAction(ACTION_GRANT_CAPTURE);
+        i.putExtra(EXTRA_RESULT_CODE, resultCode);
+        i.putExtra(EXTRA_RESULT_DATA, data);
+        context.startForegroundService(i);
+    }
 
-    //             fos.close();
-    //             WavFileWriter.writeWavHeader(file, totalAudioLen, 44100, 1, 16);
+    /** Whether the next recording will pair the mic with captured playback, one per channel. */
+    public static boolean capturesBothSides(Context context) {
+        return RecorderSettings.get(context).isDualCaptureEnabled() && PlaybackCapture.isAvailable();
+    }
 
-    //         } catch (Exception e) {
-    //             e.printStackTrace();
-    //         }
-    //     }).start();
-    // }
+    /**
+     * Whether the next recording takes the far end of the call from playback, so the call
+     * does not need the speakerphone for the mic to pick it up.
+     */
+    public static boolean capturesCallAudio(Context context) {
+        return capturesBothSides(context) && PlaybackCapture.capturesVoiceCalls(context);
+    }
 
+    /** The file a recording in progress is being written to now, or null when not recording. */
+    public static File getActiveRecording() {
+        RecordingSession s = activeSession;
+        return s != null ? s.getCurrentFile() : null;
+    }
 
     private boolean checkPermissions() {
         // Check if we have record audio permission
@@ -208,132 +255,148 @@ public class CallRecorderService extends Service {
         return true;
     }
 
+    // Runs on sessionExecutor
+    private void prepareRecording(RecordingProfile profile, String number, int preRollSeconds,
+                                  boolean skipSilence, long segmentMs, boolean dualCapture) {
+        if (session != null) return;
+        try {
+            // Runs in the background; a short call may still fit, so a shortfall is only logged
+            RetentionManager.getInstance(this).ensureHeadroomAsync(
+                    dualCapture ? profile.getPcmByteRate() * 2 : profile.getPcmByteRate());
+            session = RecordingSession.prepare(this, profile, number, preRollSeconds, skipSilence, segmentMs,
+                    dualCapture, this::catalogSegment);
+            Log.i(TAG, "Recorder prepared: " + session.getFile().getAbsolutePath() + " ("
+                    + session.getProfile().name + ", " + (session.isDualCapture() ? "playback+mic" : "mic-only") + ")");
+            prepareTimeout = sessionExecutor.schedule(this::expirePreparedSession,
+                    PREPARE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to prepare recorder: " + e.getMessage(), e);
+            stopSelf();
+        }
+    }
+
+    // Runs on sessionExecutor
     private void startRecording() {
+        if (session == null || session.isStarted()) return;
+        cancelPrepareTimeout();
         try {
-            // Create directory if it doesn't exist
-            File dir = new File(getExternalFilesDir(Environment.DIRECTORY_MUSIC), "CallRecords");
-            if (!dir.exists() && !dir.mkdirs()) {
-                Log.e(TAG, "Failed to create directory: " + dir.getAbsolutePath());
-                stopSelf();
-                return;
-            }
+            session.start();
+            activeSession = session;
+            String filename = session.getFile().getName();
+            enterForeground("Call Recording Active", "Recording: " + filename);
+            Log.i(TAG, "Recording started at: " + session.getFile().getAbsolutePath());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Recorder start failed: " + e.getMessage(), e);
+            session.cancel();
+            session = null;
+            stopSelf();
+        }
+    }
 
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-            String filename = "call_" + timestamp + ".wav"; // Using AMR format for better compatibility with voice
-            outFile = new File(dir, filename);
-
-            recorder = new MediaRecorder();
-            // recorder.setOutputFormat(MediaRecorder.OutputFormat.AMR_NB);
-
-
-            // Try different audio sources
-            boolean audioSourceSet = false;
-            for (int i = 0; i < AUDIO_SOURCES.length; i++) {
-                try {
-                    recorder.setAudioSource(AUDIO_SOURCES[i]);
-                    audioSourceSet = true;
-                    Log.i(TAG, "Using audio source: " + SOURCE_NAMES[i]);
-                    break;
-                } catch (Exception e) {
-                    Log.w(TAG, "Audio source " + SOURCE_NAMES[i] + " failed: " + e.getMessage());
-                }
-            }
+    // Runs on sessionExecutor
+    private void expirePreparedSession() {
+        if (session != null && !session.isStarted()) {
+            Log.w(TAG, "Prepared recorder was never started, releasing it");
+            stopRecording();
+            stopSelf();
+        }
+    }
 
-            if (!audioSourceSet) {
-                Log.e(TAG, "All audio sources failed");
-                stopSelf();
-                return;
-            }
+    // Runs on sessionExecutor
+    private void cancelPreparedSession() {
+        if (session != null && session.isStarted()) {
+            Log.i(TAG, "Recording in progress, ignoring cancel of prepared recorder");
+            return;
+        }
+        stopRecording();
+        stopSelf();
+    }
 
-            recorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-            recorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-            recorder.setAudioEncodingBitRate(128000);
-            recorder.setAudioSamplingRate(44100);
-            recorder.setOutputFile(outFile.getAbsolutePath());
+    private void cancelPrepareTimeout() {
+        if (prepareTimeout != null) {
+            prepareTimeout.cancel(false);
+            prepareTimeout = null;
+        }
+    }
 
-            try {
-                recorder.prepare();
-            } catch (IOException e) {
-                Log.e(TAG, "Recorder prepare failed: " + e.getMessage(), e);
-                stopSelf();
-                return;
-            }
+    private void enterForeground(String title, String text) {
+        enterForeground(title, text, PlaybackCapture.isAvailable());
+    }
 
-            // Start recording
+    // The mediaProjection type is only allowed while a projection is held or being obtained
+    private void enterForeground(String title, String text, boolean projection) {
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setSmallIcon(android.R.drawable.ic_btn_speak_now)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             try {
-                recorder.start();
-                isRecording = true;
-
-                // Create and show notification
-                Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
-                        .setContentTitle("Call Recording Active")
-                        .setContentText("Recording: " + filename)
-                        .setSmallIcon(android.R.drawable.ic_btn_speak_now)
-                        .setOngoing(true)
-                        .setPriority(NotificationCompat.PRIORITY_LOW)
-                        .build();
-
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                    try {
-                        int typeMicrophone = Service.class.getField("FOREGROUND_SERVICE_TYPE_MICROPHONE").getInt(null);
-                        startForeground(NOTIFICATION_ID, notification, typeMicrophone);
-                        // startForeground(NOTIFICATION_ID, notification, FOREGROUND_SERVICE_TYPE_MEDIA_PROJECTION);
-                    } catch (Exception e) {
-                        startForeground(NOTIFICATION_ID, notification);
-                    }
-                } else {
-                    startForeground(NOTIFICATION_ID, notification);
-                }
-
-                Log.i(TAG, "Recording started at: " + outFile.getAbsolutePath());
-            } catch (RuntimeException e) {
-                Log.e(TAG, "Recorder start failed: " + e.getMessage(), e);
-                stopSelf();
+                int type = ServiceInfo.class.getField("FOREGROUND_SERVICE_TYPE_MICROPHONE").getInt(null);
+                if (projection) type |= FOREGROUND_SERVICE_TYPE_MEDIA_PROJECTION;
+                startForeground(NOTIFICATION_ID, notification, type);
+            } catch (Exception e) {
+                startForeground(NOTIFICATION_ID, notification);
             }
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to setup recorder: " + e.getMessage(), e);
-            stopSelf();
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
         }
     }
 
     private void stopRecordingAndService() {
-        stopRecording();
-        stopSelf();
+        sessionExecutor.execute(() -> {
+            stopRecording();
+            stopSelf();
+        });
     }
 
+    // Runs on sessionExecutor
     private void stopRecording() {
-        if (recorder != null && isRecording) {
-            try {
-                // Properly stop and reset the recorder
-                recorder.stop();
-                recorder.reset();
-                Log.i(TAG, "Recording stopped. File: " + outFile.getAbsolutePath());
-
-                // Verify file was created and has content
-                if (outFile.exists()) {
-                    long fileSize = outFile.length();
-                    Log.i(TAG, "Recording file size: " + fileSize + " bytes");
-                    if (fileSize == 0) {
-                        Log.w(TAG, "Recording file is empty - no audio was captured");
-                    }
-                } else {
-                    Log.w(TAG, "Recording file was not created");
-                }
-            } catch (RuntimeException e) {
-                Log.e(TAG, "Error stopping recorder: " + e.getMessage(), e);
-            } finally {
-                recorder.release();
-                recorder = null;
-                isRecording = false;
-            }
+        cancelPrepareTimeout();
+        if (session == null) return;
+        RecordingSession s = session;
+        session = null;
+        activeSession = null;
+        if (!s.isStarted()) {
+            s.cancel();
+            return;
+        }
+        try {
+            // Each segment was cataloged as it was finalized
+            s.stop();
+            Log.i(TAG, "Recording stopped: " + s.getFile().getName() + ", " + s.getDurationMs() / 1000 + " s");
+            StartLatencyTracker.getInstance(this).add(s.getLatency());
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error stopping recorder: " + e.getMessage(), e);
+        }
+    }
+
+    // Runs on the session's segment thread, mid-call for all but the last segment
+    private void catalogSegment(File file, String number, long createdAt, long durationMs) {
+        if (!file.exists()) {
+            Log.w(TAG, "Recording file was not created: " + file.getName());
+            return;
+        }
+        long fileSize = file.length();
+        Log.i(TAG, "Recording segment " + file.getName() + ": " + fileSize + " bytes");
+        if (fileSize <= WavFileWriter.HEADER_SIZE) {
+            Log.w(TAG, "Recording file is empty - no audio was captured");
+        }
+        RecordingCatalog.getInstance(this).add(file, number, createdAt, createdAt + durationMs, durationMs,
+                RecordingCatalog.mimeForName(file.getName()));
+        if (RecorderSettings.get(this).isTranscodeEnabled()) {
+            TranscodeQueue.getInstance(this).enqueue(file);
         }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-       stopRecording();
+        sessionExecutor.execute(this::stopRecording);
+        sessionExecutor.shutdown();
         // isRecording = false;
         // if (audioRecord != null) {
         //     audioRecord.stop();
@@ -0,0 +1,383 @@
+package io.ionic.starter;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Search over the numbers and cached names in the call log, one entry per normalized
+ * number (see {@link CallStatsEngine#normalizeNumber}).
+ *
+ * Digits go into a trie twice, as dialled and without the country or trunk prefix, so
+ * typing either form finds the number by prefix. Names and digit strings are also split
+ * into trigrams plus one- and two-char word starts, each with a posting list of entries;
+ * a query verifies only the entries on its shortest list. Entries are added as the cache
+ * inserts rows, and rebuilt after deletions. Not thread-safe; the cache calls it under
+ * its lock.
+ */
+final class CallSearchIndex {
+    static final int MATCH_NUMBER = 1;
+    static final int MATCH_NAME = 2;
+
+    // Exact number > number or name prefix > word prefix > substring; ties go to recency
+    private static final int SCORE_EXACT = 4;
+    private static final int SCORE_PREFIX = 3;
+    private static final int SCORE_WORD = 2;
+    private static final int SCORE_SUBSTRING = 1;
+    // Longer numbers are also indexed by their national part
+    private static final int NATIONAL_DIGITS = 10;
+    private static final long WORD_START = 1L << 48;
+
+    /** Receives one ranked match: the latest call for the number and how many calls it has. */
+    interface HitVisitor {
+        void visit(long id, String number, long date, int duration, int type, String name,
+                   int calls, int matched);
+    }
+
+    private final CallStatsEngine.LongIntMap entryByKey = new CallStatsEngine.LongIntMap();
+    private int size = 0;
+    private String[] numbers = new String[64];
+    private String[] digits = new String[64];
+    private String[] names = new String[64];
+    private String[] lowerNames = new String[64];
+    private long[] lastIds = new long[64];
+    private long[] lastDates = new long[64];
+    private int[] lastDurations = new int[64];
+    private int[] lastTypes = new int[64];
+    private int[] calls = new int[64];
+
+    // Digit trie: node n's child for digit d is children[n * 10 + d], 0 for none (0 is the root)
+    private int[] children = new int[10 * 256];
+    private int nodes = 1;
+    // Entries ending at a node, as linked lists through termNext
+    private int[] termHead = new int[256];
+    private int[] termEntry = new int[256];
+    private int[] termNext = new int[256];
+    private int terms = 0;
+
+    private final CallStatsEngine.LongIntMap postingByGram = new CallStatsEngine.LongIntMap();
+    private int[][] postings = new int[256][];
+    private int[] postingSizes = new int[256];
+    private int postingCount = 0;
+
+    // Per-query scratch, reused; seen[e] == generation marks e as already a candidate
+    private int[] seen = new int[64];
+    private int[] scores = new int[64];
+    private int[] matchedBy = new int[64];
+    private int[] candidates = new int[64];
+    private int candidateCount = 0;
+    private int generation = 0;
+
+    CallSearchIndex() {
+        Arrays.fill(termHead, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        entryByKey.clear();
+        postingByGram.clear();
+        size = 0;
+        Arrays.fill(children, 0, nodes * 10, 0);
+        nodes = 1;
+        Arrays.fill(termHead, -1);
+        terms = 0;
+        postingCount = 0;
+    }
+
+    /** Accounts one newly cached row. */
+    void add(long id, String number, long date, int duration, int type, String name) {
+        long key = CallStatsEngine.normalizeNumber(number);
+        if (key < 0) return;
+        int e = entryByKey.get(key);
+        if (e < 0) {
+            e = newEntry(key, number);
+        }
+        calls[e]++;
+        if (date >= lastDates[e]) {
+            lastIds[e] = id;
+            lastDates[e] = date;
+            lastDurations[e] = duration;
+            lastTypes[e] = type;
+            if (name != null && !name.isEmpty() && !name.equals(names[e])) {
+                // The old name's grams stay posted; verification drops them
+                names[e] = name;
+                lowerNames[e] = name.toLowerCase(Locale.ROOT);
+                indexText(e, lowerNames[e]);
+            }
+        }
+    }
+
+    /** Re-indexes from the store; used after rows were deleted. */
+    void rebuild(CallLogStore store) {
+        clear();
+        for (int i = 0; i < store.size(); i++) {
+            add(store.id(i), store.number(i), store.date(i), store.duration(i), store.type(i), store.name(i));
+        }
+    }
+
+    /** Visits up to {@code limit} entries matching {@code query}, best first; returns how many. */
+    int search(String query, int limit, HitVisitor visitor) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        if (q.isEmpty() || limit <= 0) return 0;
+        beginQuery();
+
+        String qDigits = dialableDigits(q);
+        if (qDigits != null) {
+            collectDigitPrefix(qDigits);
+            String national = stripTrunk(qDigits);
+            if (!national.equals(qDigits)) collectDigitPrefix(national);
+            if (qDigits.length() >= 3) collectSubstring(qDigits, false);
+        }
+        if (q.length() >= 3) {
+            collectSubstring(q, true);
+        } else {
+            collectWordStart(q);
+        }
+        return emitTop(limit, visitor);
+    }
+
+    private int newEntry(long key, String number) {
+        int e = size++;
+        if (e == numbers.length) grow();
+        numbers[e] = number;
+        digits[e] = digitsOf(number);
+        names[e] = null;
+        lowerNames[e] = null;
+        lastDates[e] = Long.MIN_VALUE;
+        calls[e] = 0;
+        entryByKey.put(key, e);
+
+        String full = digits[e];
+        insertDigits(full, e);
+        String national = full.length() > NATIONAL_DIGITS
+                ? full.substring(full.length() - NATIONAL_DIGITS) : stripTrunk(full);
+        if (!national.equals(full)) insertDigits(national, e);
+        indexText(e, full);
+        return e;
+    }
+
+    private void insertDigits(String s, int e) {
+        int node = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int slot = node * 10 + (s.charAt(i) - '0');
+            if (children[slot] == 0) {
+                if (nodes * 10 == children.length) {
+                    children = Arrays.copyOf(children, children.length * 2);
+                    int old = termHead.length;
+                    termHead = Arrays.copyOf(termHead, old * 2);
+                    Arrays.fill(termHead, old, termHead.length, -1);
+                }
+                children[slot] = nodes++;
+            }
+            node = children[slot];
+        }
+        if (terms == termEntry.length) {
+            termEntry = Arrays.copyOf(termEntry, terms * 2);
+            termNext = Arrays.copyOf(termNext, terms * 2);
+        }
+        termEntry[terms] = e;
+        termNext[terms] = termHead[node];
+        termHead[node] = terms++;
+    }
+
+    // Posts e under every trigram of text and the one- and two-char starts of its words
+    private void indexText(int e, String text) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            post(trigram(text, i), e);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!isWordStart(text, i)) continue;
+            post(WORD_START | text.charAt(i), e);
+            if (i + 1 < text.length()) post(WORD_START | ((long) text.charAt(i) << 16) | text.charAt(i + 1), e);
+        }
+    }
+
+    private void post(long gram, int e) {
+        int p = postingByGram.get(gram);
+        if (p < 0) {
+            p = postingCount++;
+            if (p == postings.length) {
+                postings = Arrays.copyOf(postings, p * 2);
+                postingSizes = Arrays.copyOf(postingSizes, p * 2);
+            }
+            postings[p] = new int[4];
+            postingSizes[p] = 0;
+            postingByGram.put(gram, p);
+        }
+        int n = postingSizes[p];
+        // Entries are posted in order, so a repeat within one text is always the last one
+        if (n > 0 && postings[p][n - 1] == e) return;
+        if (n == postings[p].length) postings[p] = Arrays.copyOf(postings[p], n * 2);
+        postings[p][n] = e;
+        postingSizes[p] = n + 1;
+    }
+
+    private void collectDigitPrefix(String q) {
+        int node = 0;
+        for (int i = 0; i < q.length(); i++) {
+            node = children[node * 10 + (q.charAt(i) - '0')];
+            if (node == 0) return;
+        }
+        // Walk the subtree; entries ending exactly at the query node are exact matches
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int n = stack[--top];
+            for (int t = termHead[n]; t >= 0; t = termNext[t]) {
+                consider(termEntry[t], n == node ? SCORE_EXACT : SCORE_PREFIX, MATCH_NUMBER);
+            }
+            for (int d = 0; d < 10; d++) {
+                int c = children[n * 10 + d];
+                if (c == 0) continue;
+                if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = c;
+            }
+        }
+    }
+
+    // Verifies the entries on the shortest trigram list of q against the real text
+    private void collectSubstring(String q, boolean names) {
+        int best = -1;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            int p = postingByGram.get(trigram(q, i));
+            if (p < 0) return;
+            if (best < 0 || postingSizes[p] < postingSizes[best]) best = p;
+        }
+        int[] list = postings[best];
+        for (int k = 0; k < postingSizes[best]; k++) {
+            int e = list[k];
+            if (names) {
+                String name = lowerNames[e];
+                if (name == null) continue;
+                int at = name.indexOf(q);
+                if (at < 0) continue;
+                consider(e, at == 0 ? SCORE_PREFIX : isWordStart(name, at) ? SCORE_WORD : SCORE_SUBSTRING,
+                        MATCH_NAME);
+            } else if (digits[e].contains(q)) {
+                consider(e, SCORE_SUBSTRING, MATCH_NUMBER);
+            }
+        }
+    }
+
+    private void collectWordStart(String q) {
+        long gram = q.length() == 1 ? WORD_START | q.charAt(0)
+                : WORD_START | ((long) q.charAt(0) << 16) | q.charAt(1);
+        int p = postingByGram.get(gram);
+        if (p < 0) return;
+        for (int k = 0; k < postingSizes[p]; k++) {
+            int e = postings[p][k];
+            String name = lowerNames[e];
+            if (name == null) continue;
+            if (name.startsWith(q)) {
+                consider(e, SCORE_PREFIX, MATCH_NAME);
+                continue;
+            }
+            for (int at = name.indexOf(q); at >= 0; at = name.indexOf(q, at + 1)) {
+                if (isWordStart(name, at)) {
+                    consider(e, SCORE_WORD, MATCH_NAME);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void beginQuery() {
+        if (seen.length < size) {
+            int capacity = numbers.length;
+            seen = new int[capacity];
+            scores = new int[capacity];
+            matchedBy = new int[capacity];
+            candidates = new int[capacity];
+        }
+        generation++;
+        candidateCount = 0;
+    }
+
+    private void consider(int e, int score, int matched) {
+        if (seen[e] != generation) {
+            seen[e] = generation;
+            scores[e] = score;
+            matchedBy[e] = matched;
+            candidates[candidateCount++] = e;
+        } else if (score > scores[e]) {
+            scores[e] = score;
+            matchedBy[e] = matched;
+        }
+    }
+
+    // Partial selection of the best `limit` candidates; limit is small, candidates may not be
+    private int emitTop(int limit, HitVisitor visitor) {
+        int n = Math.min(limit, candidateCount);
+        for (int i = 0; i < n; i++) {
+            int best = i;
+            for (int j = i + 1; j < candidateCount; j++) {
+                if (better(candidates[j], candidates[best])) best = j;
+            }
+            int e = candidates[best];
+            candidates[best] = candidates[i];
+            candidates[i] = e;
+            visitor.visit(lastIds[e], numbers[e], lastDates[e], lastDurations[e], lastTypes[e],
+                    names[e] != null ? names[e] : "", calls[e], matchedBy[e]);
+        }
+        return n;
+    }
+
+    private boolean better(int a, int b) {
+        if (scores[a] != scores[b]) return scores[a] > scores[b];
+        return lastDates[a] > lastDates[b];
+    }
+
+    private void grow() {
+        int capacity = numbers.length * 2;
+        numbers = Arrays.copyOf(numbers, capacity);
+        digits = Arrays.copyOf(digits, capacity);
+        names = Arrays.copyOf(names, capacity);
+        lowerNames = Arrays.copyOf(lowerNames, capacity);
+        lastIds = Arrays.copyOf(lastIds, capacity);
+        lastDates = Arrays.copyOf(lastDates, capacity);
+        lastDurations = Arrays.copyOf(lastDurations, capacity);
+        lastTypes = Arrays.copyOf(lastTypes, capacity);
+        calls = Arrays.copyOf(calls, capacity);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static boolean isWordStart(String s, int i) {
+        return i == 0 || !Character.isLetterOrDigit(s.charAt(i - 1));
+    }
+
+    private static String digitsOf(String number) {
+        StringBuilder sb = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // Digits of a query that looks like a phone number ("+1 (555) 01"), else null
+    private static String dialableDigits(String q) {
+        int count = 0;
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c >= '0' && c <= '9') {
+                count++;
+            } else if (c != '+' && c != ' ' && c != '-' && c != '(' && c != ')' && c != '.') {
+                return null;
+            }
+        }
+        return count > 0 ? digitsOf(q) : null;
+    }
+
+    // "0044..." and "0987..." without their international or trunk zeros
+    private static String stripTrunk(String s) {
+        int i = 0;
+        while (i < s.length() - 1 && s.charAt(i) == '0') i++;
+        return s.substring(i);
+    }
+}
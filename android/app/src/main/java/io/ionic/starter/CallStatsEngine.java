@@ -0,0 +1,260 @@
+package io.ionic.starter;
+
+import android.provider.CallLog.Calls;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Call log aggregates (counts, talk time, last call) grouped by number, hour of day,
+ * call type or day, kept current as rows are added to {@link CallLogCache}.
+ *
+ * All-time aggregates are updated per inserted row. A window ({@code since > 0}) is
+ * built once from the store's date-ordered tail and then updated in place too, so a
+ * dashboard re-render costs O(groups). Deletions are rare and trigger a rebuild, as does
+ * a change of time zone, which moves every hour and day bucket.
+ * Not thread-safe; the cache calls it under its lock.
+ */
+final class CallStatsEngine {
+    enum GroupBy { NUMBER, HOUR, TYPE, DAY }
+
+    /** Reads one grouping while the cache lock is held; must not keep a reference to it. */
+    interface Reader {
+        void read(Aggregates stats);
+    }
+
+    private static final long HOUR_MS = 3_600_000L;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    // Windows kept up to date; dashboards typically ask for a handful
+    private static final int MAX_WINDOWS = 8;
+    // Numbers longer than this are compared on their trailing digits (drops country/trunk prefixes)
+    private static final int SIGNIFICANT_DIGITS = 10;
+
+    private final Aggregates[] allTime = new Aggregates[GroupBy.values().length];
+    private final LinkedHashMap<Long, Aggregates[]> windows = new LinkedHashMap<>(16, 0.75f, true);
+    // Zone the hour and day buckets were computed in; see query()
+    private TimeZone timeZone = TimeZone.getDefault();
+
+    CallStatsEngine() {
+        reset();
+    }
+
+    void reset() {
+        for (int g = 0; g < allTime.length; g++) allTime[g] = new Aggregates();
+        windows.clear();
+    }
+
+    /** Accounts one newly cached row in all-time and in every live window it falls in. */
+    void add(String number, String name, long date, int duration, int type) {
+        long numberKey = normalizeNumber(number);
+        addTo(allTime, numberKey, number, name, date, duration, type);
+        for (Map.Entry<Long, Aggregates[]> w : windows.entrySet()) {
+            if (date >= w.getKey()) addTo(w.getValue(), numberKey, number, name, date, duration, type);
+        }
+    }
+
+    /** Recomputes everything from the store; used after rows were deleted. */
+    void rebuild(CallLogStore store) {
+        reset();
+        for (int i = 0; i < store.size(); i++) {
+            addTo(allTime, normalizeNumber(store.number(i)), store.number(i), store.name(i),
+                    store.date(i), store.duration(i), store.type(i));
+        }
+    }
+
+    /**
+     * Aggregates over rows with {@code date >= since}; 0 means all time. Regroups
+     * everything first if the device's time zone changed since the buckets were made.
+     */
+    Aggregates query(CallLogStore store, long since, GroupBy groupBy) {
+        TimeZone current = TimeZone.getDefault();
+        if (!current.hasSameRules(timeZone)) {
+            timeZone = current;
+            rebuild(store);
+        }
+        if (since <= 0) return allTime[groupBy.ordinal()];
+        Aggregates[] window = windows.get(since);
+        if (window == null) {
+            window = new Aggregates[allTime.length];
+            for (int g = 0; g < window.length; g++) window[g] = new Aggregates();
+            for (int i = store.lastBefore(since, Long.MIN_VALUE) + 1; i < store.size(); i++) {
+                addTo(window, normalizeNumber(store.number(i)), store.number(i), store.name(i),
+                        store.date(i), store.duration(i), store.type(i));
+            }
+            windows.put(since, window);
+            if (windows.size() > MAX_WINDOWS) {
+                Iterator<Long> eldest = windows.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return window[groupBy.ordinal()];
+    }
+
+    private void addTo(Aggregates[] target, long numberKey, String number, String name,
+                       long date, int duration, int type) {
+        long local = date + timeZone.getOffset(date);
+        // Math.floorDiv needs API 24
+        long day = local / DAY_MS;
+        if (local < 0 && day * DAY_MS != local) day--;
+        target[GroupBy.NUMBER.ordinal()].add(numberKey, number, name, date, duration, type);
+        target[GroupBy.HOUR.ordinal()].add((local - day * DAY_MS) / HOUR_MS, null, null, date, duration, type);
+        target[GroupBy.TYPE.ordinal()].add(type, null, null, date, duration, type);
+        target[GroupBy.DAY.ordinal()].add(day, null, null, date, duration, type);
+    }
+
+    /** Start of local day {@code day} (a DAY group key) in epoch millis. */
+    long dayStart(long day) {
+        long utc = day * DAY_MS;
+        return utc - timeZone.getOffset(utc);
+    }
+
+    /**
+     * Digits of {@code number} as a long, keeping the last {@link #SIGNIFICANT_DIGITS} so
+     * "+91 98765 43210" and "098765 43210" group together; -1 for withheld/empty numbers.
+     */
+    static long normalizeNumber(String number) {
+        if (number == null) return -1;
+        long key = 0;
+        long modulus = 1;
+        for (int i = 0; i < SIGNIFICANT_DIGITS; i++) modulus *= 10;
+        int digits = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                key = (key * 10 + (c - '0')) % modulus;
+                digits++;
+            }
+        }
+        // Keep the digit count so "0123" and "123" stay distinct short codes
+        return digits == 0 ? -1 : key * 16 + Math.min(digits, SIGNIFICANT_DIGITS);
+    }
+
+    /** Aggregates for one grouping, in parallel arrays indexed through a primitive hash map. */
+    static final class Aggregates {
+        private final LongIntMap index = new LongIntMap();
+        int size = 0;
+        long[] keys = new long[16];
+        // Display number and latest cached name, NUMBER grouping only
+        String[] numbers = new String[16];
+        String[] names = new String[16];
+        int[] calls = new int[16];
+        int[] incoming = new int[16];
+        int[] outgoing = new int[16];
+        int[] missed = new int[16];
+        int[] rejected = new int[16];
+        long[] talkSeconds = new long[16];
+        long[] lastDate = new long[16];
+        int totalCalls = 0;
+        long totalTalkSeconds = 0;
+
+        void add(long key, String number, String name, long date, int duration, int type) {
+            int g = index.get(key);
+            if (g < 0) {
+                g = size++;
+                if (g == keys.length) grow();
+                keys[g] = key;
+                numbers[g] = number;
+                index.put(key, g);
+            }
+            calls[g]++;
+            talkSeconds[g] += duration;
+            switch (type) {
+                case Calls.INCOMING_TYPE:
+                    incoming[g]++;
+                    break;
+                case Calls.OUTGOING_TYPE:
+                    outgoing[g]++;
+                    break;
+                case Calls.MISSED_TYPE:
+                    missed[g]++;
+                    break;
+                case Calls.REJECTED_TYPE:
+                case Calls.BLOCKED_TYPE:
+                    rejected[g]++;
+                    break;
+                default:
+                    break;
+            }
+            if (date >= lastDate[g]) {
+                lastDate[g] = date;
+                if (name != null && !name.isEmpty()) names[g] = name;
+            }
+            totalCalls++;
+            totalTalkSeconds += duration;
+        }
+
+        private void grow() {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            names = Arrays.copyOf(names, capacity);
+            calls = Arrays.copyOf(calls, capacity);
+            incoming = Arrays.copyOf(incoming, capacity);
+            outgoing = Arrays.copyOf(outgoing, capacity);
+            missed = Arrays.copyOf(missed, capacity);
+            rejected = Arrays.copyOf(rejected, capacity);
+            talkSeconds = Arrays.copyOf(talkSeconds, capacity);
+            lastDate = Arrays.copyOf(lastDate, capacity);
+        }
+    }
+
+    /** Open-addressing long -> int map; -1 means absent. */
+    static final class LongIntMap {
+        private long[] keys = new long[32];
+        private int[] values = new int[32];
+        private boolean[] used = new boolean[32];
+        private int size = 0;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) resize(keys.length * 2);
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (used[i]) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(used, false);
+            size = 0;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.ionic.starter;
+
+import java.io.IOException;
+
+/**
+ * A capture that streams PCM to a {@link PcmSink}, optionally pre-rolling into memory
+ * first. {@link PcmCaptureEngine} records one source, {@link DualCaptureEngine} two.
+ */
+interface CaptureEngine {
+    /** Starts capturing into memory only, keeping at most {@code preRollBytes} of sink-format audio. */
+    void startPreRoll(int preRollBytes);
+
+    void start(PcmSink sink);
+
+    /** Stops capture, drains everything still buffered and closes the sink. */
+    void stop() throws IOException;
+
+    /** Releases the recorders of an engine that never reached a sink. */
+    void release();
+
+    /** elapsedRealtimeNanos of the first batch handed to the sink, or 0 before that. */
+    long getFirstWriteNanos();
+
+    /** PCM bytes handed to the sink so far. */
+    long getBytesWritten();
+}
@@ -0,0 +1,345 @@
+package io.ionic.starter;
+
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the microphone and the captured call playback together as one stereo stream,
+ * the local party on the left channel and the far end on the right.
+ *
+ * Each mono {@link AudioRecord} gets its own audio-priority reader and ring, as in
+ * {@link PcmCaptureEngine}. A single writer interleaves the two rings through a
+ * {@link StereoMixer}. Twice a second it asks both recorders when the next frame it will
+ * take was captured ({@code getTimestamp}) and holds back whichever channel runs ahead,
+ * so the parties stay aligned through the start-up offset, clock drift and overruns.
+ * An input whose reader stops early carries on as silence.
+ */
+@RequiresApi(api = Build.VERSION_CODES.N)
+final class DualCaptureEngine implements CaptureEngine {
+    private static final String TAG = "DualCaptureEngine";
+    private static final long WRITER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long ALIGN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final Input mic;
+    private final Input playback;
+    private final StereoMixer mixer;
+    private final int sampleRate;
+    private final int batchFrames;
+    // Skew below half a millisecond is timestamp jitter rather than drift
+    private final int toleranceFrames;
+
+    private volatile boolean running = false;
+    // Readers trim their rings while set; cleared by start()
+    private volatile boolean preRolling = false;
+    private Thread writerThread;
+    private PcmSink sink;
+    // Writer thread only
+    private long lastAlignNanos = 0;
+    private boolean aligned = false;
+    private long correctedFrames = 0;
+    private volatile long firstWriteNanos = 0;
+    private volatile long bytesWritten = 0;
+    private volatile IOException writeError;
+
+    /**
+     * @param mic            initialized mono recorder, not yet started; the left channel
+     * @param playback       initialized mono playback-capture recorder at the same rate; the right channel
+     * @param ringBytes      ring capacity per input; rounded up to a power of two
+     * @param readChunkBytes bytes requested per {@code AudioRecord.read}
+     * @param batchBytes     minimum stereo bytes the writer accumulates before hitting the sink
+     */
+    DualCaptureEngine(AudioRecord mic, AudioRecord playback, int ringBytes, int readChunkBytes, int batchBytes) {
+        this.mic = new Input(mic, "mic", ringBytes, readChunkBytes);
+        this.playback = new Input(playback, "playback", ringBytes, readChunkBytes);
+        this.sampleRate = mic.getSampleRate();
+        this.batchFrames = Math.max(1, Math.min(batchBytes / 4, this.mic.ring.capacity() / 4));
+        this.mixer = new StereoMixer(batchFrames);
+        this.toleranceFrames = Math.max(1, sampleRate / 2000);
+    }
+
+    /** Pre-rolls both inputs; {@code preRollBytes} is in stereo bytes, like the sink's. */
+    @Override
+    public synchronized void startPreRoll(int preRollBytes) {
+        if (running) return;
+        mic.setPreRoll(preRollBytes / 2);
+        playback.setPreRoll(preRollBytes / 2);
+        preRolling = true;
+        running = true;
+        startInputs();
+    }
+
+    @Override
+    public synchronized void start(PcmSink sink) {
+        if (writerThread != null) return;
+        this.sink = sink;
+        if (running) {
+            // Already pre-rolling: the readers stop trimming and the writer takes over the rings
+            preRolling = false;
+            writerThread = new Thread(this::writeLoop, "pcm-mixer");
+            writerThread.start();
+            return;
+        }
+        mic.handedOff = true;
+        playback.handedOff = true;
+        running = true;
+        startInputs();
+        writerThread = new Thread(this::writeLoop, "pcm-mixer");
+        writerThread.start();
+    }
+
+    // Both recorders start before either reader so their first frames are close together
+    private void startInputs() {
+        mic.record.startRecording();
+        playback.record.startRecording();
+        mic.startReader();
+        playback.startReader();
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        if (writerThread == null) {
+            release();
+            return;
+        }
+        if (!running) return;
+        running = false;
+        stopInputs();
+        LockSupport.unpark(writerThread);
+        joinQuietly(writerThread);
+        mic.record.release();
+        playback.record.release();
+
+        Log.i(TAG, aligned ? "Channels aligned, " + correctedFrames + " frames of drift corrected"
+                : "No capture timestamps, channels aligned by start order only");
+        try {
+            sink.close();
+        } finally {
+            sink = null;
+        }
+        if (writeError != null) throw writeError;
+    }
+
+    @Override
+    public synchronized void release() {
+        if (writerThread != null) return;
+        if (running) {
+            running = false;
+            stopInputs();
+        }
+        mic.record.release();
+        playback.record.release();
+    }
+
+    private void stopInputs() {
+        mic.stopRecording();
+        playback.stopRecording();
+        joinQuietly(mic.thread);
+        joinQuietly(playback.thread);
+    }
+
+    @Override
+    public long getFirstWriteNanos() {
+        return firstWriteNanos;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void writeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+        while (!mic.handedOff || !playback.handedOff) {
+            LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+        }
+        while (true) {
+            boolean live = running || mic.thread.isAlive() || playback.thread.isAlive();
+            if (live) align();
+            // Covers a reader that died mid-call as well as the shorter input at the end
+            padEnded(mic, StereoMixer.LEFT, playback, StereoMixer.RIGHT);
+            padEnded(playback, StereoMixer.RIGHT, mic, StereoMixer.LEFT);
+            long ready = Math.min(pending(mic, StereoMixer.LEFT), pending(playback, StereoMixer.RIGHT));
+            // The first buffer goes out immediately so the file has audio as early as possible
+            int threshold = firstWriteNanos == 0 ? 1 : batchFrames;
+            if (live && ready < threshold) {
+                LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+                continue;
+            }
+            int frames = mixer.mix(mic.ring.array(), mic.ring.readIndex(), mic.ring.readableContiguous() / 2,
+                    playback.ring.array(), playback.ring.readIndex(), playback.ring.readableContiguous() / 2);
+            mic.consume(mixer.consumed(StereoMixer.LEFT));
+            playback.consume(mixer.consumed(StereoMixer.RIGHT));
+            if (frames == 0) {
+                if (!live) break;
+                continue;
+            }
+            if (writeError == null) {
+                try {
+                    sink.write(mixer.output(), 0, frames * 4);
+                    bytesWritten += frames * 4;
+                    if (firstWriteNanos == 0) firstWriteNanos = SystemClock.elapsedRealtimeNanos();
+                } catch (IOException e) {
+                    Log.e(TAG, "Sink write failed: " + e.getMessage(), e);
+                    writeError = e;
+                }
+            }
+        }
+    }
+
+    // Until the first alignment succeeds it is retried on every pass
+    private void align() {
+        long now = System.nanoTime();
+        if (now - lastAlignNanos < (aligned ? ALIGN_INTERVAL_NANOS : WRITER_IDLE_NANOS)) return;
+        lastAlignNanos = now;
+        long left = mic.nextCaptureNanos();
+        long right = playback.nextCaptureNanos();
+        if (left == 0 || right == 0) return;
+        long skew = mixer.align(left, right, sampleRate, aligned ? toleranceFrames : 0);
+        if (!aligned) {
+            Log.i(TAG, "Start offset " + skew + " frames (positive: far end held back)");
+            aligned = true;
+        } else {
+            correctedFrames += Math.abs(skew);
+        }
+    }
+
+    private void padEnded(Input ended, int endedChannel, Input other, int otherChannel) {
+        if (!ended.finished || ended.ring.available() > 0) return;
+        long missing = pending(other, otherChannel) - pending(ended, endedChannel);
+        if (missing > 0) {
+            mixer.silence(endedChannel);
+            mixer.delay(endedChannel, missing);
+        }
+    }
+
+    private long pending(Input input, int channel) {
+        return input.ring.available() / 2 + mixer.held(channel);
+    }
+
+    private static void joinQuietly(Thread t) {
+        if (t == null) return;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** One mono recorder with its reader thread and ring. */
+    private final class Input {
+        final AudioRecord record;
+        final String name;
+        final PcmRingBuffer ring;
+        final int readChunkBytes;
+        final byte[] overrunScratch;
+        final AudioTimestamp timestamp = new AudioTimestamp();
+        final int rate;
+        int preRollBytes;
+        Thread thread;
+        // Set by the reader once it has stopped trimming, so the writer may consume
+        volatile boolean handedOff = false;
+        volatile boolean finished = false;
+        // Frames read from the recorder that never reach the mixer: pre-roll trim and overrun
+        volatile long skippedFrames = 0;
+        volatile long overrunBytes = 0;
+        // Writer thread only
+        long consumedFrames = 0;
+
+        Input(AudioRecord record, String name, int ringBytes, int readChunkBytes) {
+            this.record = record;
+            this.name = name;
+            this.ring = new PcmRingBuffer(ringBytes);
+            this.readChunkBytes = readChunkBytes & ~1;
+            this.overrunScratch = new byte[this.readChunkBytes];
+            this.rate = record.getSampleRate();
+        }
+
+        void setPreRoll(int bytes) {
+            preRollBytes = Math.max(readChunkBytes, Math.min(bytes, ring.capacity() - readChunkBytes));
+        }
+
+        void startReader() {
+            thread = new Thread(this::readLoop, "pcm-reader-" + name);
+            thread.start();
+        }
+
+        void stopRecording() {
+            try {
+                record.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, name + " AudioRecord stop failed: " + e.getMessage());
+            }
+        }
+
+        void consume(int frames) {
+            ring.commitRead(frames * 2);
+            consumedFrames += frames;
+        }
+
+        /** Capture time of the next frame the mixer takes from this input, or 0 while unknown. */
+        long nextCaptureNanos() {
+            if (record.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) return 0;
+            long next = consumedFrames + skippedFrames;
+            return timestamp.nanoTime + (next - timestamp.framePosition) * 1_000_000_000L / rate;
+        }
+
+        private void readLoop() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            while (running) {
+                if (preRolling) {
+                    trimPreRoll();
+                } else if (!handedOff) {
+                    handedOff = true;
+                    LockSupport.unpark(writerThread);
+                }
+                int free = ring.writableContiguous();
+                int read;
+                if (free == 0) {
+                    // Writer is behind: keep the recorder drained; the next alignment skips the gap
+                    read = record.read(overrunScratch, 0, overrunScratch.length);
+                    if (read > 0) {
+                        overrunBytes += read;
+                        skippedFrames += read / 2;
+                    }
+                } else {
+                    read = record.read(ring.array(), ring.writeIndex(), Math.min(free, readChunkBytes));
+                    if (read > 0) {
+                        ring.commitWrite(read);
+                        if (ring.available() >= batchFrames * 2) {
+                            LockSupport.unpark(writerThread);
+                        }
+                    }
+                }
+                if (read < 0) {
+                    Log.e(TAG, name + " AudioRecord read error: " + read);
+                    break;
+                }
+            }
+            if (overrunBytes > 0) {
+                Log.w(TAG, name + " ring overrun, dropped " + overrunBytes + " bytes");
+            }
+            handedOff = true;
+            finished = true;
+            LockSupport.unpark(writerThread);
+        }
+
+        // Reader thread, pre-roll only: it is the sole consumer until handedOff is set
+        private void trimPreRoll() {
+            int excess = ring.available() + readChunkBytes - preRollBytes;
+            if (excess <= 0) return;
+            excess = Math.min(ring.available(), (excess + 1) & ~1);
+            ring.commitRead(excess);
+            skippedFrames += excess / 2;
+        }
+    }
+}
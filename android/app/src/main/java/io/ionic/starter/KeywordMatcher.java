@@ -0,0 +1,121 @@
+package io.ionic.starter;
+
+import java.util.Arrays;
+
+/**
+ * Case-insensitive multi-keyword matcher (Aho-Corasick compiled to a DFA).
+ *
+ * Each keyword carries a flag bit; {@link #match} scans a {@link CharSequence} once and
+ * returns the OR of the flags of every keyword it contains. Matching reads characters
+ * in place and never allocates, so it is safe to run on every accessibility event.
+ * Keywords must be ASCII; input characters are folded with {@link Character#toLowerCase(char)}.
+ */
+public final class KeywordMatcher {
+    private static final int ASCII = 128;
+
+    // Folded ASCII char -> alphabet index; 0 is "not part of any keyword"
+    private final byte[] charClass = new byte[ASCII];
+    private final int alphabet;
+    // Full transition table, state * alphabet + class
+    private final int[] next;
+    // Flags of every keyword ending in a state, including those reached through failure links
+    private final int[] output;
+
+    /**
+     * @param keywords keywords to find, any case
+     * @param flags    flag bits reported for the keyword at the same index
+     */
+    public KeywordMatcher(String[] keywords, int[] flags) {
+        if (keywords.length != flags.length) {
+            throw new IllegalArgumentException("keywords and flags differ in length");
+        }
+        int classes = 1;
+        int maxStates = 1;
+        for (String keyword : keywords) {
+            if (keyword.isEmpty()) throw new IllegalArgumentException("Empty keyword");
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                if (c >= ASCII) throw new IllegalArgumentException("Non-ASCII keyword: " + keyword);
+                if (charClass[c] == 0) {
+                    if (classes == Byte.MAX_VALUE) throw new IllegalArgumentException("Too many distinct characters");
+                    charClass[c] = (byte) classes++;
+                }
+            }
+            maxStates += keyword.length();
+        }
+        // Upper-case ASCII shares the class of its lower-case form
+        for (char c = 'A'; c <= 'Z'; c++) {
+            charClass[c] = charClass[Character.toLowerCase(c)];
+        }
+        alphabet = classes;
+
+        // Trie; -1 marks a missing edge until the failure pass fills it in
+        int[] trie = new int[maxStates * alphabet];
+        Arrays.fill(trie, -1);
+        int[] out = new int[maxStates];
+        int states = 1;
+        for (int k = 0; k < keywords.length; k++) {
+            int s = 0;
+            String keyword = keywords[k];
+            for (int i = 0; i < keyword.length(); i++) {
+                int cls = charClass[Character.toLowerCase(keyword.charAt(i))];
+                int t = trie[s * alphabet + cls];
+                if (t < 0) {
+                    t = states++;
+                    trie[s * alphabet + cls] = t;
+                }
+                s = t;
+            }
+            out[s] |= flags[k];
+        }
+
+        // Breadth-first failure links, folded straight into the transition table
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int cls = 0; cls < alphabet; cls++) {
+            int t = trie[cls];
+            if (t < 0) {
+                trie[cls] = 0;
+            } else {
+                fail[t] = 0;
+                queue[tail++] = t;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            out[s] |= out[fail[s]];
+            for (int cls = 0; cls < alphabet; cls++) {
+                int t = trie[s * alphabet + cls];
+                int viaFail = trie[fail[s] * alphabet + cls];
+                if (t < 0) {
+                    trie[s * alphabet + cls] = viaFail;
+                } else {
+                    fail[t] = viaFail;
+                    queue[tail++] = t;
+                }
+            }
+        }
+
+        next = Arrays.copyOf(trie, states * alphabet);
+        output = Arrays.copyOf(out, states);
+    }
+
+    /** OR of the flags of all keywords found in {@code text}; 0 for null or no match. */
+    public int match(CharSequence text) {
+        if (text == null) return 0;
+        int flags = 0;
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c >= ASCII) {
+                c = Character.toLowerCase(c);
+            }
+            int cls = c < ASCII ? charClass[c] : 0;
+            state = next[state * alphabet + cls];
+            flags |= output[state];
+        }
+        return flags;
+    }
+}
@@ -41,6 +41,7 @@ public class MainActivity extends BridgeActivity {
 
         registerPlugin(DialerPlugin.class);
         registerPlugin(CallHistoryPlugin.class);
+        registerPlugin(CallRecorderPlugin.class);
 
         super.onCreate(savedInstanceState);
 
@@ -93,18 +94,10 @@ public class MainActivity extends BridgeActivity {
             }
         }
 
-        // if (requestCode == REQUEST_CODE_CAPTURE_AUDIO && resultCode == Activity.RESULT_OK && data != null) {
-        //     Intent serviceIntent = new Intent(this, CallRecorderService.class);
-        //     serviceIntent.setAction("START_RECORDING");
-        //     serviceIntent.putExtra("resultCode", resultCode);
-        //     serviceIntent.putExtra("data", data);
-        //     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-        //         startForegroundService(serviceIntent);
-        //     } else {
-        //         startService(serviceIntent);
-        //     }
-
-        // }
+        if (requestCode == REQUEST_CODE_CAPTURE_AUDIO && resultCode == Activity.RESULT_OK && data != null
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            CallRecorderService.grantPlaybackCapture(this, resultCode, data);
+        }
     }
 
     public class AndroidBridge {
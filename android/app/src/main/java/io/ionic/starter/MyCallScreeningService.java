@@ -1,5 +1,6 @@
 package io.ionic.starter;
 
+import android.net.Uri;
 import android.telecom.CallScreeningService;
 import android.telecom.Call.Details;
 
@@ -13,5 +14,10 @@ public class MyCallScreeningService extends CallScreeningService {
                 .setSilenceCall(false)
                 .build();
         respondToCall(callDetails, response);
+
+        // Earliest signal we get for a call: pre-warm the recorder while it rings
+        Uri handle = callDetails.getHandle();
+        CallRecorderService.sendCommand(this, CallRecorderService.ACTION_PREPARE,
+                handle != null ? handle.getSchemeSpecificPart() : null, "screening");
     }
 }
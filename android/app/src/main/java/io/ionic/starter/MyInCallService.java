@@ -44,6 +44,15 @@ public class MyInCallService extends InCallService {
         Log.i(TAG, "onCallAdded: " + call.toString());
         this.currentCall = call;
 
+        // Pre-warm the recorder while the call rings/dials; answering only starts it
+        Uri handle = call.getDetails() != null ? call.getDetails().getHandle() : null;
+        try {
+            CallRecorderService.sendCommand(this, CallRecorderService.ACTION_PREPARE,
+                    handle != null ? handle.getSchemeSpecificPart() : null, "incall-added");
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to pre-warm recorder: " + e.getMessage());
+        }
+
         // Create incoming call notification / full-screen intent
         createNotificationChannel();
 
@@ -73,9 +82,11 @@ public class MyInCallService extends InCallService {
     @Override
     public void onCallRemoved(Call call) {
         super.onCallRemoved(call);
-        // Stop recording if active
+        // Stop recording if active; otherwise release the recorder pre-warmed in onCallAdded
         if (isRecording) {
             stopRecording();
+        } else {
+            CallRecorderService.cancelPrepared(this);
         }
 
         NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
@@ -103,13 +114,9 @@ public class MyInCallService extends InCallService {
     public void startRecording() {
         if (currentCall != null && !isRecording) {
             try {
-                Intent recordIntent = new Intent(this, CallRecorderService.class);
-                recordIntent.setAction("START_RECORDING");
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    startForegroundService(recordIntent);
-                } else {
-                    startService(recordIntent);
-                }
+                String number = currentCall.getDetails() != null && currentCall.getDetails().getHandle() != null
+                        ? currentCall.getDetails().getHandle().getSchemeSpecificPart() : null;
+                CallRecorderService.sendCommand(this, CallRecorderService.ACTION_START, number, "incall");
                 isRecording = true;
                 Log.i(TAG, "Recording started");
             } catch (SecurityException e) {
@@ -126,7 +133,7 @@ public class MyInCallService extends InCallService {
     public void stopRecording() {
         if (isRecording) {
             Intent recordIntent = new Intent(this, CallRecorderService.class);
-            recordIntent.setAction("STOP_RECORDING");
+            recordIntent.setAction(CallRecorderService.ACTION_STOP);
             stopService(recordIntent);
             isRecording = false;
             Log.i(TAG, "Recording stopped");
@@ -0,0 +1,243 @@
+package io.ionic.starter;
+
+import android.media.AudioRecord;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams PCM from an {@link AudioRecord} to a {@link PcmSink} on two threads.
+ *
+ * The reader runs at audio priority and only ever reads into the ring buffer, so a
+ * slow flash write can never stall {@code AudioRecord.read}. The writer drains the
+ * ring to the sink in large batches.
+ *
+ * In pre-roll mode ({@link #startPreRoll}) only the reader runs and keeps the newest
+ * few seconds in the ring, dropping the oldest; {@link #start} then hands the ring to
+ * the writer so the buffered audio becomes the head of the recording.
+ */
+public class PcmCaptureEngine implements CaptureEngine {
+    private static final String TAG = "PcmCaptureEngine";
+    private static final long WRITER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final AudioRecord audioRecord;
+    private final PcmRingBuffer ring;
+    private final int readChunkBytes;
+    private final int batchBytes;
+    private final byte[] overrunScratch;
+    private final int frameBytes;
+
+    private volatile boolean running = false;
+    // Reader trims the ring to preRollBytes while set; cleared by start()
+    private volatile boolean preRolling = false;
+    // Set by the reader once it has stopped trimming, so the writer may consume
+    private volatile boolean handedOff = false;
+    private int preRollBytes;
+    private Thread readerThread;
+    private Thread writerThread;
+    private PcmSink sink;
+    private volatile long overrunBytes = 0;
+    private volatile long firstWriteNanos = 0;
+    // Written by the writer thread only
+    private volatile long bytesWritten = 0;
+    private volatile IOException writeError;
+
+    /**
+     * @param audioRecord   an initialized, not yet started recorder
+     * @param ringBytes     ring capacity; rounded up to a power of two
+     * @param readChunkBytes bytes requested per {@code AudioRecord.read}
+     * @param batchBytes    minimum bytes the writer accumulates before hitting the sink
+     */
+    public PcmCaptureEngine(AudioRecord audioRecord, int ringBytes, int readChunkBytes, int batchBytes) {
+        this.audioRecord = audioRecord;
+        this.ring = new PcmRingBuffer(ringBytes);
+        this.readChunkBytes = readChunkBytes & ~1;
+        this.batchBytes = Math.min(batchBytes, ring.capacity() / 2);
+        this.overrunScratch = new byte[this.readChunkBytes];
+        this.frameBytes = Math.max(1, audioRecord.getChannelCount()) * 2;
+    }
+
+    /**
+     * Starts capturing into memory only, keeping at most {@code preRollBytes} of the most
+     * recent audio. Nothing reaches a sink until {@link #start}.
+     */
+    public synchronized void startPreRoll(int preRollBytes) {
+        if (running) return;
+        this.preRollBytes = Math.max(readChunkBytes, Math.min(preRollBytes, ring.capacity() - readChunkBytes));
+        audioRecord.startRecording();
+        preRolling = true;
+        running = true;
+
+        readerThread = new Thread(this::readLoop, "pcm-reader");
+        readerThread.start();
+    }
+
+    public synchronized void start(PcmSink sink) {
+        if (writerThread != null) return;
+        this.sink = sink;
+        writerThread = new Thread(this::writeLoop, "pcm-writer");
+        if (running) {
+            // Already pre-rolling: keep the reader and let the writer take over the ring
+            preRolling = false;
+            writerThread.start();
+            return;
+        }
+        handedOff = true;
+        running = true;
+        audioRecord.startRecording();
+
+        readerThread = new Thread(this::readLoop, "pcm-reader");
+        writerThread.start();
+        readerThread.start();
+    }
+
+    /** Stops capture, drains everything still buffered and closes the sink. */
+    public synchronized void stop() throws IOException {
+        if (writerThread == null) {
+            release();
+            return;
+        }
+        if (!running) return;
+        running = false;
+        try {
+            audioRecord.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "AudioRecord stop failed: " + e.getMessage());
+        }
+        joinQuietly(readerThread);
+        LockSupport.unpark(writerThread);
+        joinQuietly(writerThread);
+        audioRecord.release();
+
+        if (overrunBytes > 0) {
+            Log.w(TAG, "Ring overrun, dropped " + overrunBytes + " bytes");
+        }
+        try {
+            sink.close();
+        } finally {
+            sink = null;
+        }
+        if (writeError != null) throw writeError;
+    }
+
+    /** Releases the recorder of an engine that never reached a sink, discarding any pre-roll. */
+    public synchronized void release() {
+        if (writerThread != null) return;
+        if (running) {
+            running = false;
+            try {
+                audioRecord.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "AudioRecord stop failed: " + e.getMessage());
+            }
+            joinQuietly(readerThread);
+            readerThread = null;
+        }
+        audioRecord.release();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** elapsedRealtimeNanos of the first batch handed to the sink, or 0 before that. */
+    public long getFirstWriteNanos() {
+        return firstWriteNanos;
+    }
+
+    /** PCM bytes handed to the sink so far. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getOverrunBytes() {
+        return overrunBytes;
+    }
+
+    private void readLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        while (running) {
+            if (preRolling) {
+                trimPreRoll();
+            } else if (!handedOff) {
+                handedOff = true;
+                LockSupport.unpark(writerThread);
+            }
+            int free = ring.writableContiguous();
+            int read;
+            if (free == 0) {
+                // Writer is behind: keep AudioRecord drained so the HAL does not overrun,
+                // and account for what we had to throw away.
+                read = audioRecord.read(overrunScratch, 0, overrunScratch.length);
+                if (read > 0) overrunBytes += read;
+            } else {
+                read = audioRecord.read(ring.array(), ring.writeIndex(), Math.min(free, readChunkBytes));
+                if (read > 0) {
+                    ring.commitWrite(read);
+                    if (ring.available() >= batchBytes) {
+                        LockSupport.unpark(writerThread);
+                    }
+                }
+            }
+            if (read < 0) {
+                Log.e(TAG, "AudioRecord read error: " + read);
+                break;
+            }
+        }
+        handedOff = true;
+        LockSupport.unpark(writerThread);
+    }
+
+    // Reader thread, pre-roll only: it is the sole consumer until handedOff is set
+    private void trimPreRoll() {
+        int excess = ring.available() + readChunkBytes - preRollBytes;
+        if (excess <= 0) return;
+        excess = Math.min(ring.available(), (excess + frameBytes - 1) / frameBytes * frameBytes);
+        ring.commitRead(excess);
+    }
+
+    private void writeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+        while (!handedOff) {
+            LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+        }
+        while (true) {
+            boolean live = running || readerThread.isAlive();
+            // The first buffer goes out immediately so the file has audio as early as possible
+            int threshold = firstWriteNanos == 0 ? 1 : batchBytes;
+            if (live && ring.available() < threshold) {
+                LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+                continue;
+            }
+            int n = ring.readableContiguous();
+            if (n == 0) {
+                if (!live) break;
+                continue;
+            }
+            if (writeError == null) {
+                try {
+                    sink.write(ring.array(), ring.readIndex(), n);
+                    bytesWritten += n;
+                    if (firstWriteNanos == 0) firstWriteNanos = SystemClock.elapsedRealtimeNanos();
+                } catch (IOException e) {
+                    Log.e(TAG, "Sink write failed: " + e.getMessage(), e);
+                    writeError = e;
+                }
+            }
+            ring.commitRead(n);
+        }
+    }
+
+    private static void joinQuietly(Thread t) {
+        if (t == null) return;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.ionic.starter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single-producer/single-consumer byte ring.
+ *
+ * The producer (AudioRecord reader) and the consumer (disk writer) each own one
+ * position counter, so no locks are needed. Both sides work on contiguous
+ * regions of the backing array so AudioRecord can read straight into it.
+ */
+public final class PcmRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong writePos = new AtomicLong();
+    private final AtomicLong readPos = new AtomicLong();
+
+    public PcmRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 1024) - 1) << 1;
+        buffer = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public int available() {
+        return (int) (writePos.get() - readPos.get());
+    }
+
+    // --- producer side ---
+
+    public int writeIndex() {
+        return (int) (writePos.get() & mask);
+    }
+
+    /** Bytes the producer can fill at {@link #writeIndex()} without wrapping. */
+    public int writableContiguous() {
+        long w = writePos.get();
+        int free = buffer.length - (int) (w - readPos.get());
+        return Math.min(free, buffer.length - (int) (w & mask));
+    }
+
+    public void commitWrite(int count) {
+        writePos.lazySet(writePos.get() + count);
+    }
+
+    /** Copies as much of {@code src} as fits; returns the number of bytes accepted. */
+    public int write(byte[] src, int offset, int length) {
+        int total = 0;
+        while (total < length) {
+            int n = Math.min(writableContiguous(), length - total);
+            if (n <= 0) break;
+            System.arraycopy(src, offset + total, buffer, writeIndex(), n);
+            commitWrite(n);
+            total += n;
+        }
+        return total;
+    }
+
+    // --- consumer side ---
+
+    public int readIndex() {
+        return (int) (readPos.get() & mask);
+    }
+
+    /** Bytes the consumer can take at {@link #readIndex()} without wrapping. */
+    public int readableContiguous() {
+        long r = readPos.get();
+        int used = (int) (writePos.get() - r);
+        return Math.min(used, buffer.length - (int) (r & mask));
+    }
+
+    public void commitRead(int count) {
+        readPos.lazySet(readPos.get() + count);
+    }
+
+    /** Copies up to {@code length} bytes out; returns the number of bytes taken. */
+    public int read(byte[] dst, int offset, int length) {
+        int total = 0;
+        while (total < length) {
+            int n = Math.min(readableContiguous(), length - total);
+            if (n <= 0) break;
+            System.arraycopy(buffer, readIndex(), dst, offset + total, n);
+            commitRead(n);
+            total += n;
+        }
+        return total;
+    }
+}
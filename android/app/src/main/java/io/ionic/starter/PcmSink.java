@@ -0,0 +1,12 @@
+package io.ionic.starter;
+
+import java.io.IOException;
+
+/**
+ * Destination for raw 16-bit PCM drained by the capture engine's writer thread.
+ */
+public interface PcmSink {
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,129 @@
+package io.ionic.starter;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioPlaybackCaptureConfiguration;
+import android.media.AudioRecord;
+import android.media.projection.MediaProjection;
+import android.media.projection.MediaProjectionManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.content.ContextCompat;
+
+/**
+ * The user's consent to capture audio other apps play, held as a {@link MediaProjection}
+ * for the life of the process, and the playback-capture recorders opened from it.
+ *
+ * Consent comes from the system capture dialog and reaches {@link CallRecorderService},
+ * which must already be in the foreground with the mediaProjection type when it calls
+ * {@link #grant}. Once the user or the system stops the projection, recordings fall back
+ * to the microphone alone until consent is given again.
+ *
+ * Only usages the platform lets this app capture come through: media, game and unknown
+ * everywhere, voice communication where the app holds the privileged output-capture
+ * permission.
+ */
+final class PlaybackCapture {
+    private static final String TAG = "PlaybackCapture";
+    private static final int[] USAGES = {
+            AudioAttributes.USAGE_VOICE_COMMUNICATION,
+            AudioAttributes.USAGE_MEDIA,
+            AudioAttributes.USAGE_GAME,
+            AudioAttributes.USAGE_UNKNOWN
+    };
+
+    private static MediaProjection projection;
+
+    private PlaybackCapture() {
+    }
+
+    /** Turns a capture-consent result into the process-wide projection; false when refused. */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    static synchronized boolean grant(Context context, int resultCode, Intent data) {
+        MediaProjectionManager manager =
+                (MediaProjectionManager) context.getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        MediaProjection granted;
+        try {
+            granted = manager != null ? manager.getMediaProjection(resultCode, data) : null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Capture consent rejected: " + e.getMessage());
+            return false;
+        }
+        if (granted == null) return false;
+        if (projection != null) projection.stop();
+        projection = granted;
+        granted.registerCallback(new MediaProjection.Callback() {
+            @Override
+            public void onStop() {
+                synchronized (PlaybackCapture.class) {
+                    if (projection == granted) projection = null;
+                }
+                Log.i(TAG, "Playback capture stopped, recording the microphone only");
+            }
+        }, new Handler(Looper.getMainLooper()));
+        Log.i(TAG, "Playback capture granted");
+        return true;
+    }
+
+    static synchronized boolean isAvailable() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && projection != null;
+    }
+
+    /**
+     * Whether captured playback includes the far end of a call. Voice communication is
+     * only capturable with the privileged output-capture permission; without it a capture
+     * gets media alone and the call still has to reach the mic.
+     */
+    static boolean capturesVoiceCalls(Context context) {
+        return isAvailable() && ContextCompat.checkSelfPermission(context,
+                Manifest.permission.CAPTURE_AUDIO_OUTPUT) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /** Opens a mono recorder of the captured playback, or returns null when it cannot. */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    static synchronized AudioRecord open(int sampleRate, int bufferSize) {
+        if (projection == null) return null;
+        AudioPlaybackCaptureConfiguration.Builder config = new AudioPlaybackCaptureConfiguration.Builder(projection);
+        for (int usage : USAGES) {
+            try {
+                config.addMatchingUsage(usage);
+            } catch (IllegalArgumentException e) {
+                Log.d(TAG, "Usage " + usage + " cannot be captured: " + e.getMessage());
+            }
+        }
+        AudioFormat format = new AudioFormat.Builder()
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .setSampleRate(sampleRate)
+                .setChannelMask(AudioFormat.CHANNEL_IN_MONO)
+                .build();
+        try {
+            AudioRecord record = new AudioRecord.Builder()
+                    .setAudioFormat(format)
+                    .setBufferSizeInBytes(bufferSize)
+                    .setAudioPlaybackCaptureConfig(config.build())
+                    .build();
+            if (record.getState() == AudioRecord.STATE_INITIALIZED) return record;
+            record.release();
+            Log.w(TAG, "Playback capture recorder failed to initialize");
+        } catch (RuntimeException e) {
+            // Includes SecurityException once the projection has been revoked
+            Log.w(TAG, "Playback capture unavailable: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /** Stops the projection, for a user who turned playback capture off. */
+    static synchronized void revoke() {
+        if (projection == null) return;
+        projection.stop();
+        projection = null;
+    }
+}
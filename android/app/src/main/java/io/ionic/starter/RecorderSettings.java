@@ -0,0 +1,141 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * User-tunable recorder options, persisted in SharedPreferences so the services can read
+ * them without the web layer running.
+ */
+public final class RecorderSettings {
+    private static final String PREFS_NAME = "call_recorder_settings";
+    private static final String KEY_PRE_ROLL_SECONDS = "pre_roll_seconds";
+    private static final String KEY_AUTO_RECORD = "auto_record";
+    private static final String KEY_SKIP_SILENCE = "skip_silence";
+    private static final String KEY_TRANSCODE = "transcode";
+    private static final String KEY_RETENTION_QUOTA_MB = "retention_quota_mb";
+    private static final String KEY_RETENTION_MAX_AGE_DAYS = "retention_max_age_days";
+    private static final String KEY_SEGMENT_MINUTES = "segment_minutes";
+    private static final String KEY_DUAL_CAPTURE = "dual_capture";
+    private static final String KEY_PROFILE = "profile";
+
+    public static final int MAX_PRE_ROLL_SECONDS = 15;
+    public static final int MAX_SEGMENT_MINUTES = 60;
+
+    private final SharedPreferences prefs;
+
+    private RecorderSettings(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    public static RecorderSettings get(Context context) {
+        return new RecorderSettings(context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    /**
+     * Seconds of audio kept in memory while a call is ringing or dialing and written to the
+     * head of the recording once it starts; 0 disables pre-roll.
+     */
+    public int getPreRollSeconds() {
+        return prefs.getInt(KEY_PRE_ROLL_SECONDS, 0);
+    }
+
+    public void setPreRollSeconds(int seconds) {
+        prefs.edit()
+                .putInt(KEY_PRE_ROLL_SECONDS, Math.max(0, Math.min(seconds, MAX_PRE_ROLL_SECONDS)))
+                .apply();
+    }
+
+    public boolean isPreRollEnabled() {
+        return getPreRollSeconds() > 0;
+    }
+
+    /** Whether call events start recordings on their own; on by default. */
+    public boolean isAutoRecordEnabled() {
+        return prefs.getBoolean(KEY_AUTO_RECORD, true);
+    }
+
+    public void setAutoRecordEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_AUTO_RECORD, enabled).apply();
+    }
+
+    /** Whether long silences are left out of new recordings; off by default. */
+    public boolean isSkipSilenceEnabled() {
+        return prefs.getBoolean(KEY_SKIP_SILENCE, false);
+    }
+
+    public void setSkipSilenceEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_SKIP_SILENCE, enabled).apply();
+    }
+
+    /** Whether finished WAV recordings are re-encoded as AAC in the background; on by default. */
+    public boolean isTranscodeEnabled() {
+        return prefs.getBoolean(KEY_TRANSCODE, true);
+    }
+
+    public void setTranscodeEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_TRANSCODE, enabled).apply();
+    }
+
+    /** Megabytes CallRecords may hold before the oldest recordings are evicted; 0 means no quota. */
+    public int getRetentionQuotaMb() {
+        return prefs.getInt(KEY_RETENTION_QUOTA_MB, 0);
+    }
+
+    public long getRetentionQuotaBytes() {
+        return getRetentionQuotaMb() * 1024L * 1024L;
+    }
+
+    public void setRetentionQuotaMb(int megabytes) {
+        prefs.edit().putInt(KEY_RETENTION_QUOTA_MB, Math.max(0, megabytes)).apply();
+    }
+
+    /** Days a recording is kept before it is evicted; 0 keeps recordings indefinitely. */
+    public int getRetentionMaxAgeDays() {
+        return prefs.getInt(KEY_RETENTION_MAX_AGE_DAYS, 0);
+    }
+
+    public long getRetentionMaxAgeMs() {
+        return getRetentionMaxAgeDays() * 24L * 60 * 60 * 1000;
+    }
+
+    public void setRetentionMaxAgeDays(int days) {
+        prefs.edit().putInt(KEY_RETENTION_MAX_AGE_DAYS, Math.max(0, days)).apply();
+    }
+
+    /** Minutes of call per recording file before output rotates to the next; 0 keeps one file per call. */
+    public int getSegmentMinutes() {
+        return prefs.getInt(KEY_SEGMENT_MINUTES, 5);
+    }
+
+    public void setSegmentMinutes(int minutes) {
+        prefs.edit()
+                .putInt(KEY_SEGMENT_MINUTES, Math.max(0, Math.min(minutes, MAX_SEGMENT_MINUTES)))
+                .apply();
+    }
+
+    /**
+     * Name of the {@link RecordingProfile} calls are recorded with unless the trigger names
+     * one; 16 kHz AAC by default, a sixth of the size of the same call as WAV.
+     */
+    public String getProfileName() {
+        return prefs.getString(KEY_PROFILE, RecordingProfile.VOICE_16K_AAC.name);
+    }
+
+    public void setProfileName(String name) {
+        prefs.edit().putString(KEY_PROFILE, name).apply();
+    }
+
+    /**
+     * Whether calls are recorded as playback plus microphone in stereo once playback capture
+     * has been granted; on by default. Without the grant recordings use the microphone alone.
+     */
+    public boolean isDualCaptureEnabled() {
+        return prefs.getBoolean(KEY_DUAL_CAPTURE, true);
+    }
+
+    public void setDualCaptureEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_DUAL_CAPTURE, enabled).apply();
+    }
+}
@@ -0,0 +1,403 @@
+package io.ionic.starter;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Persistent catalog of finished recordings, so listing them never scans the directory.
+ *
+ * One row per file, keyed by its name. Listing is keyset-paged on {@code (created_at, _id)}
+ * like the call log; the created-time and number indexes carry every listed column, so a
+ * page is read from the index alone. {@link CallRecorderService} adds a row when a
+ * recording finishes; files that predate the catalog are imported once on creation.
+ */
+public final class RecordingCatalog extends SQLiteOpenHelper {
+    private static final String TAG = "RecordingCatalog";
+    private static final String DB_NAME = "recordings.db";
+    private static final int DB_VERSION = 3;
+
+    static final String TABLE = "recordings";
+    static final String COL_ID = "_id";
+    static final String COL_NAME = "name";
+    static final String COL_PATH = "path";
+    static final String COL_NUMBER = "number";
+    static final String COL_CREATED_AT = "created_at";
+    static final String COL_ENDED_AT = "ended_at";
+    static final String COL_DURATION_MS = "duration_ms";
+    static final String COL_SIZE_BYTES = "size_bytes";
+    static final String COL_MIME = "mime";
+    // v3; 0 until first played
+    static final String COL_LAST_PLAYED_AT = "last_played_at";
+
+    // Post-call transcode queue (v2), one row per recording; see TranscodeQueue
+    static final String JOBS_TABLE = "transcode_jobs";
+    static final String COL_JOB_STATE = "state";
+    static final String COL_JOB_ATTEMPTS = "attempts";
+    static final String COL_JOB_QUEUED_AT = "queued_at";
+    static final String COL_JOB_ERROR = "error";
+    static final int JOB_PENDING = 0;
+    // Output written and verified; only the swap is left
+    static final int JOB_ENCODED = 1;
+    static final int JOB_FAILED = 2;
+
+    // Every column a list page returns; both indexes below cover them
+    private static final String LIST_COLUMNS = COL_ID + ", " + COL_NAME + ", " + COL_PATH + ", "
+            + COL_NUMBER + ", " + COL_CREATED_AT + ", " + COL_ENDED_AT + ", " + COL_DURATION_MS + ", "
+            + COL_SIZE_BYTES + ", " + COL_MIME;
+
+    private static RecordingCatalog instance;
+
+    private final Context context;
+    // Set by onCreate, inside the first getWritableDatabase()
+    private boolean needsImport = false;
+    private final Object importLock = new Object();
+    private volatile boolean importChecked = false;
+
+    /** Receives what retention needs to know about one recording. */
+    interface RetentionVisitor {
+        void visit(String name, long sizeBytes, long durationMs, long createdAt, long lastPlayedAt);
+    }
+
+    /** Receives one transcode job. */
+    interface JobVisitor {
+        void visit(String name, int attempts);
+    }
+
+    /** Receives one catalog row. */
+    public interface RowVisitor {
+        void visit(long id, String name, String path, String number, long createdAt, long endedAt,
+                   long durationMs, long sizeBytes, String mime);
+    }
+
+    private RecordingCatalog(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.context = context;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static RecordingCatalog getInstance(Context context) {
+        RecordingCatalog catalog;
+        synchronized (RecordingCatalog.class) {
+            if (instance == null) {
+                instance = new RecordingCatalog(context.getApplicationContext());
+            }
+            catalog = instance;
+        }
+        // Outside the class lock: the import notifies the interval index and retention
+        catalog.importExistingIfNew();
+        return catalog;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_NAME + " TEXT NOT NULL UNIQUE, "
+                + COL_PATH + " TEXT NOT NULL, "
+                + COL_NUMBER + " TEXT, "
+                + COL_CREATED_AT + " INTEGER NOT NULL, "
+                + COL_ENDED_AT + " INTEGER NOT NULL, "
+                + COL_DURATION_MS + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_SIZE_BYTES + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_MIME + " TEXT, "
+                + COL_LAST_PLAYED_AT + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX idx_recordings_created ON " + TABLE + " ("
+                + COL_CREATED_AT + ", " + LIST_COLUMNS + ")");
+        db.execSQL("CREATE INDEX idx_recordings_number ON " + TABLE + " ("
+                + COL_NUMBER + ", " + COL_CREATED_AT + ", " + LIST_COLUMNS + ")");
+        createJobsTable(db);
+        needsImport = true;
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) createJobsTable(db);
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN " + COL_LAST_PLAYED_AT + " INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+
+    private static void createJobsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + JOBS_TABLE + " ("
+                + COL_NAME + " TEXT PRIMARY KEY, "
+                + COL_JOB_STATE + " INTEGER NOT NULL DEFAULT " + JOB_PENDING + ", "
+                + COL_JOB_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_JOB_QUEUED_AT + " INTEGER NOT NULL, "
+                + COL_JOB_ERROR + " TEXT)");
+    }
+
+    /**
+     * Adds the row for {@code file}, or updates the columns given here if it exists; the
+     * play history of an existing row is kept.
+     */
+    public void add(File file, String number, long createdAt, long endedAt, long durationMs, String mime) {
+        ContentValues values = rowValues(file, number, createdAt, endedAt, durationMs, mime);
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE) == -1) {
+            db.update(TABLE, values, COL_NAME + " = ?", new String[]{file.getName()});
+        }
+        RecordingIntervalIndex.getInstance(context).invalidate();
+        RetentionManager retention = RetentionManager.getInstance(context);
+        retention.onCataloged(file.getName(), file.length(), durationMs, createdAt);
+        // Each finished segment may push usage over the quota
+        retention.enforceAsync();
+    }
+
+    private static ContentValues rowValues(File file, String number, long createdAt, long endedAt,
+                                           long durationMs, String mime) {
+        ContentValues values = new ContentValues();
+        values.put(COL_NAME, file.getName());
+        values.put(COL_PATH, file.getAbsolutePath());
+        if (number != null && !number.isEmpty()) {
+            values.put(COL_NUMBER, number);
+        } else {
+            values.putNull(COL_NUMBER);
+        }
+        values.put(COL_CREATED_AT, createdAt);
+        values.put(COL_ENDED_AT, Math.max(createdAt, endedAt));
+        values.put(COL_DURATION_MS, durationMs);
+        values.put(COL_SIZE_BYTES, file.length());
+        values.put(COL_MIME, mime);
+        return values;
+    }
+
+    /** Removes the row for a recording that no longer exists; true if there was one. */
+    public boolean remove(String name) {
+        SQLiteDatabase db = getWritableDatabase();
+        int removed = db.delete(TABLE, COL_NAME + " = ?", new String[]{name});
+        db.delete(JOBS_TABLE, COL_NAME + " = ?", new String[]{name});
+        if (removed > 0) RecordingIntervalIndex.getInstance(context).invalidate();
+        RetentionManager.getInstance(context).onRemoved(name);
+        return removed > 0;
+    }
+
+    /**
+     * Updates the size and duration of a recording that was repaired in place, keeping its
+     * number and history. A file the catalog never saw is added.
+     *
+     * @param endedAt when the file was last written, from before the repair touched it
+     */
+    void refresh(File file, long durationMs, long endedAt) {
+        ContentValues values = new ContentValues();
+        values.put(COL_SIZE_BYTES, file.length());
+        values.put(COL_DURATION_MS, durationMs);
+        values.put(COL_ENDED_AT, endedAt);
+        String name = file.getName();
+        if (getWritableDatabase().update(TABLE, values, COL_NAME + " = ?", new String[]{name}) > 0) {
+            RecordingIntervalIndex.getInstance(context).invalidate();
+            // Same name, new size
+            RetentionManager.getInstance(context).onRenamed(name, name, file.length());
+            return;
+        }
+        // Later parts of a segmented call carry the session's start in their name
+        long createdAt = name.startsWith(SegmentedSink.sessionStem(name) + ".")
+                ? RecordingIntervalIndex.parseStart(new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US), name)
+                : -1;
+        if (createdAt < 0) createdAt = Math.max(0, endedAt - durationMs);
+        add(file, null, createdAt, endedAt, durationMs, mimeForName(name));
+    }
+
+    /** Notes that {@code name} was played, which delays its eviction. */
+    void markPlayed(String name) {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(COL_LAST_PLAYED_AT, now);
+        if (getWritableDatabase().update(TABLE, values, COL_NAME + " = ?", new String[]{name}) > 0) {
+            RetentionManager.getInstance(context).onPlayed(name, now);
+        }
+    }
+
+    /** Visits every recording's size and timestamps. */
+    void forEachForRetention(RetentionVisitor visitor) {
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT " + COL_NAME + ", " + COL_SIZE_BYTES + ", "
+                + COL_DURATION_MS + ", " + COL_CREATED_AT + ", " + COL_LAST_PLAYED_AT + " FROM " + TABLE, null)) {
+            while (c.moveToNext()) {
+                visitor.visit(c.getString(0), c.getLong(1), c.getLong(2), c.getLong(3), c.getLong(4));
+            }
+        }
+    }
+
+    /**
+     * Visits up to {@code limit} recordings strictly older than the keyset
+     * {@code (beforeCreatedAt, beforeId)}, newest first, optionally for one number.
+     * Returns how many were visited.
+     */
+    public int page(long beforeCreatedAt, long beforeId, String number, int limit, RowVisitor visitor) {
+        List<String> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder();
+        if (number != null && !number.isEmpty()) {
+            where.append(COL_NUMBER).append(" = ? AND ");
+            args.add(number);
+        }
+        // The leading <= gives SQLite a range bound on the created_at index; row values
+        // ((created_at, _id) < (?, ?)) would too but need SQLite 3.15, which API 23 lacks
+        where.append(COL_CREATED_AT).append(" <= ? AND (")
+                .append(COL_CREATED_AT).append(" < ? OR ").append(COL_ID).append(" < ?)");
+        args.add(Long.toString(beforeCreatedAt));
+        args.add(Long.toString(beforeCreatedAt));
+        args.add(Long.toString(beforeId));
+
+        String sql = "SELECT " + LIST_COLUMNS + " FROM " + TABLE + " WHERE " + where
+                + " ORDER BY " + COL_CREATED_AT + " DESC, " + COL_ID + " DESC LIMIT " + limit;
+        int count = 0;
+        try (Cursor c = getReadableDatabase().rawQuery(sql, args.toArray(new String[0]))) {
+            while (c.moveToNext()) {
+                visitor.visit(c.getLong(0), c.getString(1), c.getString(2), c.isNull(3) ? null : c.getString(3),
+                        c.getLong(4), c.getLong(5), c.getLong(6), c.getLong(7), c.getString(8));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Points the row of {@code oldName} at {@code newFile}, which replaces it on disk,
+     * and drops its transcode job in the same transaction.
+     */
+    void replaceFile(String oldName, File newFile, String mime) {
+        ContentValues values = new ContentValues();
+        values.put(COL_NAME, newFile.getName());
+        values.put(COL_PATH, newFile.getAbsolutePath());
+        values.put(COL_SIZE_BYTES, newFile.length());
+        values.put(COL_MIME, mime);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.update(TABLE, values, COL_NAME + " = ?", new String[]{oldName});
+            db.delete(JOBS_TABLE, COL_NAME + " = ?", new String[]{oldName});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        RecordingIntervalIndex.getInstance(context).invalidate();
+        RetentionManager.getInstance(context).onRenamed(oldName, newFile.getName(), newFile.length());
+    }
+
+    /** Queues {@code name} for transcoding unless it already has a job. */
+    void addTranscodeJob(String name) {
+        ContentValues values = new ContentValues();
+        values.put(COL_NAME, name);
+        values.put(COL_JOB_STATE, JOB_PENDING);
+        values.put(COL_JOB_QUEUED_AT, System.currentTimeMillis());
+        getWritableDatabase().insertWithOnConflict(JOBS_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /** Visits the jobs in {@code state}, oldest first. */
+    void forEachTranscodeJob(int state, JobVisitor visitor) {
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT " + COL_NAME + ", " + COL_JOB_ATTEMPTS
+                + " FROM " + JOBS_TABLE + " WHERE " + COL_JOB_STATE + " = ? ORDER BY " + COL_JOB_QUEUED_AT,
+                new String[]{Integer.toString(state)})) {
+            while (c.moveToNext()) {
+                visitor.visit(c.getString(0), c.getInt(1));
+            }
+        }
+    }
+
+    void setTranscodeJobState(String name, int state, int attempts, String error) {
+        ContentValues values = new ContentValues();
+        values.put(COL_JOB_STATE, state);
+        values.put(COL_JOB_ATTEMPTS, attempts);
+        if (error != null) {
+            values.put(COL_JOB_ERROR, error);
+        } else {
+            values.putNull(COL_JOB_ERROR);
+        }
+        getWritableDatabase().update(JOBS_TABLE, values, COL_NAME + " = ?", new String[]{name});
+    }
+
+    void removeTranscodeJob(String name) {
+        getWritableDatabase().delete(JOBS_TABLE, COL_NAME + " = ?", new String[]{name});
+    }
+
+    int countTranscodeJobs(int state) {
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + JOBS_TABLE + " WHERE "
+                + COL_JOB_STATE + " = ?", new String[]{Integer.toString(state)})) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        }
+    }
+
+    /** Visits every recording, newest first; used to build the interval index. */
+    void forEach(RowVisitor visitor) {
+        page(Long.MAX_VALUE, Long.MAX_VALUE, null, Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Catalogs files recorded before the catalog existed; runs once, on database creation.
+     * Other callers of {@link #getInstance} wait here until it is done. One batch, with a
+     * single index invalidation and retention check at the end.
+     */
+    private void importExistingIfNew() {
+        if (importChecked) return;
+        synchronized (importLock) {
+            if (importChecked) return;
+            try {
+                importExisting();
+            } finally {
+                importChecked = true;
+            }
+        }
+    }
+
+    // Caller holds importLock
+    private void importExisting() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (!needsImport) return;
+        needsImport = false;
+        File[] files = RecordingSession.getRecordingsDir(context).listFiles();
+        if (files == null) return;
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
+        int imported = 0;
+        db.beginTransaction();
+        try {
+            for (File f : files) {
+                long createdAt = RecordingIntervalIndex.parseStart(format, f.getName());
+                if (createdAt < 0) continue;
+                ContentValues values = rowValues(f, null, createdAt, f.lastModified(), 0, mimeForName(f.getName()));
+                if (db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                    imported++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.i(TAG, "Imported " + imported + " existing recordings");
+        if (imported > 0) {
+            RecordingIntervalIndex.getInstance(context).invalidate();
+            RetentionManager.getInstance(context).enforceAsync();
+        }
+    }
+
+    static String mimeForName(String name) {
+        String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        switch (ext) {
+            case "wav":
+                return "audio/wav";
+            case "m4a":
+            case "mp4":
+                return "audio/mp4";
+            case "ogg":
+                return "audio/ogg";
+            case "aac":
+                return "audio/aac";
+            case "mp3":
+                return "audio/mpeg";
+            case "amr":
+                return "audio/amr";
+            case "3gp":
+                return "audio/3gpp";
+            default:
+                return "application/octet-stream";
+        }
+    }
+}
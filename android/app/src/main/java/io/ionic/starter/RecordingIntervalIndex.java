@@ -0,0 +1,172 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Time intervals of the cataloged recordings, for joining them to call log rows.
+ *
+ * A recording spans from its creation (the timestamp in its name) to when it finished.
+ * Intervals are kept sorted by start with a running maximum of ends, so "recordings
+ * overlapping [from, to]" is a binary search plus a short walk back. The snapshot is
+ * immutable and swapped whole; {@link RecordingCatalog} invalidates it on every change.
+ */
+final class RecordingIntervalIndex {
+    private static final String TAG = "RecordingIntervalIndex";
+    private static final String NAME_PREFIX = "call_";
+    private static final String NAME_PATTERN = "yyyyMMdd_HHmmss";
+    // File names have one-second resolution and are stamped at prepare, around ring time
+    static final long MATCH_SLACK_MS = 5_000;
+
+    private static RecordingIntervalIndex instance;
+
+    private final Context context;
+    // Serializes reloads; never held while taking this index's own lock from outside
+    private final Object loadLock = new Object();
+    private volatile Snapshot snapshot;
+    // Guarded by this
+    private boolean stale = true;
+
+    private RecordingIntervalIndex(Context context) {
+        this.context = context;
+    }
+
+    static synchronized RecordingIntervalIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new RecordingIntervalIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /** Forces a reload on next use; called when the catalog changes. */
+    synchronized void invalidate() {
+        stale = true;
+    }
+
+    /** Current intervals, reloading them from the catalog first if it changed. */
+    Snapshot snapshot() {
+        synchronized (loadLock) {
+            boolean reload;
+            synchronized (this) {
+                // Cleared first, so a change that lands while loading marks it stale again
+                reload = stale;
+                stale = false;
+            }
+            // Loaded outside our lock: the catalog calls invalidate() while holding its own
+            if (reload) {
+                try {
+                    snapshot = load();
+                } catch (RuntimeException e) {
+                    invalidate();
+                    throw e;
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot load() {
+        List<String> names = new ArrayList<>();
+        List<long[]> spans = new ArrayList<>();
+        RecordingCatalog.getInstance(context).forEach(
+                (id, name, path, number, createdAt, endedAt, durationMs, sizeBytes, mime) -> {
+                    names.add(name);
+                    spans.add(new long[]{createdAt, endedAt});
+                });
+
+        Integer[] order = new Integer[names.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(spans.get(a)[0], spans.get(b)[0]));
+
+        String[] ids = new String[order.length];
+        long[] starts = new long[order.length];
+        long[] ends = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ids[i] = names.get(order[i]);
+            starts[i] = spans.get(order[i])[0];
+            ends[i] = spans.get(order[i])[1];
+        }
+        Log.d(TAG, "Indexed " + ids.length + " recordings");
+        return new Snapshot(ids, starts, ends);
+    }
+
+    // Start time in ms from call_yyyyMMdd_HHmmss.ext, or -1 for other files
+    static long parseStart(SimpleDateFormat format, String name) {
+        if (!name.startsWith(NAME_PREFIX)) return -1;
+        ParsePosition pos = new ParsePosition(NAME_PREFIX.length());
+        Date date = format.parse(name, pos);
+        return date != null && pos.getIndex() == NAME_PREFIX.length() + NAME_PATTERN.length()
+                ? date.getTime() : -1;
+    }
+
+    /** Immutable, start-ordered recording intervals. */
+    static final class Snapshot {
+        final String[] ids;
+        final long[] starts;
+        final long[] ends;
+        // maxEnds[i] = max(ends[0..i]); lets overlap queries stop walking back early
+        private final long[] maxEnds;
+
+        Snapshot(String[] ids, long[] starts, long[] ends) {
+            this.ids = ids;
+            this.starts = starts;
+            this.ends = ends;
+            maxEnds = new long[ends.length];
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < ends.length; i++) {
+                max = Math.max(max, ends[i]);
+                maxEnds[i] = max;
+            }
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Ids of recordings overlapping {@code [from, to]}, oldest first; null when there are
+         * none, so the common no-recording case allocates nothing.
+         */
+        List<String> overlapping(long from, long to) {
+            List<String> result = null;
+            for (int i = lastStartingBy(to); i >= 0 && maxEnds[i] >= from; i--) {
+                if (ends[i] < from) continue;
+                if (result == null) result = new ArrayList<>(1);
+                result.add(0, ids[i]);
+            }
+            return result;
+        }
+
+        /** Index of recording {@code id}, or -1; the start in its name locates it by binary search. */
+        int indexOf(String id) {
+            long start = parseStart(new SimpleDateFormat(NAME_PATTERN, Locale.US), id);
+            for (int i = lastStartingBy(start); i >= 0 && starts[i] == start; i--) {
+                if (ids[i].equals(id)) return i;
+            }
+            return -1;
+        }
+
+        // Last index with starts[i] <= t, or -1
+        private int lastStartingBy(long t) {
+            int lo = 0;
+            int hi = starts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] <= t) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo - 1;
+        }
+    }
+}
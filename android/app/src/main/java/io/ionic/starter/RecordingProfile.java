@@ -0,0 +1,137 @@
+package io.ionic.starter;
+
+import android.media.AudioFormat;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Named capture/encode settings selectable per call via the {@link #EXTRA_PROFILE} intent extra;
+ * calls that do not name one use {@link RecorderSettings#getProfileName()}.
+ *
+ * PCM profiles are written as WAV by {@link WavFileWriter}; the others are encoded by
+ * {@link VoiceEncoder} and muxed with MediaMuxer.
+ */
+public final class RecordingProfile {
+    private static final String TAG = "RecordingProfile";
+
+    public static final String EXTRA_PROFILE = "profile";
+
+    public static final RecordingProfile PCM_16K_MONO = new RecordingProfile(
+            "pcm-16k-mono", null, 16000, 1, 0, -1, "wav");
+    public static final RecordingProfile PCM_44K_MONO = new RecordingProfile(
+            "pcm-44k-mono", null, 44100, 1, 0, -1, "wav");
+    public static final RecordingProfile VOICE_16K_AAC = new RecordingProfile(
+            "voice-16k-mono-24kbps", MediaFormat.MIMETYPE_AUDIO_AAC, 16000, 1, 24000,
+            MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4, "m4a");
+    public static final RecordingProfile VOICE_8K_AAC = new RecordingProfile(
+            "voice-8k-mono-12kbps", MediaFormat.MIMETYPE_AUDIO_AAC, 8000, 1, 12000,
+            MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4, "m4a");
+    // MUXER_OUTPUT_OGG is 2 (API 29); spelled out so the class loads on older releases
+    public static final RecordingProfile VOICE_16K_OPUS = new RecordingProfile(
+            "opus-16k-mono-24kbps", MediaFormat.MIMETYPE_AUDIO_OPUS, 16000, 1, 24000, 2, "ogg");
+
+    public static final RecordingProfile DEFAULT = PCM_16K_MONO;
+
+    private static final RecordingProfile[] ALL = {
+            PCM_16K_MONO, PCM_44K_MONO, VOICE_16K_AAC, VOICE_8K_AAC, VOICE_16K_OPUS
+    };
+
+    public final String name;
+    // Null for uncompressed PCM
+    public final String mime;
+    public final int sampleRate;
+    public final int channels;
+    public final int bitRate;
+    public final int muxerFormat;
+    public final String extension;
+
+    private RecordingProfile(String name, String mime, int sampleRate, int channels, int bitRate,
+                             int muxerFormat, String extension) {
+        this.name = name;
+        this.mime = mime;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitRate = bitRate;
+        this.muxerFormat = muxerFormat;
+        this.extension = extension;
+    }
+
+    /**
+     * Resolves a profile by name, falling back to the nearest supported profile when the
+     * device has no encoder for it, and to {@link #DEFAULT} for unknown or null names.
+     */
+    public static RecordingProfile forName(String name) {
+        if (name == null) return DEFAULT;
+        for (RecordingProfile p : ALL) {
+            if (p.name.equals(name)) {
+                if (p == VOICE_16K_OPUS && !isOpusSupported()) {
+                    Log.w(TAG, "Opus encoder unavailable, using " + VOICE_16K_AAC.name);
+                    return VOICE_16K_AAC;
+                }
+                return p;
+            }
+        }
+        Log.w(TAG, "Unknown profile " + name + ", using " + DEFAULT.name);
+        return DEFAULT;
+    }
+
+    /** Names accepted by {@link #forName}, in order of declaration. */
+    public static String[] names() {
+        String[] names = new String[ALL.length];
+        for (int i = 0; i < ALL.length; i++) names[i] = ALL[i].name;
+        return names;
+    }
+
+    public static boolean isKnown(String name) {
+        for (RecordingProfile p : ALL) {
+            if (p.name.equals(name)) return true;
+        }
+        return false;
+    }
+
+    /** AAC voice profile matching a PCM source's format, for transcoding finished recordings. */
+    static RecordingProfile voiceFor(int sampleRate, int channels) {
+        return new RecordingProfile("voice-" + sampleRate + "-aac", MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate,
+                channels, 24000 * channels, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4, "m4a");
+    }
+
+    /** This profile with a channel per call party, for {@link DualCaptureEngine}. */
+    RecordingProfile toStereo() {
+        if (channels == 2) return this;
+        String stereoName = name.contains("-mono") ? name.replace("-mono", "-stereo") : name + "-stereo";
+        return new RecordingProfile(stereoName, mime, sampleRate, 2, bitRate * 2, muxerFormat, extension);
+    }
+
+    public boolean isPcm() {
+        return mime == null;
+    }
+
+    public int getChannelMask() {
+        return channels == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+    }
+
+    /** Bytes per second of 16-bit PCM this profile captures. */
+    public int getPcmByteRate() {
+        return sampleRate * channels * 2;
+    }
+
+    MediaFormat createMediaFormat() {
+        MediaFormat format = MediaFormat.createAudioFormat(mime, sampleRate, channels);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, VoiceEncoder.MAX_INPUT_SIZE);
+        if (MediaFormat.MIMETYPE_AUDIO_AAC.equals(mime)) {
+            format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        }
+        return format;
+    }
+
+    private static boolean isOpusSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return false;
+        MediaCodecList list = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        return list.findEncoderForFormat(VOICE_16K_OPUS.createMediaFormat()) != null;
+    }
+}
@@ -0,0 +1,349 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds recordings that a killed process left incomplete and repairs them in the background.
+ *
+ * The scan runs once per process, started by whichever of the plugin or the recorder
+ * service comes up first. It only looks at files last written before it began, so the
+ * current process's own recording is never touched. Each file is checked on a small
+ * bounded pool. Files are classified by content rather than extension, since early
+ * builds wrote MP4 under .wav names:
+ * <ul>
+ *   <li>A WAV whose header sizes disagree with its length gets them recomputed by
+ *       {@link WavFileWriter#repair}.</li>
+ *   <li>A file still behind the original recorder's zeroed 44-byte placeholder gets a
+ *       header for that recorder's format.</li>
+ *   <li>An MP4 without a {@code moov} box cannot be rebuilt: the sample tables are gone
+ *       and the raw AAC in {@code mdat} carries no frame boundaries. It is moved to
+ *       {@code .damaged/} for external tools and dropped from the catalog.</li>
+ *   <li>A file with no audio at all, such as a segment opened ahead of a boundary the
+ *       call never reached, is deleted.</li>
+ * </ul>
+ * Repaired files are re-cataloged, queued for transcoding and patched into their session
+ * manifest. The outcome is kept as a {@link Report} and passed to the {@link Listener}.
+ */
+final class RecordingRecovery {
+    private static final String TAG = "RecordingRecovery";
+    private static final int MAX_THREADS = 4;
+    // Covers filesystems that store modification times in whole seconds
+    private static final long MTIME_SLACK_MS = 2000;
+    // What the recorder that wrote placeholder headers captured
+    private static final int LEGACY_SAMPLE_RATE = 44100;
+    private static final int LEGACY_CHANNELS = 1;
+    private static final int LEGACY_BITS = 16;
+    private static final long MAX_CHUNK_SIZE = 0xFFFFFFFFL;
+
+    static final String REPAIRED = "repaired";
+    static final String REMOVED = "removed";
+    static final String QUARANTINED = "quarantined";
+    static final String FAILED = "failed";
+
+    interface Listener {
+        /** Called on the scan thread, only when something was found. */
+        void onRecoveryFinished(Report report);
+    }
+
+    /** What was done to one file. */
+    static final class Result {
+        final String name;
+        final String action;
+        final String detail;
+        final long durationMs;
+
+        Result(String name, String action, String detail, long durationMs) {
+            this.name = name;
+            this.action = action;
+            this.detail = detail;
+            this.durationMs = durationMs;
+        }
+    }
+
+    static final class Report {
+        long startedAt;
+        long finishedAt;
+        int scanned;
+        final List<Result> results = new ArrayList<>();
+    }
+
+    private static RecordingRecovery instance;
+
+    private final Context context;
+    private volatile Listener listener;
+    // Guarded by this
+    private boolean started = false;
+    private Report report;
+
+    private RecordingRecovery(Context context) {
+        this.context = context;
+    }
+
+    static synchronized RecordingRecovery getInstance(Context context) {
+        if (instance == null) {
+            instance = new RecordingRecovery(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Starts the scan unless this process already ran it; never blocks the caller. */
+    synchronized void scanAsync() {
+        if (started) return;
+        started = true;
+        new Thread(this::scan, "recovery-scan").start();
+    }
+
+    synchronized boolean isRunning() {
+        return started && report == null;
+    }
+
+    /** The finished scan's report, or null while it runs or before it starts. */
+    synchronized Report getReport() {
+        return report;
+    }
+
+    private void scan() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        Report r = new Report();
+        r.startedAt = System.currentTimeMillis();
+        long cutoff = r.startedAt - MTIME_SLACK_MS;
+        File dir = RecordingSession.getRecordingsDir(context);
+        File[] files = dir.listFiles();
+        List<File> candidates = new ArrayList<>();
+        if (files != null) {
+            for (File f : files) {
+                // Hidden entries are sidecars and work directories
+                if (f.getName().startsWith(".") || !f.isFile()) continue;
+                if (f.lastModified() >= cutoff) continue;
+                candidates.add(f);
+            }
+        }
+        r.scanned = candidates.size();
+
+        if (!candidates.isEmpty()) {
+            int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, candidates.size()),
+                    runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "recovery"));
+            List<Future<Result>> pending = new ArrayList<>(candidates.size());
+            for (File f : candidates) {
+                pending.add(pool.submit(() -> check(f)));
+            }
+            pool.shutdown();
+            for (Future<Result> future : pending) {
+                try {
+                    Result result = future.get();
+                    if (result != null) r.results.add(result);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Recovery task failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            patchManifests(dir, r.results);
+        }
+
+        r.finishedAt = System.currentTimeMillis();
+        Log.i(TAG, "Scanned " + r.scanned + " recordings in " + (r.finishedAt - r.startedAt) + " ms, "
+                + r.results.size() + " needed recovery");
+        for (Result result : r.results) {
+            Log.i(TAG, result.name + ": " + result.action + " (" + result.detail + ")");
+        }
+        synchronized (this) {
+            report = r;
+        }
+        Listener l = listener;
+        if (l != null && !r.results.isEmpty()) l.onRecoveryFinished(r);
+    }
+
+    // Pool thread; null when the file is healthy or not one we can judge
+    private Result check(File f) {
+        String name = f.getName();
+        long modified = f.lastModified();
+        try {
+            if (f.length() == 0) return remove(f, "empty file");
+            byte[] head = readHead(f);
+            if (isTag(head, 0, "RIFF") || isTag(head, 0, "RF64")) return checkWav(f, modified);
+            if (isTag(head, 4, "ftyp")) return checkMp4(f);
+            if (name.endsWith(".wav")) {
+                WavFileWriter.Info info = WavFileWriter.repairPlaceholder(f, LEGACY_SAMPLE_RATE, LEGACY_CHANNELS,
+                        LEGACY_BITS);
+                if (info != null) return repaired(f, info, modified, "placeholder header replaced");
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not recover " + name + ": " + e.getMessage());
+            return new Result(name, FAILED, String.valueOf(e.getMessage()), 0);
+        }
+    }
+
+    private Result checkWav(File f, long modified) throws IOException {
+        WavFileWriter.Info info = WavFileWriter.readInfo(f);
+        int blockAlign = info.channels * info.bitsPerSample / 8;
+        if (info.formatTag != 1 || blockAlign <= 0) return null;
+        long actual = Math.max(0, f.length() - info.dataOffset);
+        actual -= actual % blockAlign;
+        boolean clamped = !info.rf64 && info.dataLength == MAX_CHUNK_SIZE && actual >= MAX_CHUNK_SIZE;
+        if (clamped || (info.dataLength == actual && f.length() == info.dataOffset + actual)) return null;
+        long declared = info.dataLength;
+        info = WavFileWriter.repair(f);
+        return repaired(f, info, modified, "header said " + declared + " bytes of audio, file holds " + actual);
+    }
+
+    private Result repaired(File f, WavFileWriter.Info info, long modified, String detail) {
+        if (info.dataLength == 0) return remove(f, "no audio");
+        long durationMs = info.dataLength * 1000
+                / Math.max(1, (long) info.sampleRate * info.channels * info.bitsPerSample / 8);
+        RecordingCatalog.getInstance(context).refresh(f, durationMs, modified);
+        if (RecorderSettings.get(context).isTranscodeEnabled()) {
+            TranscodeQueue.getInstance(context).enqueue(f);
+        }
+        return new Result(f.getName(), REPAIRED, detail, durationMs);
+    }
+
+    private Result checkMp4(File f) throws IOException {
+        long[] boxes = scanBoxes(f);
+        if (boxes[0] != 0) return null;
+        if (boxes[1] <= 0) return remove(f, "no moov box and no audio data");
+        File damaged = new File(f.getParentFile(), ".damaged");
+        if (!damaged.exists() && !damaged.mkdirs()) {
+            throw new IOException("Failed to create directory: " + damaged.getAbsolutePath());
+        }
+        if (!f.renameTo(new File(damaged, f.getName()))) {
+            throw new IOException("Failed to move " + f.getName() + " to " + damaged.getName());
+        }
+        WaveformPeaks.sidecarFor(f).delete();
+        SilenceGate.indexFor(f).delete();
+        RecordingCatalog.getInstance(context).remove(f.getName());
+        return new Result(f.getName(), QUARANTINED,
+                "no moov box; " + boxes[1] / 1024 + " KB of audio data moved to .damaged", 0);
+    }
+
+    private Result remove(File f, String reason) {
+        RecordingSession.deleteSegment(f);
+        RecordingCatalog.getInstance(context).remove(f.getName());
+        return new Result(f.getName(), REMOVED, reason, 0);
+    }
+
+    /**
+     * Walks the top-level MP4 boxes: {whether moov is present, bytes of mdat payload}.
+     * An mdat with a placeholder or overlong size, as left by a killed muxer, is taken to
+     * run to the end of the file.
+     */
+    static long[] scanBoxes(File f) throws IOException {
+        boolean moov = false;
+        long mdat = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            long length = raf.length();
+            byte[] h = new byte[16];
+            long pos = 0;
+            while (pos + 8 <= length) {
+                raf.seek(pos);
+                raf.readFully(h, 0, 8);
+                long size = readUInt32(h, 0);
+                int headerSize = 8;
+                if (size == 1 && pos + 16 <= length) {
+                    raf.readFully(h, 8, 8);
+                    size = (readUInt32(h, 8) << 32) | readUInt32(h, 12);
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = length - pos;
+                }
+                boolean isMdat = isTag(h, 4, "mdat");
+                if (size < headerSize || size > length - pos) {
+                    if (isMdat) mdat += length - pos - headerSize;
+                    break;
+                }
+                if (isTag(h, 4, "moov")) moov = true;
+                if (isMdat) mdat += size - headerSize;
+                pos += size;
+            }
+        }
+        return new long[]{moov ? 1 : 0, Math.max(0, mdat)};
+    }
+
+    // Brings session manifests in line with what was repaired or removed
+    private static void patchManifests(File dir, List<Result> results) {
+        Map<String, List<Result>> bySession = new HashMap<>();
+        for (Result r : results) {
+            if (!r.action.equals(REPAIRED) && !r.action.equals(REMOVED)) continue;
+            String stem = SegmentedSink.sessionStem(r.name);
+            List<Result> list = bySession.get(stem);
+            if (list == null) bySession.put(stem, list = new ArrayList<>());
+            list.add(r);
+        }
+        for (Map.Entry<String, List<Result>> session : bySession.entrySet()) {
+            File manifestFile = SessionManifest.manifestFor(new File(dir, session.getKey() + ".wav"));
+            if (!manifestFile.isFile()) continue;
+            try {
+                SessionManifest manifest = SessionManifest.read(manifestFile);
+                List<Result> list = session.getValue();
+                // Part names sort in recording order
+                Collections.sort(list, (a, b) -> a.name.compareTo(b.name));
+                for (Result r : list) {
+                    SessionManifest.Entry e = manifest.find(r.name);
+                    if (r.action.equals(REMOVED)) {
+                        if (e != null) manifest.segments.remove(e);
+                    } else if (e != null) {
+                        e.durationMs = r.durationMs;
+                        e.complete = true;
+                    } else {
+                        // Opened just before the crash, too late to be listed
+                        SessionManifest.Entry last = manifest.segments.isEmpty()
+                                ? null : manifest.segments.get(manifest.segments.size() - 1);
+                        long startMs = last != null ? last.startMs + last.durationMs : 0;
+                        manifest.segments.add(new SessionManifest.Entry(r.name, startMs, r.durationMs, true));
+                    }
+                }
+                manifest.write(manifestFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not update manifest " + manifestFile.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static byte[] readHead(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            byte[] head = new byte[(int) Math.min(12, raf.length())];
+            raf.readFully(head);
+            return head;
+        }
+    }
+
+    private static boolean isTag(byte[] b, int offset, String tag) {
+        if (b.length < offset + 4) return false;
+        byte[] t = tag.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < 4; i++) {
+            if (b[offset + i] != t[i]) return false;
+        }
+        return true;
+    }
+
+    private static long readUInt32(byte[] b, int offset) {
+        return ((b[offset] & 0xffL) << 24) | ((b[offset + 1] & 0xffL) << 16)
+                | ((b[offset + 2] & 0xffL) << 8) | (b[offset + 3] & 0xffL);
+    }
+}
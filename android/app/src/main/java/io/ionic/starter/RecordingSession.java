@@ -0,0 +1,394 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * One call's capture pipeline: output file, initialized AudioRecord, sink and engine.
+ *
+ * Everything expensive happens in {@link #prepare}, which can run at ring time. The
+ * answer event then only needs {@link #start()}; a rejected call is torn down with
+ * {@link #cancel()} without leaving a file behind. With pre-roll the recorder already
+ * captures into memory while prepared, and that audio opens the file on start.
+ *
+ * With playback capture granted ({@link PlaybackCapture}) the microphone and the call
+ * playback are recorded together by a {@link DualCaptureEngine}, one party per channel,
+ * and the profile becomes its stereo variant.
+ *
+ * Long calls are split into segment files by a {@link SegmentedSink}, described by a
+ * {@link SessionManifest}. Each segment is handed to the {@link SegmentListener} as soon
+ * as it is finalized, so a crash loses at most the segment being written.
+ */
+public final class RecordingSession {
+    private static final String TAG = "RecordingSession";
+    private static final int AUDIO_ENCODING = AudioFormat.ENCODING_PCM_16BIT;
+    // Seconds of audio the ring can absorb while storage is stalled
+    private static final int RING_SECONDS = 4;
+    private static final int WRITE_BATCH_BYTES = 64 * 1024;
+
+    // Audio sources to try in order of preference
+    private static final int[] AUDIO_SOURCES = {
+            MediaRecorder.AudioSource.VOICE_COMMUNICATION,
+            MediaRecorder.AudioSource.MIC,
+            MediaRecorder.AudioSource.VOICE_RECOGNITION,
+            MediaRecorder.AudioSource.CAMCORDER
+    };
+
+    private static final String[] SOURCE_NAMES = {
+            "VOICE_COMMUNICATION",
+            "MIC", "VOICE_RECOGNITION",
+            "CAMCORDER"
+    };
+
+    /** Receives each finalized segment, on a background thread. */
+    public interface SegmentListener {
+        /**
+         * @param createdAt wall-clock time the segment's audio starts
+         * @param durationMs captured call audio in the segment, skipped silence included
+         */
+        void onSegmentFinished(File file, String number, long createdAt, long durationMs);
+    }
+
+    private final RecordingProfile profile;
+    private final File file;
+    private final String number;
+    // Wall-clock time the file was named after
+    private final long createdAt;
+    private final SegmentedSink sink;
+    private final ManifestWriter manifest;
+    private final CaptureEngine engine;
+    private final boolean dualCapture;
+    private final StartLatencyTracker.Record latency = new StartLatencyTracker.Record();
+    private boolean started = false;
+    private boolean finished = false;
+
+    private RecordingSession(RecordingProfile profile, File file, String number, long createdAt,
+                             CaptureEngine engine, boolean dualCapture, SegmentedSink sink,
+                             ManifestWriter manifest, int preRollBytes) {
+        this.profile = profile;
+        this.file = file;
+        this.number = number;
+        this.createdAt = createdAt;
+        this.sink = sink;
+        this.manifest = manifest;
+        this.engine = engine;
+        this.dualCapture = dualCapture;
+        if (preRollBytes > 0) {
+            engine.startPreRoll(preRollBytes);
+        }
+        latency.preparedNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Creates the output file, picks a working audio source and opens the sink, leaving
+     * the session ready to {@link #start()}.
+     *
+     * @param preRollSeconds seconds of audio to keep in memory until start; 0 for none
+     * @param skipSilence    leave long silences out of the file, see {@link SilenceGate}
+     * @param segmentMs      length of each segment file; 0 records the call as one file
+     * @param dualCapture    also record the call playback, falling back to the microphone alone
+     *                       when it cannot be captured
+     * @param listener       told about each segment once it is finalized
+     */
+    public static RecordingSession prepare(Context context, RecordingProfile profile, String number,
+                                           int preRollSeconds, boolean skipSilence, long segmentMs,
+                                           boolean dualCapture, SegmentListener listener) throws IOException {
+        File dir = getRecordingsDir(context);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir.getAbsolutePath());
+        }
+
+        long createdAt = System.currentTimeMillis();
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date(createdAt));
+        File file = new File(dir, "call_" + timestamp + "." + profile.extension);
+
+        int channelMask = profile.getChannelMask();
+        int minBuffer = AudioRecord.getMinBufferSize(profile.sampleRate, channelMask, AUDIO_ENCODING);
+        if (minBuffer <= 0) {
+            throw new IOException("Unsupported capture format, getMinBufferSize returned " + minBuffer);
+        }
+        int bufferSize = Math.max(minBuffer * 4, profile.getPcmByteRate() / 2);
+        AudioRecord playback = null;
+        if (dualCapture && profile.channels == 1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            playback = PlaybackCapture.open(profile.sampleRate, bufferSize);
+            if (playback == null) {
+                Log.w(TAG, "Playback capture failed, recording the microphone only");
+            }
+        }
+        AudioRecord audioRecord = openAudioRecord(profile, channelMask, bufferSize);
+        if (audioRecord == null) {
+            if (playback != null) playback.release();
+            throw new IOException("All audio sources failed");
+        }
+        RecordingProfile output = playback != null ? profile.toStereo() : profile;
+
+        ManifestWriter manifest = new ManifestWriter(file, number, listener,
+                new SessionManifest(SegmentedSink.sessionStem(file.getName()), createdAt,
+                        output.sampleRate, output.channels, Math.max(0, segmentMs)));
+        SegmentedSink sink;
+        try {
+            sink = new SegmentedSink(file, segmentMs, output.getPcmByteRate(), output.channels * 2,
+                    segment -> openChain(segment, output, skipSilence), manifest);
+        } catch (IOException | RuntimeException e) {
+            audioRecord.release();
+            if (playback != null) playback.release();
+            manifest.delete();
+            throw e;
+        }
+        int preRollBytes = output.getPcmByteRate() * preRollSeconds;
+        int ringBytes = output.getPcmByteRate() * RING_SECONDS + preRollBytes;
+        try {
+            // The dual engine keeps a mono ring per input
+            CaptureEngine engine = playback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                    ? new DualCaptureEngine(audioRecord, playback, ringBytes / 2, minBuffer, WRITE_BATCH_BYTES)
+                    : new PcmCaptureEngine(audioRecord, ringBytes, minBuffer, WRITE_BATCH_BYTES);
+            return new RecordingSession(output, file, number, createdAt, engine, playback != null, sink, manifest,
+                    preRollBytes);
+        } catch (RuntimeException e) {
+            audioRecord.release();
+            if (playback != null) playback.release();
+            sink.discard();
+            try {
+                sink.close();
+            } catch (IOException closeError) {
+                Log.w(TAG, "Error closing sink after failed prepare: " + closeError.getMessage());
+            }
+            manifest.delete();
+            throw e;
+        }
+    }
+
+    // One segment's sinks: the file, then its peaks, then the silence gate in front
+    private static PcmSink openChain(File file, RecordingProfile profile, boolean skipSilence) throws IOException {
+        PcmSink sink = profile.isPcm()
+                ? new WavFileWriter(file, profile.sampleRate, profile.channels, 16,
+                        WavFileWriter.DEFAULT_CHECKPOINT_INTERVAL_MS)
+                : new VoiceEncoder(file, profile);
+        try {
+            sink = new WaveformPeaks.Writer(sink, WaveformPeaks.sidecarFor(file), profile.sampleRate,
+                    profile.channels);
+        } catch (IOException e) {
+            // The recording matters more than its waveform
+            Log.w(TAG, "Recording without peaks: " + e.getMessage());
+        }
+        if (skipSilence) {
+            try {
+                sink = new SilenceGate(sink, SilenceGate.indexFor(file), profile.sampleRate, profile.channels);
+            } catch (IOException e) {
+                Log.w(TAG, "Recording without silence skipping: " + e.getMessage());
+            }
+        }
+        return sink;
+    }
+
+    /** Deletes a segment file and its sidecars. */
+    static void deleteSegment(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file.getAbsolutePath());
+        }
+        WaveformPeaks.sidecarFor(file).delete();
+        SilenceGate.indexFor(file).delete();
+    }
+
+    public static File getRecordingsDir(Context context) {
+        return new File(context.getExternalFilesDir(Environment.DIRECTORY_MUSIC), "CallRecords");
+    }
+
+    private static AudioRecord openAudioRecord(RecordingProfile profile, int channelMask, int bufferSize) {
+        for (int i = 0; i < AUDIO_SOURCES.length; i++) {
+            try {
+                AudioRecord candidate = new AudioRecord(AUDIO_SOURCES[i], profile.sampleRate,
+                        channelMask, AUDIO_ENCODING, bufferSize);
+                if (candidate.getState() == AudioRecord.STATE_INITIALIZED) {
+                    Log.i(TAG, "Using audio source: " + SOURCE_NAMES[i]);
+                    return candidate;
+                }
+                candidate.release();
+                Log.w(TAG, "Audio source " + SOURCE_NAMES[i] + " failed to initialize");
+            } catch (Exception e) {
+                Log.w(TAG, "Audio source " + SOURCE_NAMES[i] + " failed: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    public synchronized void start() {
+        if (started || finished) return;
+        engine.start(sink);
+        latency.startedNanos = SystemClock.elapsedRealtimeNanos();
+        started = true;
+    }
+
+    /** Finalizes a started session; an unstarted one is cancelled instead. */
+    public synchronized void stop() throws IOException {
+        if (finished) return;
+        if (!started) {
+            cancel();
+            return;
+        }
+        finished = true;
+        boolean ok = false;
+        try {
+            engine.stop();
+            ok = true;
+        } finally {
+            latency.firstWriteNanos = engine.getFirstWriteNanos();
+            manifest.finish(ok);
+        }
+    }
+
+    /** Releases a prepared session and deletes its placeholder file. */
+    public synchronized void cancel() {
+        if (finished) return;
+        finished = true;
+        sink.discard();
+        if (started) {
+            try {
+                engine.stop();
+            } catch (IOException e) {
+                Log.w(TAG, "Error stopping cancelled session: " + e.getMessage());
+            }
+        } else {
+            engine.release();
+            try {
+                sink.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing cancelled sink: " + e.getMessage());
+            }
+        }
+        manifest.delete();
+        Log.i(TAG, "Prepared session cancelled: " + file.getName());
+    }
+
+    public synchronized boolean isStarted() {
+        return started && !finished;
+    }
+
+    /**
+     * Records which trigger asked for this session to start. Only the first request counts,
+     * so a later duplicate trigger does not hide the real start latency.
+     */
+    public synchronized void markStartRequested(String source, long triggerNanos, long commandNanos) {
+        if (latency.triggerNanos != 0) return;
+        latency.source = source != null ? source : "unknown";
+        latency.triggerNanos = triggerNanos;
+        latency.commandNanos = commandNanos;
+    }
+
+    public StartLatencyTracker.Record getLatency() {
+        return latency;
+    }
+
+    /** Whether the far end is recorded from playback on its own channel rather than through the mic. */
+    public boolean isDualCapture() {
+        return dualCapture;
+    }
+
+    public RecordingProfile getProfile() {
+        return profile;
+    }
+
+    /** The first segment, which carries the session's name. */
+    public File getFile() {
+        return file;
+    }
+
+    /** The segment being written now. */
+    public File getCurrentFile() {
+        return sink.getCurrentFile();
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /** Length of the captured call audio, from the PCM byte count; skipped silence included. */
+    public long getDurationMs() {
+        return engine.getBytesWritten() * 1000 / profile.getPcmByteRate();
+    }
+
+    /**
+     * Keeps the session manifest in step with the segments and forwards finished ones.
+     * Runs on the segment sink's background thread, then once more from {@link #stop}.
+     */
+    private static final class ManifestWriter implements SegmentedSink.Listener {
+        private final File manifestFile;
+        private final String number;
+        private final SegmentListener listener;
+        private final SessionManifest manifest;
+
+        ManifestWriter(File first, String number, SegmentListener listener, SessionManifest manifest) {
+            this.manifestFile = SessionManifest.manifestFor(first);
+            this.number = number;
+            this.listener = listener;
+            this.manifest = manifest;
+        }
+
+        @Override
+        public synchronized void onSegmentOpened(SegmentedSink.Segment segment) {
+            manifest.segments.add(new SessionManifest.Entry(segment.file.getName(), segment.startMs, 0, false));
+            save();
+        }
+
+        @Override
+        public void onSegmentClosed(SegmentedSink.Segment segment, boolean ok) {
+            synchronized (this) {
+                SessionManifest.Entry e = manifest.find(segment.file.getName());
+                if (e != null) {
+                    e.durationMs = segment.durationMs;
+                    e.complete = ok;
+                }
+                save();
+            }
+            if (ok && listener != null) {
+                listener.onSegmentFinished(segment.file, number, manifest.createdAt + segment.startMs,
+                        segment.durationMs);
+            }
+        }
+
+        @Override
+        public synchronized void onSegmentDiscarded(SegmentedSink.Segment segment) {
+            deleteSegment(segment.file);
+        }
+
+        @Override
+        public void onSegmentError(File file, Exception error) {
+            Log.w(TAG, "Segment " + file.getName() + ": " + error.getMessage());
+        }
+
+        synchronized void finish(boolean ok) {
+            manifest.complete = ok;
+            save();
+            Log.i(TAG, "Session " + manifest.session + " ended with " + manifest.segments.size() + " segment(s)");
+        }
+
+        synchronized void delete() {
+            manifestFile.delete();
+        }
+
+        private void save() {
+            try {
+                manifest.write(manifestFile);
+            } catch (IOException e) {
+                // The segments are complete recordings on their own
+                Log.w(TAG, "Failed to write session manifest: " + e.getMessage());
+            }
+        }
+    }
+}
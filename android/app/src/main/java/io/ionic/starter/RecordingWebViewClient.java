@@ -0,0 +1,202 @@
+package io.ionic.starter;
+
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves recordings to the WebView's audio element from the app's own origin.
+ *
+ * Requests under {@link #PATH_PREFIX} on the bridge's local URL are answered here, with
+ * {@code Range} support, before Capacitor's local server sees them; everything else goes
+ * to {@link BridgeWebViewClient}. Being same-origin, playback needs neither mixed content
+ * nor cleartext traffic, and no other app can reach the files. Seeking in an hour-long
+ * call reads only the bytes the player asks for.
+ */
+final class RecordingWebViewClient extends BridgeWebViewClient {
+    private static final String TAG = "RecordingWebViewClient";
+    static final String PATH_PREFIX = "/_recordings/";
+
+    private final File root;
+
+    RecordingWebViewClient(Bridge bridge, File root) {
+        super(bridge);
+        this.root = root;
+    }
+
+    /** Same-origin playback URL for the recording named {@code name}. */
+    static String urlFor(Bridge bridge, String name) throws UnsupportedEncodingException {
+        return bridge.getLocalUrl() + PATH_PREFIX + URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        Uri url = request.getUrl();
+        String path = url.getPath();
+        if (path == null || !path.startsWith(PATH_PREFIX)) {
+            return super.shouldInterceptRequest(view, request);
+        }
+        // Runs on a WebView I/O thread
+        File file = resolve(path.substring(PATH_PREFIX.length()));
+        if (file == null) return empty(404, "Not Found", null);
+        String method = request.getMethod();
+        boolean headOnly = "HEAD".equals(method);
+        if (!headOnly && !"GET".equals(method)) return empty(405, "Method Not Allowed", null);
+        try {
+            return serveFile(file, rangeHeader(request.getRequestHeaders()), headOnly);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to open " + file.getName() + ": " + e.getMessage());
+            return empty(404, "Not Found", null);
+        }
+    }
+
+    // The file for a decoded path segment, or null for anything outside the directory
+    private File resolve(String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) return null;
+        File file = new File(root, name);
+        return file.isFile() ? file : null;
+    }
+
+    private static WebResourceResponse serveFile(File file, String range, boolean headOnly) throws IOException {
+        long length = file.length();
+        long start = 0;
+        long end = length - 1;
+        boolean partial = false;
+        if (range != null) {
+            long[] span = parseRange(range, length);
+            if (span == null) {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Range", "bytes */" + length);
+                return empty(416, "Range Not Satisfiable", headers);
+            }
+            start = span[0];
+            end = span[1];
+            partial = true;
+        }
+        long count = Math.max(0, end - start + 1);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Length", Long.toString(count));
+        headers.put("Accept-Ranges", "bytes");
+        headers.put("Cache-Control", "no-store");
+        if (partial) headers.put("Content-Range", "bytes " + start + "-" + end + "/" + length);
+
+        InputStream body;
+        if (headOnly || count == 0) {
+            body = new ByteArrayInputStream(new byte[0]);
+        } else {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(start);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            body = new RangeInputStream(in, count);
+        }
+        return new WebResourceResponse(RecordingCatalog.mimeForName(file.getName()), null,
+                partial ? 206 : 200, partial ? "Partial Content" : "OK", headers, body);
+    }
+
+    /**
+     * First range of a {@code bytes=} header as inclusive {start, end}, clamped to the file;
+     * null when it cannot be satisfied. Further ranges are ignored, which HTTP allows.
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || length == 0) return null;
+        String spec = header.substring(6);
+        int comma = spec.indexOf(',');
+        if (comma >= 0) spec = spec.substring(0, comma);
+        spec = spec.trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long n = Long.parseLong(last);
+                if (n <= 0) return null;
+                return new long[]{Math.max(0, length - n), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start >= length || end < start) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String rangeHeader(Map<String, String> headers) {
+        if (headers == null) return null;
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            if ("Range".equalsIgnoreCase(h.getKey())) return h.getValue().trim();
+        }
+        return null;
+    }
+
+    private static WebResourceResponse empty(int code, String reason, Map<String, String> headers) {
+        return new WebResourceResponse("text/plain", null, code, reason,
+                headers != null ? headers : new HashMap<>(), new ByteArrayInputStream(new byte[0]));
+    }
+
+    /** Ends after {@code remaining} bytes, so a range response stops at its last byte. */
+    static final class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps CallRecords within a byte quota and a maximum age.
+ *
+ * Sizes come from an in-memory index of the catalog. It is loaded once and then kept up
+ * to date by the catalog as recordings are added, replaced, played and removed, so
+ * enforcing limits never walks the directory.
+ *
+ * Recordings past the age limit go oldest first, whenever they were last played; beyond
+ * that, recordings are evicted by last use, the later of when they were made and last
+ * played, until usage is under the quota. Every part of the call being recorded is kept.
+ * Eviction runs in the background in small batches, after each new recording and when
+ * the settings change. {@link #ensureHeadroomAsync} is the pre-flight check before a
+ * recording. It too runs in the background and never evicts beyond the configured limits;
+ * a volume short of space is only logged.
+ */
+final class RetentionManager {
+    private static final String TAG = "RetentionManager";
+    private static final int EVICT_BATCH = 16;
+    // Assumed call length when history has nothing longer
+    static final long DEFAULT_EXPECTED_CALL_MS = 30 * 60_000L;
+    // Free space kept back for the rest of the device
+    private static final long MIN_FREE_BYTES = 200L * 1024 * 1024;
+
+    private static RetentionManager instance;
+
+    private final Context context;
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "retention"));
+
+    // Guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean loaded = false;
+    private long totalBytes = 0;
+    private long longestCallMs = 0;
+    private boolean enforceQueued = false;
+
+    private static final class Entry {
+        long sizeBytes;
+        long createdAt;
+        long lastPlayedAt;
+
+        long lastUsed() {
+            return Math.max(createdAt, lastPlayedAt);
+        }
+    }
+
+    private RetentionManager(Context context) {
+        this.context = context;
+    }
+
+    static synchronized RetentionManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new RetentionManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /** Called by the catalog whenever a row is added or replaced. */
+    synchronized void onCataloged(String name, long sizeBytes, long durationMs, long createdAt) {
+        if (!loaded) return;
+        Entry e = entries.get(name);
+        if (e == null) {
+            e = new Entry();
+            entries.put(name, e);
+        } else {
+            totalBytes -= e.sizeBytes;
+        }
+        e.sizeBytes = sizeBytes;
+        e.createdAt = createdAt;
+        totalBytes += sizeBytes;
+        longestCallMs = Math.max(longestCallMs, durationMs);
+    }
+
+    synchronized void onRemoved(String name) {
+        if (!loaded) return;
+        Entry e = entries.remove(name);
+        if (e != null) totalBytes -= e.sizeBytes;
+    }
+
+    /** Carries a recording's history over to the file that replaced it. */
+    synchronized void onRenamed(String oldName, String newName, long sizeBytes) {
+        if (!loaded) return;
+        Entry e = entries.remove(oldName);
+        if (e == null) return;
+        totalBytes += sizeBytes - e.sizeBytes;
+        e.sizeBytes = sizeBytes;
+        entries.put(newName, e);
+    }
+
+    synchronized void onPlayed(String name, long at) {
+        if (!loaded) return;
+        Entry e = entries.get(name);
+        if (e != null) e.lastPlayedAt = at;
+    }
+
+    /** Bytes held by cataloged recordings plus the one being written. */
+    long usedBytes() {
+        ensureLoaded();
+        File active = CallRecorderService.getActiveRecording();
+        synchronized (this) {
+            return totalBytes + (active != null ? active.length() : 0);
+        }
+    }
+
+    int recordingCount() {
+        ensureLoaded();
+        synchronized (this) {
+            return entries.size();
+        }
+    }
+
+    /** Checks the limits in the background, evicting in batches until they hold. */
+    void enforceAsync() {
+        RecorderSettings settings = RecorderSettings.get(context);
+        if (settings.getRetentionQuotaBytes() <= 0 && settings.getRetentionMaxAgeMs() <= 0) return;
+        synchronized (this) {
+            if (enforceQueued) return;
+            enforceQueued = true;
+        }
+        executor.execute(() -> {
+            synchronized (this) {
+                enforceQueued = false;
+            }
+            int evicted = evict(settings.getRetentionQuotaBytes(), settings.getRetentionMaxAgeMs(), 0, EVICT_BATCH);
+            if (evicted == EVICT_BATCH) enforceAsync();
+        });
+    }
+
+    /**
+     * Pre-flight check before preparing a recording, run in the background so it never
+     * delays the capture: makes room under the quota for {@code bytesPerSecond} of audio
+     * over the longest expected call, and warns if the volume cannot hold it.
+     */
+    void ensureHeadroomAsync(int bytesPerSecond) {
+        executor.execute(() -> ensureHeadroom(bytesPerSecond));
+    }
+
+    /**
+     * Evicts only what the configured quota and age limit allow. A shortfall on the volume
+     * itself is logged, never fixed by deleting recordings the user chose to keep.
+     *
+     * @return false if the expected call will not fit
+     */
+    boolean ensureHeadroom(int bytesPerSecond) {
+        ensureLoaded();
+        long expectedMs;
+        synchronized (this) {
+            expectedMs = Math.max(DEFAULT_EXPECTED_CALL_MS, longestCallMs);
+        }
+        long needed = expectedMs / 1000 * bytesPerSecond;
+        RecorderSettings settings = RecorderSettings.get(context);
+        long quota = settings.getRetentionQuotaBytes();
+        long maxAgeMs = settings.getRetentionMaxAgeMs();
+        File dir = RecordingSession.getRecordingsDir(context);
+        File volume = dir.exists() ? dir : dir.getParentFile();
+
+        long quotaShortfall = quota > 0 ? usedBytes() + needed - quota : 0;
+        if (quotaShortfall > 0 || maxAgeMs > 0) {
+            evict(quota, maxAgeMs, Math.max(0, quotaShortfall), Integer.MAX_VALUE);
+            quotaShortfall = quota > 0 ? usedBytes() + needed - quota : 0;
+        }
+        long freeShortfall = volume != null ? needed + MIN_FREE_BYTES - volume.getUsableSpace() : 0;
+        if (quotaShortfall > 0 || freeShortfall > 0) {
+            Log.w(TAG, "Not enough headroom for a " + expectedMs / 60_000 + " min call: "
+                    + Math.max(quotaShortfall, freeShortfall) / 1024 + " KB short"
+                    + (quota <= 0 && maxAgeMs <= 0 ? ", retention is off" : ""));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes up to {@code maxFiles} recordings: first every one over the age limit, oldest
+     * first, then the least recently used while usage is over the quota or until
+     * {@code extraBytes} are freed, along with a session's manifest once its last part is
+     * gone. Parts of the session being recorded are never touched.
+     * Returns how many were deleted.
+     */
+    private int evict(long quotaBytes, long maxAgeMs, long extraBytes, int maxFiles) {
+        long now = System.currentTimeMillis();
+        File active = CallRecorderService.getActiveRecording();
+        String activeStem = active != null ? SegmentedSink.sessionStem(active.getName()) : null;
+        List<String> victims = new ArrayList<>();
+        long used = usedBytes();
+        synchronized (this) {
+            long over = Math.max(extraBytes, quotaBytes > 0 ? used - quotaBytes : 0);
+            long cutoff = maxAgeMs > 0 ? now - maxAgeMs : Long.MIN_VALUE;
+            List<Map.Entry<String, Entry>> expired = new ArrayList<>();
+            List<Map.Entry<String, Entry>> kept = new ArrayList<>();
+            for (Map.Entry<String, Entry> c : entries.entrySet()) {
+                if (activeStem != null && activeStem.equals(SegmentedSink.sessionStem(c.getKey()))) continue;
+                (c.getValue().createdAt < cutoff ? expired : kept).add(c);
+            }
+            Collections.sort(expired, (a, b) -> Long.compare(a.getValue().createdAt, b.getValue().createdAt));
+            for (Map.Entry<String, Entry> c : expired) {
+                if (victims.size() >= maxFiles) break;
+                victims.add(c.getKey());
+                over -= c.getValue().sizeBytes;
+            }
+            if (over > 0) {
+                Collections.sort(kept, (a, b) -> Long.compare(a.getValue().lastUsed(), b.getValue().lastUsed()));
+                for (Map.Entry<String, Entry> c : kept) {
+                    if (victims.size() >= maxFiles || over <= 0) break;
+                    victims.add(c.getKey());
+                    over -= c.getValue().sizeBytes;
+                }
+            }
+        }
+
+        RecordingCatalog catalog = RecordingCatalog.getInstance(context);
+        File dir = RecordingSession.getRecordingsDir(context);
+        long freed = 0;
+        Map<String, File> sessions = new HashMap<>();
+        for (String name : victims) {
+            File f = new File(dir, name);
+            long size = f.length();
+            if (f.exists() && !f.delete()) {
+                Log.w(TAG, "Failed to delete " + name);
+                continue;
+            }
+            WaveformPeaks.sidecarFor(f).delete();
+            SilenceGate.indexFor(f).delete();
+            catalog.remove(name);
+            sessions.put(SegmentedSink.sessionStem(name), f);
+            freed += size;
+        }
+        // A session's manifest goes with its last part
+        for (Map.Entry<String, File> s : sessions.entrySet()) {
+            if (!hasSessionPart(s.getKey())) SessionManifest.manifestFor(s.getValue()).delete();
+        }
+        if (!victims.isEmpty()) {
+            Log.i(TAG, "Evicted " + victims.size() + " recordings, " + freed / 1024 + " KB");
+        }
+        return victims.size();
+    }
+
+    private synchronized boolean hasSessionPart(String stem) {
+        for (String name : entries.keySet()) {
+            if (stem.equals(SegmentedSink.sessionStem(name))) return true;
+        }
+        return false;
+    }
+
+    // Takes the catalog outside our lock: creating it may call back into onCataloged
+    private void ensureLoaded() {
+        synchronized (this) {
+            if (loaded) return;
+        }
+        RecordingCatalog catalog = RecordingCatalog.getInstance(context);
+        synchronized (this) {
+            if (loaded) return;
+            catalog.forEachForRetention((name, sizeBytes, durationMs, createdAt, lastPlayedAt) -> {
+                Entry e = new Entry();
+                e.sizeBytes = sizeBytes;
+                e.createdAt = createdAt;
+                e.lastPlayedAt = lastPlayedAt;
+                entries.put(name, e);
+                totalBytes += sizeBytes;
+                longestCallMs = Math.max(longestCallMs, durationMs);
+            });
+            loaded = true;
+            Log.i(TAG, "Indexed " + entries.size() + " recordings, " + totalBytes / (1024 * 1024) + " MB");
+        }
+    }
+}
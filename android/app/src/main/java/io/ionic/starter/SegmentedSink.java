@@ -0,0 +1,282 @@
+package io.ionic.starter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits one call into fixed-length segment files without losing a frame.
+ *
+ * Each segment has its own sink chain from the {@link Opener}. A few seconds before a
+ * boundary the next chain is opened on a background thread. At the boundary the writer
+ * thread finishes the current chunk up to the exact frame, swaps sinks and goes on. The
+ * old chain is finalized on the background thread, so the capture path never waits for
+ * an encoder to drain. If the next segment cannot be opened, the current one simply
+ * runs on for another segment length.
+ *
+ * The first segment keeps the session's name; later ones get a {@code _pNNN} suffix,
+ * see {@link #segmentFile}. Listener callbacks all run on the background thread, in order.
+ * Failures go to the listener too; this class has no Android dependencies.
+ */
+final class SegmentedSink implements PcmSink {
+    // How far ahead of a boundary the next segment is opened
+    static final int PREOPEN_AHEAD_MS = 10_000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    /** Opens the sink chain that writes one segment file. */
+    interface Opener {
+        PcmSink open(File file) throws IOException;
+    }
+
+    interface Listener {
+        /** {@code segment} is now receiving audio. */
+        void onSegmentOpened(Segment segment);
+
+        /** {@code segment} was finalized; {@code ok} is false if closing it failed. */
+        void onSegmentClosed(Segment segment, boolean ok);
+
+        /** {@code segment} was closed by a discarded session and should be deleted. */
+        void onSegmentDiscarded(Segment segment);
+
+        /** Opening, finalizing or dropping {@code file} failed; the recording goes on. */
+        void onSegmentError(File file, Exception error);
+    }
+
+    /** One segment's place in the call, in milliseconds of captured audio. */
+    static final class Segment {
+        final int index;
+        final File file;
+        final long startMs;
+        // Set when the segment is closed
+        long durationMs;
+
+        Segment(int index, File file, long startMs) {
+            this.index = index;
+            this.file = file;
+            this.startMs = startMs;
+        }
+    }
+
+    private final File first;
+    private final long segmentBytes;
+    private final long preopenBytes;
+    private final int byteRate;
+    private final Opener opener;
+    private final Listener listener;
+    private final ExecutorService closer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "segment-closer");
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    // Writer thread only
+    private PcmSink current;
+    private Segment currentSegment;
+    private Future<PcmSink> pending;
+    private File pendingFile;
+    private int nextIndex = 1;
+    private long bytesIn = 0;
+    private long nextBoundary;
+
+    private volatile File currentFile;
+    private volatile boolean discard = false;
+    private volatile IOException lastCloseError;
+
+    /**
+     * Opens the first segment on the calling thread, so a session that cannot write fails
+     * while it is being prepared.
+     *
+     * @param segmentMs length of each segment; 0 or less records a single file
+     * @param byteRate  PCM bytes per second; segment lengths are whole frames of it
+     * @param frameBytes bytes per frame, so boundaries never split a sample
+     */
+    SegmentedSink(File first, long segmentMs, int byteRate, int frameBytes, Opener opener, Listener listener)
+            throws IOException {
+        this.first = first;
+        this.byteRate = byteRate;
+        this.opener = opener;
+        this.listener = listener;
+        if (segmentMs > 0) {
+            long bytes = segmentMs * byteRate / 1000;
+            this.segmentBytes = Math.max(frameBytes, bytes - bytes % frameBytes);
+        } else {
+            this.segmentBytes = Long.MAX_VALUE;
+        }
+        this.preopenBytes = Math.min(segmentBytes / 2, (long) PREOPEN_AHEAD_MS * byteRate / 1000);
+        this.nextBoundary = segmentBytes;
+        try {
+            current = opener.open(first);
+        } catch (IOException | RuntimeException e) {
+            closer.shutdown();
+            throw e;
+        }
+        currentSegment = new Segment(0, first, 0);
+        currentFile = first;
+        Segment opened = currentSegment;
+        closer.execute(() -> listener.onSegmentOpened(opened));
+    }
+
+    /** Name of segment {@code index} (0-based) of the session whose first file is {@code first}. */
+    static File segmentFile(File first, int index) {
+        if (index == 0) return first;
+        String name = first.getName();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        return new File(first.getParentFile(), String.format(Locale.ROOT, "%s_p%03d%s", stem, index + 1, ext));
+    }
+
+    /** The session stem of any segment name: {@code call_X_p002.wav} and {@code call_X.m4a} give {@code call_X}. */
+    static String sessionStem(String segmentName) {
+        int dot = segmentName.lastIndexOf('.');
+        String stem = dot > 0 ? segmentName.substring(0, dot) : segmentName;
+        int p = stem.length() - 5;
+        if (p > 0 && stem.charAt(p) == '_' && stem.charAt(p + 1) == 'p'
+                && isDigits(stem, p + 2, stem.length())) {
+            return stem.substring(0, p);
+        }
+        return stem;
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    /** The segment file being written now. */
+    File getCurrentFile() {
+        return currentFile;
+    }
+
+    /** Makes {@link #close} hand every segment to {@link Listener#onSegmentDiscarded} instead. */
+    void discard() {
+        discard = true;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (bytesIn >= nextBoundary) rotate();
+            int n = (int) Math.min(length, nextBoundary - bytesIn);
+            current.write(data, offset, n);
+            bytesIn += n;
+            offset += n;
+            length -= n;
+            if (pending == null && nextBoundary - bytesIn <= preopenBytes) preopen();
+        }
+    }
+
+    private void preopen() {
+        File file = segmentFile(first, nextIndex);
+        pendingFile = file;
+        pending = closer.submit(() -> opener.open(file));
+    }
+
+    private void rotate() {
+        if (pending == null) preopen();
+        PcmSink next;
+        try {
+            next = pending.get();
+        } catch (ExecutionException e) {
+            File failed = pendingFile;
+            Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            closer.execute(() -> listener.onSegmentError(failed, cause));
+            pendingFile.delete();
+            pending = null;
+            nextBoundary += segmentBytes;
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discardPending();
+            nextBoundary += segmentBytes;
+            return;
+        }
+        PcmSink old = current;
+        Segment oldSegment = currentSegment;
+        oldSegment.durationMs = toMs(bytesIn) - oldSegment.startMs;
+        current = next;
+        currentSegment = new Segment(nextIndex++, pendingFile, toMs(bytesIn));
+        currentFile = pendingFile;
+        pending = null;
+        pendingFile = null;
+        nextBoundary = bytesIn + segmentBytes;
+
+        Segment opened = currentSegment;
+        closer.execute(() -> closeSegment(old, oldSegment));
+        closer.execute(() -> listener.onSegmentOpened(opened));
+    }
+
+    /**
+     * Finalizes the current segment and waits for every earlier one, so all files are
+     * complete when this returns. Rethrows the last segment's close error, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        PcmSink last = current;
+        Segment lastSegment = currentSegment;
+        lastSegment.durationMs = toMs(bytesIn) - lastSegment.startMs;
+        closer.execute(() -> {
+            lastCloseError = null;
+            closeSegment(last, lastSegment);
+        });
+        // Opened ahead of a boundary the call never reached
+        discardPending();
+        closer.shutdown();
+        try {
+            if (!closer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException("Timed out finalizing segments of " + first.getName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted finalizing segments of " + first.getName());
+        }
+        if (lastCloseError != null) throw lastCloseError;
+    }
+
+    private void discardPending() {
+        if (pending == null) return;
+        Future<PcmSink> unused = pending;
+        File unusedFile = pendingFile;
+        pending = null;
+        pendingFile = null;
+        closer.execute(() -> {
+            try {
+                unused.get().close();
+            } catch (Exception e) {
+                listener.onSegmentError(unusedFile, e);
+            }
+            unusedFile.delete();
+        });
+    }
+
+    // Background thread
+    private void closeSegment(PcmSink sink, Segment segment) {
+        boolean ok = true;
+        try {
+            sink.close();
+        } catch (IOException e) {
+            lastCloseError = e;
+            ok = false;
+        } catch (RuntimeException e) {
+            lastCloseError = new IOException(e);
+            ok = false;
+        }
+        if (!ok) listener.onSegmentError(segment.file, lastCloseError);
+        if (discard) {
+            listener.onSegmentDiscarded(segment);
+        } else {
+            listener.onSegmentClosed(segment, ok);
+        }
+    }
+
+    private long toMs(long bytes) {
+        return bytes * 1000 / byteRate;
+    }
+}
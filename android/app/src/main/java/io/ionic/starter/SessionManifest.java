@@ -0,0 +1,153 @@
+package io.ionic.starter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The small JSON file that ties a segmented recording together: which files make up the
+ * call, in what order, and where each starts in call time.
+ *
+ * It lives in a hidden directory next to the recordings ({@link #manifestFor}) and is
+ * rewritten atomically whenever a segment opens or closes, so after a crash it still
+ * lists every segment written so far, with the interrupted one marked incomplete.
+ * Segment names are as captured; a segment replaced by its AAC transcode is found
+ * through {@link #resolveSegment}.
+ */
+final class SessionManifest {
+    static final int VERSION = 1;
+
+    final String session;
+    final long createdAt;
+    final int sampleRate;
+    final int channels;
+    final long segmentMs;
+    boolean complete = false;
+    final List<Entry> segments = new ArrayList<>();
+
+    static final class Entry {
+        final String name;
+        final long startMs;
+        long durationMs;
+        boolean complete;
+
+        Entry(String name, long startMs, long durationMs, boolean complete) {
+            this.name = name;
+            this.startMs = startMs;
+            this.durationMs = durationMs;
+            this.complete = complete;
+        }
+    }
+
+    SessionManifest(String session, long createdAt, int sampleRate, int channels, long segmentMs) {
+        this.session = session;
+        this.createdAt = createdAt;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.segmentMs = segmentMs;
+    }
+
+    /** The manifest of the session any segment file belongs to. */
+    static File manifestFor(File segment) {
+        return new File(new File(segment.getParentFile(), ".sessions"),
+                SegmentedSink.sessionStem(segment.getName()) + ".json");
+    }
+
+    /** The current file for segment {@code name}, following a WAV segment to its transcode. */
+    static File resolveSegment(File dir, String name) {
+        File file = new File(dir, name);
+        if (file.exists()) return file;
+        int dot = name.lastIndexOf('.');
+        File transcoded = new File(dir, (dot > 0 ? name.substring(0, dot) : name) + ".m4a");
+        return transcoded.exists() ? transcoded : file;
+    }
+
+    Entry find(String name) {
+        for (Entry e : segments) {
+            if (e.name.equals(name)) return e;
+        }
+        return null;
+    }
+
+    /** Replaces {@code file} via a temporary so readers never see a torn manifest. */
+    void write(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir.getAbsolutePath());
+        }
+        byte[] json;
+        try {
+            json = toJson().toString().getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            throw new IOException("Failed to encode manifest", e);
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(json);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file.getAbsolutePath());
+        }
+    }
+
+    static SessionManifest read(File file) throws IOException {
+        byte[] data = new byte[(int) Math.min(file.length(), Integer.MAX_VALUE)];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+        }
+        try {
+            JSONObject o = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            if (o.getInt("version") > VERSION) throw new IOException("Unsupported manifest: " + file);
+            SessionManifest m = new SessionManifest(o.getString("session"), o.getLong("createdAt"),
+                    o.getInt("sampleRate"), o.getInt("channels"), o.getLong("segmentMs"));
+            m.complete = o.getBoolean("complete");
+            JSONArray list = o.getJSONArray("segments");
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject s = list.getJSONObject(i);
+                m.segments.add(new Entry(s.getString("name"), s.getLong("startMs"),
+                        s.getLong("durationMs"), s.getBoolean("complete")));
+            }
+            return m;
+        } catch (JSONException e) {
+            throw new IOException("Malformed manifest " + file + ": " + e.getMessage());
+        }
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject o = new JSONObject();
+        o.put("version", VERSION);
+        o.put("session", session);
+        o.put("createdAt", createdAt);
+        o.put("sampleRate", sampleRate);
+        o.put("channels", channels);
+        o.put("segmentMs", segmentMs);
+        o.put("complete", complete);
+        JSONArray list = new JSONArray();
+        for (Entry e : segments) {
+            JSONObject s = new JSONObject();
+            s.put("name", e.name);
+            s.put("startMs", e.startMs);
+            s.put("durationMs", e.durationMs);
+            s.put("complete", e.complete);
+            list.put(s);
+        }
+        o.put("segments", list);
+        return o;
+    }
+}
@@ -0,0 +1,250 @@
+package io.ionic.starter;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming voice activity gate that leaves long silences out of the recording.
+ *
+ * PCM is classified in {@link #ANALYSIS_MS} windows by energy against an adaptive noise
+ * floor, with the zero-crossing rate rescuing quiet unvoiced consonants. The first
+ * {@link #KEEP_SILENCE_MS} of every pause is kept so speech does not sound clipped; the
+ * rest is dropped, except for the last {@link #LOOKBACK_MS}, which is replayed when voice
+ * returns so onsets survive. All buffers are allocated up front.
+ *
+ * Each time audio resumes after a dropped stretch, a (call frame, file frame) pair is
+ * appended to a segment index next to the recording ({@link #indexFor}). Together with the
+ * implicit (0, 0) start the pairs map any file position back to call time.
+ */
+final class SilenceGate implements PcmSink {
+    private static final String TAG = "SilenceGate";
+    static final int ANALYSIS_MS = 20;
+    static final int KEEP_SILENCE_MS = 1000;
+    static final int LOOKBACK_MS = 300;
+    private static final int INDEX_MAGIC = 0x53474553; // "SEGS" little-endian
+    static final int INDEX_HEADER_SIZE = 8;
+    private static final int OUT_BATCH_BYTES = 64 * 1024;
+    // Mean square of a -50 dBFS signal; nothing quieter counts as voice
+    private static final long MIN_VOICE_ENERGY = 10_000;
+    private static final int FLOOR_RATIO = 4;
+
+    private final PcmSink inner;
+    private final File index;
+    private final int sampleRate;
+    private final int frameBytes;
+    private final int windowBytes;
+    private final int keepSilenceWindows;
+
+    private final byte[] window;
+    private int windowFill = 0;
+    private final byte[] lookback;
+    private int lookbackStart = 0;
+    private int lookbackLength = 0;
+    private final byte[] out = new byte[OUT_BATCH_BYTES];
+    private int outLength = 0;
+    private final ByteBuffer entry;
+    private RandomAccessFile indexOut;
+
+    private long noiseFloor = MIN_VOICE_ENERGY;
+    private int silentWindows = 0;
+    private boolean dropping = false;
+    private long callFrames = 0;
+    private long fileFrames = 0;
+
+    SilenceGate(PcmSink inner, File index, int sampleRate, int channels) throws IOException {
+        this.inner = inner;
+        this.index = index;
+        this.sampleRate = sampleRate;
+        this.frameBytes = Math.max(1, channels) * 2;
+        this.windowBytes = Math.max(1, sampleRate * ANALYSIS_MS / 1000) * frameBytes;
+        this.keepSilenceWindows = KEEP_SILENCE_MS / ANALYSIS_MS;
+        this.window = new byte[windowBytes];
+        this.lookback = new byte[Math.max(1, LOOKBACK_MS / ANALYSIS_MS) * windowBytes];
+        this.entry = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+        File dir = index.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir.getAbsolutePath());
+        }
+        indexOut = new RandomAccessFile(index, "rw");
+        indexOut.setLength(0);
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(INDEX_MAGIC).putInt(sampleRate);
+        indexOut.write(header.array());
+    }
+
+    /** The segment index of {@code recording}, in a hidden directory so listings skip it. */
+    static File indexFor(File recording) {
+        return new File(new File(recording.getParentFile(), ".segments"), recording.getName() + ".seg");
+    }
+
+    /**
+     * Reads a segment index as {@code [callFrame0, fileFrame0, callFrame1, ...]}, starting
+     * with the implicit (0, 0) pair, plus the sample rate in a one-element array.
+     */
+    static long[] readIndex(File index, int[] sampleRateOut) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+            long length = raf.length();
+            if (length < INDEX_HEADER_SIZE) throw new IOException("Truncated segment index: " + index);
+            byte[] data = new byte[(int) Math.min(length, Integer.MAX_VALUE)];
+            raf.readFully(data);
+            ByteBuffer b = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            if (b.getInt() != INDEX_MAGIC) throw new IOException("Not a segment index: " + index);
+            sampleRateOut[0] = b.getInt();
+            // A torn trailing entry from a killed process is ignored
+            int entries = (data.length - INDEX_HEADER_SIZE) / 16;
+            long[] pairs = new long[2 + entries * 2];
+            for (int i = 2; i < pairs.length; i++) pairs[i] = b.getLong();
+            return pairs;
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(end - offset, windowBytes - windowFill);
+            System.arraycopy(data, offset, window, windowFill, n);
+            windowFill += n;
+            offset += n;
+            if (windowFill == windowBytes) {
+                processWindow(windowBytes);
+                windowFill = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // A trailing partial window is kept whatever it holds
+            int tail = windowFill - windowFill % frameBytes;
+            if (tail > 0) {
+                if (dropping) resume();
+                emit(window, 0, tail);
+            }
+            flushOut();
+        } finally {
+            try {
+                inner.close();
+            } finally {
+                closeIndex();
+            }
+        }
+    }
+
+    private void processWindow(int length) throws IOException {
+        if (isVoice(window, length)) {
+            silentWindows = 0;
+            if (dropping) resume();
+            emit(window, 0, length);
+        } else if (++silentWindows <= keepSilenceWindows) {
+            emit(window, 0, length);
+        } else {
+            if (!dropping) {
+                dropping = true;
+                lookbackStart = 0;
+                lookbackLength = 0;
+            }
+            keepInLookback(length);
+            callFrames += length / frameBytes;
+        }
+    }
+
+    // Energy against the noise floor, or a high zero-crossing rate for fricatives
+    private boolean isVoice(byte[] pcm, int length) {
+        long energy = 0;
+        int crossings = 0;
+        int previous = 0;
+        int samples = length / 2;
+        for (int i = 0; i < length; i += 2) {
+            int s = (short) ((pcm[i + 1] << 8) | (pcm[i] & 0xff));
+            energy += (long) s * s;
+            if ((s ^ previous) < 0) crossings++;
+            previous = s;
+        }
+        energy /= samples;
+        boolean voice = energy > Math.max(MIN_VOICE_ENERGY, noiseFloor * FLOOR_RATIO)
+                || (energy > MIN_VOICE_ENERGY / 4 && energy > noiseFloor * 2 && crossings > samples / 4);
+        if (energy < noiseFloor) {
+            noiseFloor = Math.max(1, energy);
+        } else if (!voice) {
+            // Creep up slowly so steady background noise becomes the new floor
+            noiseFloor += (energy - noiseFloor) / 16;
+        }
+        return voice;
+    }
+
+    private void keepInLookback(int length) {
+        // Whole windows only; the oldest is overwritten once the lookback is full
+        int slot = (lookbackStart + lookbackLength) % lookback.length;
+        System.arraycopy(window, 0, lookback, slot, length);
+        if (lookbackLength + length <= lookback.length) {
+            lookbackLength += length;
+        } else {
+            lookbackStart = (lookbackStart + length) % lookback.length;
+        }
+    }
+
+    // Replays the lookback and records where the file picks up the call again
+    private void resume() throws IOException {
+        dropping = false;
+        long replayFrames = lookbackLength / frameBytes;
+        writeIndexEntry(callFrames - replayFrames, fileFrames);
+        int first = Math.min(lookbackLength, lookback.length - lookbackStart);
+        emit(lookback, lookbackStart, first);
+        emit(lookback, 0, lookbackLength - first);
+        lookbackLength = 0;
+        // emit() counted the replayed frames as new call time too
+        callFrames -= replayFrames;
+    }
+
+    private void emit(byte[] pcm, int offset, int length) throws IOException {
+        if (length <= 0) return;
+        int frames = length / frameBytes;
+        callFrames += frames;
+        fileFrames += frames;
+        while (length > 0) {
+            int n = Math.min(length, out.length - outLength);
+            System.arraycopy(pcm, offset, out, outLength, n);
+            outLength += n;
+            offset += n;
+            length -= n;
+            if (outLength == out.length) flushOut();
+        }
+    }
+
+    private void flushOut() throws IOException {
+        if (outLength == 0) return;
+        inner.write(out, 0, outLength);
+        outLength = 0;
+    }
+
+    private void writeIndexEntry(long callFrame, long fileFrame) {
+        if (indexOut == null) return;
+        entry.clear();
+        entry.putLong(callFrame).putLong(fileFrame);
+        try {
+            indexOut.write(entry.array());
+        } catch (IOException e) {
+            // Without the index the file still plays, only with call time compressed
+            Log.w(TAG, "Segment index disabled for " + index.getName() + ": " + e.getMessage());
+            closeIndex();
+        }
+    }
+
+    private void closeIndex() {
+        if (indexOut == null) return;
+        try {
+            indexOut.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing segment index: " + e.getMessage());
+        }
+        indexOut = null;
+    }
+}
@@ -0,0 +1,183 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Keeps start-latency records of recent recording sessions and summarizes them.
+ *
+ * Every hop is an {@code SystemClock.elapsedRealtimeNanos()} stamp, so a trigger taken in
+ * a receiver and the stamps taken in the service share one monotonic clock. Records live
+ * in fixed parallel arrays and are mirrored to a small file so stats survive process death.
+ */
+public final class StartLatencyTracker {
+    private static final String TAG = "StartLatencyTracker";
+    private static final String FILE_NAME = "start_latency.bin";
+    private static final int FILE_VERSION = 1;
+    static final int CAPACITY = 200;
+
+    // Hop indices, in pipeline order
+    public static final int HOP_COMMAND = 0;
+    public static final int HOP_PREPARED = 1;
+    public static final int HOP_STARTED = 2;
+    public static final int HOP_FIRST_WRITE = 3;
+    public static final String[] HOP_NAMES = {"command", "prepared", "started", "firstWrite"};
+    private static final int HOPS = HOP_NAMES.length;
+
+    private static StartLatencyTracker instance;
+
+    private final File file;
+    // Per record: delay of each hop after the trigger, in microseconds; -1 when missing
+    private final long[][] hopMicros = new long[HOPS][CAPACITY];
+    private final boolean[] prewarmed = new boolean[CAPACITY];
+    private final String[] sources = new String[CAPACITY];
+    private final long[] recordedAt = new long[CAPACITY];
+    private int next = 0;
+    private int size = 0;
+
+    private StartLatencyTracker(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized StartLatencyTracker getInstance(Context context) {
+        if (instance == null) {
+            instance = new StartLatencyTracker(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    /** Monotonic stamps for one session, filled in as the session progresses. */
+    public static final class Record {
+        public String source = "unknown";
+        public long triggerNanos;
+        public long commandNanos;
+        public long preparedNanos;
+        public long startedNanos;
+        public long firstWriteNanos;
+    }
+
+    public synchronized void add(Record r) {
+        if (r.triggerNanos == 0 || r.startedNanos == 0) return;
+        int i = next;
+        hopMicros[HOP_COMMAND][i] = delayMicros(r.triggerNanos, r.commandNanos);
+        // A pre-warmed session was prepared before the trigger; its prepare cost is zero
+        hopMicros[HOP_PREPARED][i] = delayMicros(r.triggerNanos, Math.max(r.preparedNanos, r.triggerNanos));
+        hopMicros[HOP_STARTED][i] = delayMicros(r.triggerNanos, r.startedNanos);
+        hopMicros[HOP_FIRST_WRITE][i] = delayMicros(r.triggerNanos, r.firstWriteNanos);
+        prewarmed[i] = r.preparedNanos != 0 && r.preparedNanos < r.triggerNanos;
+        sources[i] = r.source;
+        recordedAt[i] = System.currentTimeMillis();
+        next = (next + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+        save();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Percentiles of one hop's delay after the trigger, in microseconds, over the most
+     * recent records; returns {@code [p50, p95, p99]} or null when there is no data.
+     */
+    public synchronized long[] percentiles(int hop) {
+        long[] values = new long[size];
+        int n = 0;
+        for (int k = 0; k < size; k++) {
+            long v = hopMicros[hop][k];
+            if (v >= 0) values[n++] = v;
+        }
+        if (n == 0) return null;
+        Arrays.sort(values, 0, n);
+        return new long[]{rank(values, n, 50), rank(values, n, 95), rank(values, n, 99)};
+    }
+
+    public synchronized int prewarmedCount() {
+        int c = 0;
+        for (int k = 0; k < size; k++) if (prewarmed[k]) c++;
+        return c;
+    }
+
+    /** Visits up to {@code limit} records, newest first. */
+    public synchronized void forEachRecent(int limit, RecordVisitor visitor) {
+        for (int k = 0; k < Math.min(limit, size); k++) {
+            int i = (next - 1 - k + CAPACITY) % CAPACITY;
+            long[] hops = new long[HOPS];
+            for (int h = 0; h < HOPS; h++) hops[h] = hopMicros[h][i];
+            visitor.visit(sources[i], recordedAt[i], prewarmed[i], hops);
+        }
+    }
+
+    public interface RecordVisitor {
+        void visit(String source, long recordedAtMillis, boolean prewarmed, long[] hopMicros);
+    }
+
+    private static long rank(long[] sorted, int n, int percentile) {
+        int idx = (int) Math.ceil(percentile / 100.0 * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, idx))];
+    }
+
+    private static long delayMicros(long from, long to) {
+        if (to == 0) return -1;
+        return Math.max(0, (to - from) / 1000);
+    }
+
+    // Written to a temp file and renamed over the old one, so a crash mid-write keeps the last records
+    private void save() {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(size);
+            out.writeInt(next);
+            for (int i = 0; i < CAPACITY; i++) {
+                for (int h = 0; h < HOPS; h++) out.writeLong(hopMicros[h][i]);
+                out.writeBoolean(prewarmed[i]);
+                out.writeUTF(sources[i] != null ? sources[i] : "");
+                out.writeLong(recordedAt[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist latency records: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Failed to replace " + file.getName());
+            tmp.delete();
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) return;
+            int storedSize = in.readInt();
+            int storedNext = in.readInt();
+            for (int i = 0; i < CAPACITY; i++) {
+                for (int h = 0; h < HOPS; h++) hopMicros[h][i] = in.readLong();
+                prewarmed[i] = in.readBoolean();
+                sources[i] = in.readUTF();
+                recordedAt[i] = in.readLong();
+            }
+            size = storedSize;
+            next = storedNext;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable latency records: " + e.getMessage());
+            size = 0;
+            next = 0;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.ionic.starter;
+
+/**
+ * Interleaves two mono 16-bit PCM streams into one stereo stream, {@link #LEFT} first.
+ *
+ * The two inputs start at slightly different instants and their clocks drift apart, so
+ * each channel carries a count of held frames: while a channel has frames held it
+ * repeats its last sample instead of consuming input, which moves its audio later by
+ * exactly that many frames. {@link #delay} adds to the count; a channel that has not
+ * produced a sample yet holds silence. Nothing is allocated after construction.
+ */
+final class StereoMixer {
+    static final int LEFT = 0;
+    static final int RIGHT = 1;
+
+    private final byte[] out;
+    private final long[] held = new long[2];
+    private final int[] consumed = new int[2];
+    private byte lastLeftLo, lastLeftHi, lastRightLo, lastRightHi;
+
+    /** @param maxFrames stereo frames a single {@link #mix} call may produce */
+    StereoMixer(int maxFrames) {
+        out = new byte[Math.max(1, maxFrames) * 4];
+    }
+
+    /** Moves {@code channel} later by {@code frames} relative to the other one. */
+    void delay(int channel, long frames) {
+        if (frames <= 0) return;
+        held[channel] += frames;
+        // Holding both channels would only add silence
+        long common = Math.min(held[LEFT], held[RIGHT]);
+        held[LEFT] -= common;
+        held[RIGHT] -= common;
+    }
+
+    /**
+     * Lines the channels up from the capture time of each one's next input frame: the
+     * channel whose audio would come out newer is held back by the difference. Skews
+     * within {@code toleranceFrames} are left alone so timestamp jitter does not keep
+     * repeating samples.
+     *
+     * @return frames the right channel moved later by; negative when the left one did
+     */
+    long align(long leftNextNanos, long rightNextNanos, int sampleRate, int toleranceFrames) {
+        long skew = Math.round((rightNextNanos - leftNextNanos) * (double) sampleRate / 1_000_000_000L)
+                - held[RIGHT] + held[LEFT];
+        if (Math.abs(skew) <= toleranceFrames) return 0;
+        if (skew > 0) {
+            delay(RIGHT, skew);
+        } else {
+            delay(LEFT, -skew);
+        }
+        return skew;
+    }
+
+    /** Makes the frames {@code channel} holds from now on silent, for an input that has ended. */
+    void silence(int channel) {
+        if (channel == LEFT) {
+            lastLeftLo = lastLeftHi = 0;
+        } else {
+            lastRightLo = lastRightHi = 0;
+        }
+    }
+
+    /** Frames {@code channel} still repeats before consuming input again. */
+    long held(int channel) {
+        return held[channel];
+    }
+
+    /**
+     * Mixes as many frames as both inputs and the held frames allow, up to the output
+     * capacity. Input counts are in mono frames; {@link #consumed} reports how many of
+     * each the call used.
+     *
+     * @return stereo frames now at the start of {@link #output()}
+     */
+    int mix(byte[] left, int leftOffset, int leftFrames, byte[] right, int rightOffset, int rightFrames) {
+        int capacity = out.length / 4;
+        int l = leftOffset;
+        int r = rightOffset;
+        int leftEnd = leftOffset + leftFrames * 2;
+        int rightEnd = rightOffset + rightFrames * 2;
+        int frames = 0;
+        while (frames < capacity) {
+            boolean holdLeft = held[LEFT] > 0;
+            boolean holdRight = held[RIGHT] > 0;
+            if ((!holdLeft && l == leftEnd) || (!holdRight && r == rightEnd)) break;
+            if (holdLeft) {
+                held[LEFT]--;
+            } else {
+                lastLeftLo = left[l];
+                lastLeftHi = left[l + 1];
+                l += 2;
+            }
+            if (holdRight) {
+                held[RIGHT]--;
+            } else {
+                lastRightLo = right[r];
+                lastRightHi = right[r + 1];
+                r += 2;
+            }
+            int o = frames * 4;
+            out[o] = lastLeftLo;
+            out[o + 1] = lastLeftHi;
+            out[o + 2] = lastRightLo;
+            out[o + 3] = lastRightHi;
+            frames++;
+        }
+        consumed[LEFT] = (l - leftOffset) / 2;
+        consumed[RIGHT] = (r - rightOffset) / 2;
+        return frames;
+    }
+
+    /** Mono frames of {@code channel} used by the last {@link #mix}. */
+    int consumed(int channel) {
+        return consumed[channel];
+    }
+
+    byte[] output() {
+        return out;
+    }
+}
@@ -0,0 +1,370 @@
+package io.ionic.starter;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background queue that re-encodes finished WAV recordings as AAC voice files.
+ *
+ * Jobs live in the recording catalog, so they survive process death. Several encodes
+ * run at once on a pool sized to the core count. Before each job, and between chunks of
+ * a running one, the queue checks the battery, power saver and thermal status and lowers
+ * its parallelism, down to pausing with exponential backoff when the device is
+ * constrained.
+ *
+ * Each job first writes its output to a hidden part file and checks that output's
+ * duration against the source. Only then does it record the job as encoded and swap the
+ * files: rename the part file into place, repoint the catalog row and sidecars, delete
+ * the WAV. The swap is idempotent, so a job interrupted after encoding resumes at the
+ * swap. An interrupted encode restarts, because an MP4 cannot be appended to after a crash.
+ */
+final class TranscodeQueue {
+    private static final String TAG = "TranscodeQueue";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final long MIN_BACKOFF_MS = 60_000;
+    private static final long MAX_BACKOFF_MS = 15 * 60_000;
+    // Encoded duration may differ from the source by encoder priming and padding
+    private static final long DURATION_TOLERANCE_US = 500_000;
+    private static final int LOW_BATTERY_PERCENT = 15;
+    private static final int REDUCED_BATTERY_PERCENT = 30;
+    private static final long CONSTRAINT_CHECK_MS = 5_000;
+
+    private static TranscodeQueue instance;
+
+    private final Context context;
+    private final File dir;
+    private final File workDir;
+    private final int poolSize;
+    private final ExecutorService workers;
+    // Single thread that decides what runs
+    private final ScheduledExecutorService dispatcher;
+    // Names of jobs on a worker; guarded by itself
+    private final Set<String> running = new HashSet<>();
+    // Backoff state, dispatcher thread only
+    private long backoffMs = MIN_BACKOFF_MS;
+    private boolean retryScheduled = false;
+    // Refreshed by the dispatcher and, while encoding, by workers between chunks
+    private volatile int allowed;
+    private volatile long allowedCheckedAt;
+
+    /** Thrown inside a job when the device asks the queue to back off. */
+    private static final class YieldException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        YieldException() {
+            super("Yielded to device constraints");
+        }
+    }
+
+    private TranscodeQueue(Context context) {
+        this.context = context;
+        this.dir = RecordingSession.getRecordingsDir(context);
+        this.workDir = new File(dir, ".transcode");
+        this.poolSize = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.allowed = poolSize;
+        this.workers = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "transcode-worker"));
+        ((ThreadPoolExecutor) workers).allowCoreThreadTimeOut(true);
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "transcode-dispatch"));
+    }
+
+    static synchronized TranscodeQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new TranscodeQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /** Queues a finished recording; anything but PCM WAV is already compact and ignored. */
+    void enqueue(File recording) {
+        if (!recording.getName().endsWith(".wav")) return;
+        dispatcher.execute(() -> {
+            catalog().addTranscodeJob(recording.getName());
+            dispatch();
+        });
+    }
+
+    /** Picks up jobs left over from an earlier process. */
+    void resume() {
+        dispatcher.execute(this::dispatch);
+    }
+
+    /** Job counts by state: {pending, running, failed}. */
+    int[] counts() {
+        int pending = catalog().countTranscodeJobs(RecordingCatalog.JOB_PENDING)
+                + catalog().countTranscodeJobs(RecordingCatalog.JOB_ENCODED);
+        int active;
+        synchronized (running) {
+            active = running.size();
+        }
+        return new int[]{Math.max(0, pending - active), active,
+                catalog().countTranscodeJobs(RecordingCatalog.JOB_FAILED)};
+    }
+
+    // Dispatcher thread
+    private void dispatch() {
+        refreshAllowed();
+        // Swaps are cheap and finish work already paid for, so they never wait
+        List<String> encoded = new ArrayList<>();
+        catalog().forEachTranscodeJob(RecordingCatalog.JOB_ENCODED, (name, attempts) -> encoded.add(name));
+        for (String name : encoded) {
+            if (!isRunning(name)) swapQuietly(name);
+        }
+
+        List<String> pending = new ArrayList<>();
+        List<Integer> attemptsByJob = new ArrayList<>();
+        catalog().forEachTranscodeJob(RecordingCatalog.JOB_PENDING, (name, attempts) -> {
+            pending.add(name);
+            attemptsByJob.add(attempts);
+        });
+        for (int i = 0; i < pending.size(); i++) {
+            String name = pending.get(i);
+            if (isRunning(name)) continue;
+            if (runningCount() >= allowed) break;
+            int attempts = attemptsByJob.get(i);
+            synchronized (running) {
+                running.add(name);
+            }
+            workers.execute(() -> runJob(name, attempts));
+        }
+
+        boolean waiting = runningCount() < pending.size();
+        if (allowed == 0 && waiting) {
+            scheduleRetry();
+        } else if (allowed > 0) {
+            backoffMs = MIN_BACKOFF_MS;
+        }
+    }
+
+    private void scheduleRetry() {
+        if (retryScheduled) return;
+        retryScheduled = true;
+        Log.i(TAG, "Device constrained, retrying in " + backoffMs / 1000 + " s");
+        dispatcher.schedule(() -> {
+            retryScheduled = false;
+            dispatch();
+        }, backoffMs, TimeUnit.MILLISECONDS);
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    private void refreshAllowed() {
+        allowed = allowedParallelism();
+        allowedCheckedAt = System.currentTimeMillis();
+    }
+
+    /** Jobs the device can take right now: 0 when constrained, 1 when strained, else all cores. */
+    private int allowedParallelism() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = false;
+        int percent = 100;
+        if (battery != null) {
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) percent = level * 100 / scale;
+        }
+        PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        int thermal = power != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                ? power.getCurrentThermalStatus() : PowerManager.THERMAL_STATUS_NONE;
+        boolean saver = power != null && power.isPowerSaveMode();
+
+        if (thermal >= PowerManager.THERMAL_STATUS_SEVERE) return 0;
+        if (!charging && percent <= LOW_BATTERY_PERCENT) return 0;
+        if (thermal >= PowerManager.THERMAL_STATUS_MODERATE || saver
+                || (!charging && percent <= REDUCED_BATTERY_PERCENT)) {
+            return 1;
+        }
+        // Leave a core for the UI and any live capture when running on battery
+        return charging ? poolSize : Math.max(1, poolSize - 1);
+    }
+
+    // Worker thread
+    private void runJob(String name, int attempts) {
+        File source = new File(dir, name);
+        try {
+            if (!source.isFile()) {
+                catalog().removeTranscodeJob(name);
+                return;
+            }
+            encode(source, partFile(name));
+            catalog().setTranscodeJobState(name, RecordingCatalog.JOB_ENCODED, attempts, null);
+            swap(name);
+        } catch (YieldException e) {
+            partFile(name).delete();
+            Log.i(TAG, "Paused " + name + " for device constraints");
+        } catch (IOException | RuntimeException e) {
+            partFile(name).delete();
+            int failed = attempts + 1;
+            boolean giveUp = failed >= MAX_ATTEMPTS;
+            catalog().setTranscodeJobState(name, giveUp ? RecordingCatalog.JOB_FAILED : RecordingCatalog.JOB_PENDING,
+                    failed, e.getMessage());
+            Log.w(TAG, "Transcode of " + name + " failed (attempt " + failed + "): " + e.getMessage());
+        } finally {
+            synchronized (running) {
+                running.remove(name);
+            }
+            dispatcher.execute(this::dispatch);
+        }
+    }
+
+    private void encode(File source, File out) throws IOException {
+        WavFileWriter.Info info = WavFileWriter.readInfo(source);
+        if (info.formatTag != 1 || info.bitsPerSample != 16) {
+            throw new IOException("Not 16-bit PCM: " + source.getName());
+        }
+        File parent = out.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        RecordingProfile profile = RecordingProfile.voiceFor(info.sampleRate, info.channels);
+        int frameBytes = info.channels * 2;
+        long start = System.currentTimeMillis();
+        long pcmBytes;
+        try (RandomAccessFile raf = new RandomAccessFile(source, "r")) {
+            FileChannel in = raf.getChannel();
+            // The header of a recording cut short may be stale; the length is not
+            pcmBytes = in.size() - info.dataOffset;
+            pcmBytes -= pcmBytes % frameBytes;
+            VoiceEncoder encoder = new VoiceEncoder(out, profile);
+            boolean closed = false;
+            try {
+                byte[] chunk = new byte[CHUNK_BYTES - CHUNK_BYTES % frameBytes];
+                ByteBuffer buf = ByteBuffer.wrap(chunk);
+                long position = info.dataOffset;
+                long end = info.dataOffset + pcmBytes;
+                while (position < end) {
+                    // Lower limits take effect as jobs finish; only a full stop interrupts one
+                    if (System.currentTimeMillis() - allowedCheckedAt > CONSTRAINT_CHECK_MS) refreshAllowed();
+                    if (allowed == 0) throw new YieldException();
+                    buf.clear();
+                    buf.limit((int) Math.min(chunk.length, end - position));
+                    int n = in.read(buf, position);
+                    if (n <= 0) break;
+                    n -= n % frameBytes;
+                    encoder.write(chunk, 0, n);
+                    position += n;
+                }
+                closed = true;
+                encoder.close();
+            } finally {
+                if (!closed) {
+                    try {
+                        encoder.close();
+                    } catch (IOException e) {
+                        // Abandoning the output anyway
+                    }
+                }
+            }
+        }
+        verify(out, pcmBytes * 1_000_000L / ((long) info.sampleRate * frameBytes));
+        Log.i(TAG, "Encoded " + source.getName() + " " + source.length() / 1024 + " KB -> "
+                + out.length() / 1024 + " KB in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // The output must parse and hold as much audio as the source
+    private static void verify(File out, long expectedUs) throws IOException {
+        if (!out.isFile() || out.length() == 0) throw new IOException("No output written");
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(out.getAbsolutePath());
+            if (extractor.getTrackCount() < 1) throw new IOException("Output has no audio track");
+            MediaFormat format = extractor.getTrackFormat(0);
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+            if (Math.abs(durationUs - expectedUs) > DURATION_TOLERANCE_US) {
+                throw new IOException("Output is " + durationUs / 1000 + " ms, expected " + expectedUs / 1000 + " ms");
+            }
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private void swapQuietly(String name) {
+        try {
+            swap(name);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Swap of " + name + " failed: " + e.getMessage());
+        }
+    }
+
+    // Idempotent: every step checks whether an earlier run already did it
+    private void swap(String name) throws IOException {
+        File source = new File(dir, name);
+        File part = partFile(name);
+        File target = new File(dir, baseName(name) + ".m4a");
+        if (part.isFile()) {
+            if (target.exists() && !target.delete()) throw new IOException("Cannot replace " + target.getName());
+            if (!part.renameTo(target)) throw new IOException("Cannot move output into place for " + name);
+        }
+        if (!target.isFile()) {
+            // Output lost before the rename; encode again
+            catalog().setTranscodeJobState(name, RecordingCatalog.JOB_PENDING, 0, null);
+            return;
+        }
+        catalog().replaceFile(name, target, RecordingCatalog.mimeForName(target.getName()));
+        renameSidecar(WaveformPeaks.sidecarFor(source), WaveformPeaks.sidecarFor(target));
+        renameSidecar(SilenceGate.indexFor(source), SilenceGate.indexFor(target));
+        if (source.exists() && !source.delete()) {
+            Log.w(TAG, "Failed to delete original " + name);
+        }
+    }
+
+    private static void renameSidecar(File from, File to) {
+        if (from.isFile() && !from.renameTo(to)) {
+            Log.w(TAG, "Failed to move " + from.getName());
+        }
+    }
+
+    // Opened lazily so creating the queue on the main thread does no disk I/O
+    private RecordingCatalog catalog() {
+        return RecordingCatalog.getInstance(context);
+    }
+
+    private File partFile(String name) {
+        return new File(workDir, baseName(name) + ".m4a.part");
+    }
+
+    private static String baseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private boolean isRunning(String name) {
+        synchronized (running) {
+            return running.contains(name);
+        }
+    }
+
+    private int runningCount() {
+        synchronized (running) {
+            return running.size();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package io.ionic.starter;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes 16-bit PCM with {@link MediaCodec} in asynchronous mode and muxes the result.
+ *
+ * {@link #write} is called from the capture engine's writer thread and only copies PCM
+ * into codec input buffers; draining encoded output into the muxer happens on the
+ * codec's own callback thread.
+ */
+public class VoiceEncoder implements PcmSink {
+    private static final String TAG = "VoiceEncoder";
+    static final int MAX_INPUT_SIZE = 16 * 1024;
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
+    private final File file;
+    private final RecordingProfile profile;
+    private final MediaCodec codec;
+    private final MediaMuxer muxer;
+    private final HandlerThread callbackThread;
+    private final int frameBytes;
+    // Bytes of a frame split across write() calls
+    private final byte[] partial;
+    private int partialLength = 0;
+
+    private final Object lock = new Object();
+    // Free input buffer indices handed to us by the codec, as a ring of ints
+    private final int[] freeInputs = new int[64];
+    private int freeHead = 0;
+    private int freeCount = 0;
+
+    private int trackIndex = -1;
+    private boolean muxerStarted = false;
+    private boolean outputDone = false;
+    private IOException error;
+    private long framesQueued = 0;
+    private boolean closed = false;
+
+    public VoiceEncoder(File file, RecordingProfile profile) throws IOException {
+        if (profile.isPcm()) {
+            throw new IllegalArgumentException("PCM profile has no encoder: " + profile.name);
+        }
+        this.file = file;
+        this.profile = profile;
+        this.frameBytes = profile.channels * 2;
+        this.partial = new byte[frameBytes];
+
+        callbackThread = new HandlerThread("voice-encoder", Process.THREAD_PRIORITY_AUDIO);
+        callbackThread.start();
+
+        MediaCodec c = null;
+        MediaMuxer m = null;
+        try {
+            m = new MediaMuxer(file.getAbsolutePath(), profile.muxerFormat);
+            c = MediaCodec.createEncoderByType(profile.mime);
+            c.setCallback(new Callback(), new Handler(callbackThread.getLooper()));
+            c.configure(profile.createMediaFormat(), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            c.start();
+        } catch (IOException | RuntimeException e) {
+            if (c != null) c.release();
+            if (m != null) m.release();
+            callbackThread.quitSafely();
+            throw e instanceof IOException ? (IOException) e
+                    : new IOException("Failed to start " + profile.mime + " encoder", e);
+        }
+        codec = c;
+        muxer = m;
+    }
+
+    /**
+     * Queues whole frames only; a trailing partial frame is held back and completed by the
+     * next call, so callers may split PCM anywhere.
+     */
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (partialLength + end - offset >= frameBytes) {
+            int index = takeInputBuffer();
+            ByteBuffer input = codec.getInputBuffer(index);
+            input.clear();
+            int n = Math.min(partialLength + end - offset, input.capacity());
+            n -= n % frameBytes;
+            if (n == 0) {
+                throw new IOException("Encoder input buffer holds less than a frame: " + input.capacity());
+            }
+            input.put(partial, 0, partialLength);
+            input.put(data, offset, n - partialLength);
+            offset += n - partialLength;
+            partialLength = 0;
+            codec.queueInputBuffer(index, 0, n, presentationTimeUs(), 0);
+            framesQueued += n / frameBytes;
+        }
+        System.arraycopy(data, offset, partial, partialLength, end - offset);
+        partialLength += end - offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            int index = takeInputBuffer();
+            codec.queueInputBuffer(index, 0, 0, presentationTimeUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+                while (!outputDone && error == null) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new IOException("Timed out draining encoder for " + file.getName());
+                    }
+                    lock.wait(wait);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while draining encoder", e);
+        } finally {
+            release();
+        }
+        if (error != null) throw error;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private long presentationTimeUs() {
+        return framesQueued * 1_000_000L / profile.sampleRate;
+    }
+
+    private int takeInputBuffer() throws IOException {
+        synchronized (lock) {
+            while (freeCount == 0 && error == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for encoder input", e);
+                }
+            }
+            if (error != null) throw error;
+            int index = freeInputs[freeHead];
+            freeHead = (freeHead + 1) % freeInputs.length;
+            freeCount--;
+            return index;
+        }
+    }
+
+    private void release() {
+        try {
+            codec.stop();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Codec stop failed: " + e.getMessage());
+        }
+        codec.release();
+        try {
+            if (muxerStarted) muxer.stop();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Muxer stop failed: " + e.getMessage());
+        }
+        muxer.release();
+        callbackThread.quitSafely();
+    }
+
+    private void fail(IOException e) {
+        synchronized (lock) {
+            if (error == null) error = e;
+            lock.notifyAll();
+        }
+    }
+
+    private final class Callback extends MediaCodec.Callback {
+        @Override
+        public void onInputBufferAvailable(MediaCodec mc, int index) {
+            synchronized (lock) {
+                freeInputs[(freeHead + freeCount) % freeInputs.length] = index;
+                freeCount++;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec mc, int index, MediaCodec.BufferInfo info) {
+            try {
+                boolean codecConfig = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (info.size > 0 && !codecConfig && muxerStarted) {
+                    ByteBuffer output = mc.getOutputBuffer(index);
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    muxer.writeSampleData(trackIndex, output, info);
+                }
+                mc.releaseOutputBuffer(index, false);
+            } catch (RuntimeException e) {
+                fail(new IOException("Failed to mux encoded audio", e));
+                return;
+            }
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                synchronized (lock) {
+                    outputDone = true;
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec mc, MediaCodec.CodecException e) {
+            Log.e(TAG, "Encoder error: " + e.getMessage(), e);
+            fail(new IOException("Encoder error", e));
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec mc, MediaFormat format) {
+            if (muxerStarted) return;
+            trackIndex = muxer.addTrack(format);
+            muxer.start();
+            muxerStarted = true;
+        }
+    }
+}
@@ -1,44 +1,356 @@
 package io.ionic.starter;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
-public class WavFileWriter {
-    public static void writeWavHeader(File file, int totalAudioLen, int sampleRate,
-                                      int channels, int bitsPerSample) throws Exception {
-        int totalDataLen = totalAudioLen + 36;
-        int byteRate = sampleRate * channels * bitsPerSample / 8;
-
-        byte[] header = new byte[]{
-                'R','I','F','F',
-                (byte)(totalDataLen & 0xff),
-                (byte)((totalDataLen >> 8) & 0xff),
-                (byte)((totalDataLen >> 16) & 0xff),
-                (byte)((totalDataLen >> 24) & 0xff),
-                'W','A','V','E',
-                'f','m','t',' ',
-                16,0,0,0,1,0,
-                (byte)channels,0,
-                (byte)(sampleRate & 0xff),
-                (byte)((sampleRate >> 8) & 0xff),
-                (byte)((sampleRate >> 16) & 0xff),
-                (byte)((sampleRate >> 24) & 0xff),
-                (byte)(byteRate & 0xff),
-                (byte)((byteRate >> 8) & 0xff),
-                (byte)((byteRate >> 16) & 0xff),
-                (byte)((byteRate >> 24) & 0xff),
-                (byte)((channels * bitsPerSample) / 8),0,
-                (byte)bitsPerSample,0,
-                'd','a','t','a',
-                (byte)(totalAudioLen & 0xff),
-                (byte)((totalAudioLen >> 8) & 0xff),
-                (byte)((totalAudioLen >> 16) & 0xff),
-                (byte)((totalAudioLen >> 24) & 0xff)
-        };
+/**
+ * Streaming PCM WAV writer.
+ *
+ * Audio is appended through a {@link FileChannel} from a reused direct buffer, and the
+ * RIFF/data sizes in the header are rewritten in place every checkpoint interval. A
+ * process killed mid-call therefore leaves a file that plays up to the last checkpoint.
+ *
+ * New files reserve a 28-byte JUNK chunk after "WAVE". Once the RIFF size no longer fits
+ * in 32 bits the header is rewritten in place as RF64 (EBU Tech 3306), with the JUNK
+ * chunk becoming the ds64 chunk that carries the 64-bit sizes.
+ */
+public class WavFileWriter implements PcmSink {
+    // RIFF(12) + JUNK/ds64(8 + 28) + fmt(8 + 16) + data chunk header(8)
+    public static final int HEADER_SIZE = 80;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 1000;
+    // Header the pre-WavFileWriter recorder reserved as zeros and never filled in if killed
+    public static final int PLACEHOLDER_HEADER_SIZE = 44;
 
+    private static final int RESERVE_OFFSET = 12;
+    private static final int DS64_PAYLOAD_SIZE = 28;
+    private static final long MAX_CHUNK_SIZE = 0xFFFFFFFFL;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer ioBuffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+    private final int sampleRate;
+    private final int channels;
+    private final int bitsPerSample;
+    private final long checkpointIntervalBytes;
+    private final long dataOffset;
+    // False only for resumed files whose header we did not lay out ourselves
+    private final boolean standardLayout;
+
+    private long dataLength = 0;
+    private long checkpointedLength = -1;
+    private boolean rf64 = false;
+    private boolean closed = false;
+
+    public WavFileWriter(File file, int sampleRate, int channels, int bitsPerSample) throws IOException {
+        this(file, sampleRate, channels, bitsPerSample, DEFAULT_CHECKPOINT_INTERVAL_MS);
+    }
+
+    /**
+     * @param checkpointIntervalMs audio time between in-place header rewrites; 0 rewrites on every write
+     */
+    public WavFileWriter(File file, int sampleRate, int channels, int bitsPerSample,
+                         long checkpointIntervalMs) throws IOException {
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.checkpointIntervalBytes = intervalBytes(checkpointIntervalMs);
+        this.dataOffset = HEADER_SIZE;
+        this.standardLayout = true;
+
+        // RandomAccessFile rather than FileChannel.open(): java.nio.file needs API 26
         RandomAccessFile raf = new RandomAccessFile(file, "rw");
-        raf.seek(0);
-        raf.write(header, 0, 44);
-        raf.close();
+        raf.setLength(0);
+        channel = raf.getChannel();
+        checkpoint();
+        channel.position(HEADER_SIZE);
+    }
+
+    private WavFileWriter(File file, Info info, long checkpointIntervalMs) throws IOException {
+        this.file = file;
+        this.sampleRate = info.sampleRate;
+        this.channels = info.channels;
+        this.bitsPerSample = info.bitsPerSample;
+        this.checkpointIntervalBytes = intervalBytes(checkpointIntervalMs);
+        this.dataOffset = info.dataOffset;
+        this.standardLayout = info.standardLayout;
+        this.rf64 = info.rf64;
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        // Whatever made it to disk is the audio; drop a torn trailing frame
+        long length = channel.size() - dataOffset;
+        dataLength = Math.max(0, length - length % getBlockAlign());
+        channel.truncate(dataOffset + dataLength);
+        channel.position(dataOffset + dataLength);
+    }
+
+    /**
+     * Reopens an existing PCM WAV file for appending. The data size is taken from the
+     * file length, not from the (possibly stale) header.
+     */
+    public static WavFileWriter resume(File file, long checkpointIntervalMs) throws IOException {
+        Info info = readInfo(file);
+        if (info.formatTag != 1) {
+            throw new IOException("Not a PCM WAV file: " + file);
+        }
+        return new WavFileWriter(file, info, checkpointIntervalMs);
+    }
+
+    /** Recomputes the header sizes of an existing WAV file from its length. */
+    public static Info repair(File file) throws IOException {
+        resume(file, DEFAULT_CHECKPOINT_INTERVAL_MS).close();
+        return readInfo(file);
+    }
+
+    /**
+     * Repairs a file whose first {@link #PLACEHOLDER_HEADER_SIZE} bytes are still the zeroed
+     * placeholder that the original recorder reserved for its header. A canonical header
+     * for the given format is written in place and the sizes are then recomputed as in
+     * {@link #repair}. Returns null, leaving the file alone, if it has no such placeholder.
+     */
+    public static Info repairPlaceholder(File file, int sampleRate, int channels, int bitsPerSample)
+            throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < PLACEHOLDER_HEADER_SIZE) return null;
+            byte[] head = new byte[PLACEHOLDER_HEADER_SIZE];
+            raf.readFully(head);
+            for (byte b : head) {
+                if (b != 0) return null;
+            }
+            int blockAlign = channels * bitsPerSample / 8;
+            ByteBuffer buf = ByteBuffer.wrap(head).order(ByteOrder.LITTLE_ENDIAN);
+            putTag(buf, 'R', 'I', 'F', 'F');
+            buf.putInt(PLACEHOLDER_HEADER_SIZE - 8);
+            putTag(buf, 'W', 'A', 'V', 'E');
+            putTag(buf, 'f', 'm', 't', ' ');
+            buf.putInt(16);
+            buf.putShort((short) 1);
+            buf.putShort((short) channels);
+            buf.putInt(sampleRate);
+            buf.putInt(sampleRate * blockAlign);
+            buf.putShort((short) blockAlign);
+            buf.putShort((short) bitsPerSample);
+            putTag(buf, 'd', 'a', 't', 'a');
+            buf.putInt(0);
+            raf.seek(0);
+            raf.write(head);
+        }
+        return repair(file);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ensureOpen();
+        int done = 0;
+        while (done < length) {
+            int n = Math.min(length - done, ioBuffer.capacity());
+            ioBuffer.clear();
+            ioBuffer.put(data, offset + done, n);
+            ioBuffer.flip();
+            while (ioBuffer.hasRemaining()) {
+                channel.write(ioBuffer);
+            }
+            done += n;
+        }
+        dataLength += length;
+        if (dataLength - checkpointedLength >= checkpointIntervalBytes) {
+            checkpoint();
+        }
+    }
+
+    /** Rewrites the header so it describes everything written so far. */
+    public void checkpoint() throws IOException {
+        ensureOpen();
+        if (!rf64 && standardLayout && dataOffset - 8 + dataLength > MAX_CHUNK_SIZE) {
+            rf64 = true;
+        }
+        if (standardLayout) {
+            encodeHeader(header, dataLength, sampleRate, channels, bitsPerSample, rf64);
+            writeFully(header, 0);
+        } else {
+            // Foreign layout: only patch the 32-bit size fields, clamped as "unknown"
+            header.clear();
+            header.putInt(0, (int) Math.min(dataOffset - 8 + dataLength, MAX_CHUNK_SIZE));
+            header.limit(4);
+            writeFully(header, 4);
+            header.clear();
+            header.putInt(0, (int) Math.min(dataLength, MAX_CHUNK_SIZE));
+            header.limit(4);
+            writeFully(header, dataOffset - 4);
+        }
+        checkpointedLength = dataLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            checkpoint();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public boolean isRf64() {
+        return rf64;
+    }
+
+    public int getByteRate() {
+        return sampleRate * channels * bitsPerSample / 8;
+    }
+
+    public int getBlockAlign() {
+        return channels * bitsPerSample / 8;
+    }
+
+    private long intervalBytes(long intervalMs) {
+        long interval = intervalMs * getByteRate() / 1000;
+        return interval - interval % getBlockAlign();
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("WAV writer is closed: " + file);
+    }
+
+    /** Encodes the standard {@link #HEADER_SIZE}-byte header into {@code buf}, ready to write. */
+    static void encodeHeader(ByteBuffer buf, long dataLength, int sampleRate, int channels,
+                             int bitsPerSample, boolean rf64) {
+        int blockAlign = channels * bitsPerSample / 8;
+        long riffSize = HEADER_SIZE - 8 + dataLength;
+        buf.clear();
+        if (rf64) {
+            putTag(buf, 'R', 'F', '6', '4');
+            buf.putInt((int) MAX_CHUNK_SIZE);
+            putTag(buf, 'W', 'A', 'V', 'E');
+            putTag(buf, 'd', 's', '6', '4');
+            buf.putInt(DS64_PAYLOAD_SIZE);
+            buf.putLong(riffSize);
+            buf.putLong(dataLength);
+            buf.putLong(dataLength / blockAlign);
+            buf.putInt(0); // no table entries
+        } else {
+            putTag(buf, 'R', 'I', 'F', 'F');
+            buf.putInt((int) riffSize);
+            putTag(buf, 'W', 'A', 'V', 'E');
+            putTag(buf, 'J', 'U', 'N', 'K');
+            buf.putInt(DS64_PAYLOAD_SIZE);
+            buf.putLong(0).putLong(0).putLong(0).putInt(0);
+        }
+        putTag(buf, 'f', 'm', 't', ' ');
+        buf.putInt(16);
+        buf.putShort((short) 1);
+        buf.putShort((short) channels);
+        buf.putInt(sampleRate);
+        buf.putInt(sampleRate * blockAlign);
+        buf.putShort((short) blockAlign);
+        buf.putShort((short) bitsPerSample);
+        putTag(buf, 'd', 'a', 't', 'a');
+        buf.putInt(rf64 ? (int) MAX_CHUNK_SIZE : (int) dataLength);
+        buf.flip();
+    }
+
+    private static void putTag(ByteBuffer buf, char a, char b, char c, char d) {
+        buf.put((byte) a).put((byte) b).put((byte) c).put((byte) d);
+    }
+
+    /**
+     * Parses the RIFF/RF64 chunk list of a WAV file. The returned data length is the
+     * one declared by the header, which can be stale for a file that was never closed.
+     */
+    public static Info readInfo(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+            readAt(ch, buf, 0, 12);
+            int riffTag = buf.getInt(0);
+            boolean isRf64 = riffTag == tag('R', 'F', '6', '4');
+            if ((riffTag != tag('R', 'I', 'F', 'F') && !isRf64) || buf.getInt(8) != tag('W', 'A', 'V', 'E')) {
+                throw new IOException("Not a WAV file: " + file);
+            }
+
+            Info info = new Info();
+            info.rf64 = isRf64;
+            long ds64DataSize = -1;
+            boolean reserveAtStart = false;
+            long fmtOffset = -1;
+            long pos = 12;
+            long fileLength = ch.size();
+            while (pos + 8 <= fileLength) {
+                readAt(ch, buf, pos, 8);
+                int id = buf.getInt(0);
+                long size = buf.getInt(4) & MAX_CHUNK_SIZE;
+                long body = pos + 8;
+                if (id == tag('d', 's', '6', '4') || id == tag('J', 'U', 'N', 'K')) {
+                    if (pos == RESERVE_OFFSET && size == DS64_PAYLOAD_SIZE) reserveAtStart = true;
+                    if (id == tag('d', 's', '6', '4')) {
+                        readAt(ch, buf, body, 16);
+                        ds64DataSize = buf.getLong(8);
+                    }
+                } else if (id == tag('f', 'm', 't', ' ')) {
+                    readAt(ch, buf, body, 16);
+                    info.formatTag = buf.getShort(0) & 0xffff;
+                    info.channels = buf.getShort(2) & 0xffff;
+                    info.sampleRate = buf.getInt(4);
+                    info.bitsPerSample = buf.getShort(14) & 0xffff;
+                    fmtOffset = pos;
+                } else if (id == tag('d', 'a', 't', 'a')) {
+                    info.dataOffset = body;
+                    info.dataLength = isRf64 && size == MAX_CHUNK_SIZE && ds64DataSize >= 0 ? ds64DataSize : size;
+                    break;
+                }
+                pos = body + size + (size & 1);
+            }
+            if (fmtOffset < 0 || info.dataOffset == 0) {
+                throw new IOException("Missing fmt or data chunk: " + file);
+            }
+            info.standardLayout = reserveAtStart && fmtOffset == RESERVE_OFFSET + 8 + DS64_PAYLOAD_SIZE
+                    && info.dataOffset == HEADER_SIZE;
+            return info;
+        }
+    }
+
+    private static void readAt(FileChannel ch, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear().limit(length);
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) throw new IOException("Unexpected end of WAV header");
+        }
+    }
+
+    private static int tag(char a, char b, char c, char d) {
+        return (a & 0xff) | (b & 0xff) << 8 | (c & 0xff) << 16 | (d & 0xff) << 24;
+    }
+
+    /** Format and data location parsed from a WAV header. */
+    public static final class Info {
+        public int formatTag;
+        public int sampleRate;
+        public int channels;
+        public int bitsPerSample;
+        public long dataOffset;
+        public long dataLength;
+        public boolean rf64;
+        boolean standardLayout;
     }
 }
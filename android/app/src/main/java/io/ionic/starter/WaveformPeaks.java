@@ -0,0 +1,309 @@
+package io.ionic.starter;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Min/max waveform peaks kept in a small sidecar next to each recording, so a scrub bar
+ * can be drawn without decoding any audio.
+ *
+ * {@link Writer} sits in front of the capture sink and folds PCM into one peak per
+ * {@link #BASE_WINDOW} frames as it flows past. Coarser levels, {@link #FACTOR} times
+ * wider each, are built at the same time like a mipmap. Each peak is two signed bytes
+ * (the high bytes of the window's min and max sample).
+ *
+ * Layout, little-endian: "PEAK", u16 version, u16 level count, i32 sample rate,
+ * i32 base window, i32 factor, then {@link #MAX_LEVELS} x (i32 offset, i32 count).
+ * Level 0 is appended right after the header while recording; the coarser levels and
+ * the level table are written on close. A sidecar with a level count of 0 was not
+ * closed, and its level 0 runs to the end of the file.
+ */
+final class WaveformPeaks {
+    private static final String TAG = "WaveformPeaks";
+    static final int BASE_WINDOW = 256;
+    static final int FACTOR = 4;
+    static final int MAX_LEVELS = 6;
+    static final int HEADER_SIZE = 20 + MAX_LEVELS * 8;
+    private static final int VERSION = 1;
+    private static final int MAGIC = 0x4b414550; // "PEAK" little-endian
+    // About 8 s of level 0 at 16 kHz; what an unclosed sidecar can lose
+    private static final int FLUSH_BYTES = 1024;
+
+    private WaveformPeaks() {
+    }
+
+    /** The sidecar of {@code recording}, in a hidden directory so listings skip it. */
+    static File sidecarFor(File recording) {
+        return new File(new File(recording.getParentFile(), ".peaks"), recording.getName() + ".peaks");
+    }
+
+    /** Peaks of one level over a time range: {@code minMax[2 * i]} and {@code [2 * i + 1]}. */
+    static final class Range {
+        final int sampleRate;
+        final long windowFrames;
+        // Index of the first returned peak within its level
+        final long first;
+        final byte[] minMax;
+
+        Range(int sampleRate, long windowFrames, long first, byte[] minMax) {
+            this.sampleRate = sampleRate;
+            this.windowFrames = windowFrames;
+            this.first = first;
+            this.minMax = minMax;
+        }
+
+        int count() {
+            return minMax.length / 2;
+        }
+
+        double windowMs() {
+            return windowFrames * 1000.0 / sampleRate;
+        }
+
+        double startMs() {
+            return first * windowMs();
+        }
+    }
+
+    /**
+     * Reads the peaks between {@code fromMs} and {@code toMs} (to the end when
+     * {@code toMs <= 0}) from the coarsest level that still has at least {@code width}
+     * peaks in that range, or from level 0 when none has.
+     */
+    static Range read(File sidecar, long fromMs, long toMs, int width) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) throw new IOException("Truncated peaks header");
+            }
+            header.flip();
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a peaks file: " + sidecar);
+            int levels = header.getShort(6);
+            int sampleRate = header.getInt(8);
+            int baseWindow = header.getInt(12);
+            int factor = header.getInt(16);
+            long[] offsets = new long[Math.max(1, levels)];
+            long[] counts = new long[offsets.length];
+            if (levels == 0) {
+                offsets[0] = HEADER_SIZE;
+                counts[0] = (channel.size() - HEADER_SIZE) / 2;
+            } else {
+                for (int l = 0; l < levels; l++) {
+                    offsets[l] = header.getInt(20 + l * 8) & 0xffffffffL;
+                    counts[l] = header.getInt(24 + l * 8) & 0xffffffffL;
+                }
+            }
+
+            long fromFrame = Math.max(0, fromMs) * sampleRate / 1000;
+            long toFrame = toMs > 0 ? toMs * sampleRate / 1000 : Long.MAX_VALUE;
+            int level = 0;
+            long window = baseWindow;
+            for (int l = 1; l < offsets.length; l++) {
+                long w = window * factor;
+                long end = Math.min(toFrame, counts[l] * w);
+                if ((end - fromFrame) / w < width) break;
+                level = l;
+                window = w;
+            }
+
+            long first = Math.min(fromFrame / window, counts[level]);
+            long last = toFrame == Long.MAX_VALUE ? counts[level]
+                    : Math.min(counts[level], (toFrame + window - 1) / window);
+            byte[] minMax = new byte[(int) Math.max(0, last - first) * 2];
+            ByteBuffer dst = ByteBuffer.wrap(minMax);
+            long position = offsets[level] + first * 2;
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, position);
+                if (n < 0) break;
+                position += n;
+            }
+            return new Range(sampleRate, window, first, minMax);
+        }
+    }
+
+    /**
+     * Pass-through {@link PcmSink} that builds the sidecar from the audio it forwards.
+     * Peak failures are logged and end peak tracking; they never fail the recording.
+     */
+    static final class Writer implements PcmSink {
+        private final PcmSink inner;
+        private final File sidecar;
+        private final int sampleRate;
+        private final int channels;
+        private RandomAccessFile out;
+
+        private final byte[] pending = new byte[FLUSH_BYTES];
+        private int pendingLength = 0;
+        private long level0Count = 0;
+        // Coarser levels grow in memory; together they are about a third of level 0
+        private final byte[][] coarse = new byte[MAX_LEVELS][];
+        private final int[] coarseLength = new int[MAX_LEVELS];
+        // Running min/max of the window being filled at each level
+        private final int[] accMin = new int[MAX_LEVELS];
+        private final int[] accMax = new int[MAX_LEVELS];
+        private final int[] accCount = new int[MAX_LEVELS];
+
+        private int lowByte = -1;
+        private int channelIndex = 0;
+
+        Writer(PcmSink inner, File sidecar, int sampleRate, int channels) throws IOException {
+            this.inner = inner;
+            this.sidecar = sidecar;
+            this.sampleRate = sampleRate;
+            this.channels = Math.max(1, channels);
+            File dir = sidecar.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Failed to create directory: " + dir.getAbsolutePath());
+            }
+            out = new RandomAccessFile(sidecar, "rw");
+            out.setLength(0);
+            out.write(header(0));
+            for (int l = 0; l < MAX_LEVELS; l++) {
+                resetAcc(l);
+                if (l > 0) coarse[l] = new byte[256];
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            inner.write(data, offset, length);
+            if (out == null) return;
+            int end = offset + length;
+            int i = offset;
+            if (lowByte >= 0 && i < end) {
+                addSample((short) ((data[i++] << 8) | lowByte));
+                lowByte = -1;
+            }
+            for (; i + 1 < end; i += 2) {
+                addSample((short) ((data[i + 1] << 8) | (data[i] & 0xff)));
+            }
+            if (i < end) lowByte = data[i] & 0xff;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                inner.close();
+            } finally {
+                finish();
+            }
+        }
+
+        private void addSample(short s) {
+            if (s < accMin[0]) accMin[0] = s;
+            if (s > accMax[0]) accMax[0] = s;
+            if (++channelIndex < channels) return;
+            channelIndex = 0;
+            if (++accCount[0] == BASE_WINDOW) {
+                emit(0, accMin[0] >> 8, accMax[0] >> 8);
+                resetAcc(0);
+            }
+        }
+
+        // Stores one peak at level l and folds it into level l + 1
+        private void emit(int level, int min, int max) {
+            if (level == 0) {
+                pending[pendingLength++] = (byte) min;
+                pending[pendingLength++] = (byte) max;
+                level0Count++;
+                if (pendingLength == pending.length) flushPending();
+            } else {
+                if (coarseLength[level] + 2 > coarse[level].length) {
+                    byte[] grown = new byte[coarse[level].length * 2];
+                    System.arraycopy(coarse[level], 0, grown, 0, coarseLength[level]);
+                    coarse[level] = grown;
+                }
+                coarse[level][coarseLength[level]++] = (byte) min;
+                coarse[level][coarseLength[level]++] = (byte) max;
+            }
+            int next = level + 1;
+            if (next >= MAX_LEVELS) return;
+            if (min < accMin[next]) accMin[next] = min;
+            if (max > accMax[next]) accMax[next] = max;
+            if (++accCount[next] == FACTOR) {
+                emit(next, accMin[next], accMax[next]);
+                resetAcc(next);
+            }
+        }
+
+        private void resetAcc(int level) {
+            accMin[level] = Integer.MAX_VALUE;
+            accMax[level] = Integer.MIN_VALUE;
+            accCount[level] = 0;
+        }
+
+        private void flushPending() {
+            if (out == null || pendingLength == 0) return;
+            try {
+                out.write(pending, 0, pendingLength);
+            } catch (IOException e) {
+                abandon(e);
+            }
+            pendingLength = 0;
+        }
+
+        // Emits the partial windows, appends the coarse levels and writes the level table
+        private void finish() {
+            if (out == null) return;
+            if (accCount[0] > 0) emit(0, accMin[0] >> 8, accMax[0] >> 8);
+            for (int l = 1; l < MAX_LEVELS; l++) {
+                if (accCount[l] > 0) emit(l, accMin[l], accMax[l]);
+            }
+            flushPending();
+            if (out == null) return;
+            try {
+                long offset = HEADER_SIZE + level0Count * 2;
+                long[] offsets = new long[MAX_LEVELS];
+                long[] counts = new long[MAX_LEVELS];
+                offsets[0] = HEADER_SIZE;
+                counts[0] = level0Count;
+                int levels = 1;
+                for (int l = 1; l < MAX_LEVELS && coarseLength[l] > 0; l++) {
+                    out.seek(offset);
+                    out.write(coarse[l], 0, coarseLength[l]);
+                    offsets[l] = offset;
+                    counts[l] = coarseLength[l] / 2;
+                    offset += coarseLength[l];
+                    levels++;
+                }
+                byte[] header = header(levels);
+                ByteBuffer table = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                for (int l = 0; l < levels; l++) {
+                    table.putInt(20 + l * 8, (int) offsets[l]);
+                    table.putInt(24 + l * 8, (int) counts[l]);
+                }
+                out.seek(0);
+                out.write(header);
+                out.close();
+            } catch (IOException e) {
+                abandon(e);
+            }
+            out = null;
+        }
+
+        private byte[] header(int levels) {
+            ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(MAGIC).putShort((short) VERSION).putShort((short) levels)
+                    .putInt(sampleRate).putInt(BASE_WINDOW).putInt(FACTOR);
+            return b.array();
+        }
+
+        private void abandon(IOException e) {
+            Log.w(TAG, "Peaks disabled for " + sidecar.getName() + ": " + e.getMessage());
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // Already failing
+            }
+            out = null;
+            sidecar.delete();
+        }
+    }
+}
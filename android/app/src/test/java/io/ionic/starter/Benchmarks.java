@@ -0,0 +1,17 @@
+package io.ionic.starter;
+
+import org.junit.Assume;
+
+/**
+ * Switch for the timing benchmarks kept next to the unit tests. They print per-operation
+ * costs and are too slow and machine-dependent for the regular suite, so they only run
+ * with {@code ./gradlew test -Pbenchmarks}.
+ */
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    static void assumeEnabled() {
+        Assume.assumeTrue("benchmark, run with -Pbenchmarks", Boolean.getBoolean("benchmarks"));
+    }
+}
@@ -0,0 +1,136 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Ordering, keyset and reconciliation tests for {@link CallLogStore}, plus the memory it
+ * takes for a synthetic 100k-row call log.
+ */
+public class CallLogStoreTest {
+
+    @Test
+    public void keepsRowsOrderedByDateThenId() {
+        CallLogStore store = new CallLogStore();
+        store.insert(1, "100", 1000, 5, 1, "A");
+        store.insert(3, "300", 3000, 5, 2, null);
+        // Arrives late but belongs in the middle, and a same-date row ordered by id
+        store.insert(4, "200", 2000, 5, 3, "B");
+        store.insert(2, "200", 2000, 5, 3, "B");
+
+        assertEquals(4, store.size());
+        long[] expectedIds = {1, 2, 4, 3};
+        for (int i = 0; i < expectedIds.length; i++) {
+            assertEquals(expectedIds[i], store.id(i));
+        }
+        assertEquals("", store.name(3));
+        assertEquals("200", store.number(1));
+    }
+
+    @Test
+    public void lastBeforeFollowsTheKeyset() {
+        CallLogStore store = new CallLogStore();
+        store.insert(1, "a", 1000, 0, 1, "");
+        store.insert(2, "b", 2000, 0, 1, "");
+        store.insert(3, "c", 2000, 0, 1, "");
+        store.insert(4, "d", 3000, 0, 1, "");
+
+        assertEquals(3, store.lastBefore(Long.MAX_VALUE, Long.MAX_VALUE));
+        // Strictly older than (2000, 3) is (2000, 2)
+        assertEquals(1, store.lastBefore(2000, 3));
+        // A bare date skips every row on that date
+        assertEquals(0, store.lastBefore(2000, Long.MIN_VALUE));
+        assertEquals(-1, store.lastBefore(1000, 1));
+    }
+
+    @Test
+    public void retainIdsDropsDeletedRows() {
+        CallLogStore store = new CallLogStore();
+        for (int i = 1; i <= 10; i++) store.insert(i, "n" + i, i * 1000L, i, 1, "");
+
+        assertEquals(3, store.retainIds(new long[]{1, 2, 4, 5, 7, 9, 10}));
+        assertEquals(7, store.size());
+        assertEquals(4, store.id(2));
+        assertEquals("n4", store.number(2));
+        assertEquals(4, store.duration(2));
+    }
+
+    @Test
+    public void updatedRowReplacesTheCachedOne() {
+        CallLogStore store = new CallLogStore();
+        for (int i = 1; i <= 5; i++) store.insert(i, "n" + i, i * 1000L, i, 1, null);
+
+        // The provider filled in the contact name of call 3 after it was cached
+        assertEquals(1, store.removeIds(new long[]{3}));
+        store.insert(3, "n3", 3000L, 3, 1, "Jane");
+        assertEquals(5, store.size());
+        assertEquals(3, store.id(2));
+        assertEquals("Jane", store.name(2));
+        assertEquals("", store.name(1));
+    }
+
+    @Test
+    public void internsRepeatedStrings() {
+        CallLogStore store = new CallLogStore();
+        for (int i = 0; i < 1000; i++) {
+            store.insert(i, new String("+15550100" + (i % 7)), i, 0, 1, new String("Name " + (i % 3)));
+        }
+        // Ref 0 is reserved for the empty string
+        assertEquals(8, store.distinctNumbers());
+        assertEquals(4, store.distinctNames());
+        assertSame(store.number(0), store.number(7));
+        assertEquals(store.numberRef(0), store.numberRef(14));
+    }
+
+    @Test
+    public void estimatesUnder64BytesPerRowFor100kRows() {
+        CallLogStore store = fill(100_000);
+        assertEquals(100_000, store.size());
+        // 29 bytes of columns per row plus growth slack and the string tables
+        double estimated = (double) store.estimateBytes() / store.size();
+        assertTrue("estimated " + estimated + " B/row", estimated < 64);
+    }
+
+    @Test
+    public void benchmarkHeapPerRowFor100kRows() {
+        Benchmarks.assumeEnabled();
+        int rows = 100_000;
+        Runtime rt = Runtime.getRuntime();
+        long heapBefore = usedHeap(rt);
+        CallLogStore store = fill(rows);
+        long heapAfter = usedHeap(rt);
+
+        double estimated = (double) store.estimateBytes() / rows;
+        double measured = (double) (heapAfter - heapBefore) / rows;
+        System.out.printf(Locale.ROOT,
+                "%d rows, %d numbers, %d names: estimated %.1f B/row, measured heap delta %.1f B/row%n",
+                rows, store.distinctNumbers(), store.distinctNames(), estimated, measured);
+        assertEquals("measured heap per row", estimated, measured, estimated / 4);
+    }
+
+    private static CallLogStore fill(int rows) {
+        Random random = new Random(42);
+        String[] contacts = new String[2_000];
+        for (int i = 0; i < contacts.length; i++) contacts[i] = "Contact " + i;
+        CallLogStore store = new CallLogStore();
+        long date = 1_600_000_000_000L;
+        for (int i = 0; i < rows; i++) {
+            // Call logs are dominated by a few thousand recurring numbers
+            int who = (int) Math.abs(random.nextGaussian() * 1500) % 8_000;
+            date += 1 + random.nextInt(3_600_000);
+            String number = String.format(Locale.ROOT, "+1555%07d", who);
+            String name = who < contacts.length ? contacts[who] : null;
+            store.insert(i + 1, number, date, random.nextInt(1800), 1 + random.nextInt(6), name);
+        }
+        return store;
+    }
+
+    private static long usedHeap(Runtime rt) {
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
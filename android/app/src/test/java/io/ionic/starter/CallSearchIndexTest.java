@@ -0,0 +1,133 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Matching and ranking tests for {@link CallSearchIndex}, plus an opt-in benchmark of the
+ * per-keystroke latency on a synthetic 50k-row call log, see {@link Benchmarks}.
+ */
+public class CallSearchIndexTest {
+
+    @Test
+    public void findsNumbersWithAndWithoutPrefixes() {
+        CallSearchIndex index = new CallSearchIndex();
+        index.add(1, "+91 98765 43210", 1000, 10, 1, "Asha");
+        index.add(2, "0207 946 0000", 2000, 10, 2, null);
+        index.add(3, "555-0100", 3000, 10, 1, null);
+
+        assertEquals(list("+91 98765 43210"), numbers(index, "+9198"));
+        assertEquals(list("+91 98765 43210"), numbers(index, "98765"));
+        // Trunk zero optional either way
+        assertEquals(list("0207 946 0000"), numbers(index, "0207"));
+        assertEquals(list("0207 946 0000"), numbers(index, "207 94"));
+        // Digits in the middle match as substrings
+        assertEquals(list("+91 98765 43210"), numbers(index, "6543"));
+        assertEquals(list("555-0100"), numbers(index, "(555) 01"));
+        assertTrue(numbers(index, "777").isEmpty());
+    }
+
+    @Test
+    public void groupsCallsPerNumberAndReportsTheLatest() {
+        CallSearchIndex index = new CallSearchIndex();
+        index.add(1, "+1 650 555 0100", 1000, 10, 1, "Old Name");
+        index.add(2, "650-555-0100", 3000, 20, 3, "New Name");
+        index.add(3, "+16505550100", 2000, 30, 2, null);
+
+        List<String> hits = new ArrayList<>();
+        index.search("555", 10, (id, number, date, duration, type, name, calls, matched) ->
+                hits.add(id + " " + date + " " + duration + " " + type + " " + name + " " + calls));
+        assertEquals(list("2 3000 20 3 New Name 3"), hits);
+        // The replaced name no longer matches
+        assertTrue(numbers(index, "old").isEmpty());
+        assertEquals(list("+1 650 555 0100"), numbers(index, "new"));
+    }
+
+    @Test
+    public void ranksExactThenPrefixThenWordThenSubstring() {
+        CallSearchIndex index = new CallSearchIndex();
+        index.add(1, "111", 1000, 0, 1, "Mark Annan");
+        index.add(2, "222", 2000, 0, 1, "Anna Bell");
+        index.add(3, "333", 3000, 0, 1, "Joanna");
+        index.add(4, "444", 4000, 0, 1, "Ann Lee");
+
+        // Prefixes, newest first, then the word-start match, then the substring
+        assertEquals(list("444", "222", "111", "333"), numbers(index, "ann"));
+        assertEquals(list("444", "222", "111"), numbers(index, "an"));
+        assertEquals(list("222"), numbers(index, "b"));
+        assertEquals(list("444", "222"), numbers(index, "ann", 2));
+
+        index.add(5, "4445", 500, 0, 1, null);
+        assertEquals(list("444", "4445"), numbers(index, "444"));
+    }
+
+    @Test
+    public void rebuildDropsDeletedNumbers() {
+        CallLogStore store = new CallLogStore();
+        CallSearchIndex index = new CallSearchIndex();
+        for (int i = 1; i <= 3; i++) {
+            store.insert(i, "55500" + i, i * 1000L, 0, 1, "Caller " + i);
+            index.add(i, "55500" + i, i * 1000L, 0, 1, "Caller " + i);
+        }
+        store.retainIds(new long[]{1, 3});
+        index.rebuild(store);
+
+        assertEquals(2, index.size());
+        assertEquals(list("555003", "555001"), numbers(index, "caller"));
+        assertEquals(list("555003", "555001"), numbers(index, "5550"));
+    }
+
+    @Test
+    public void benchmarkKeystrokeLatencyFor50kRows() {
+        Benchmarks.assumeEnabled();
+        int rows = 50_000;
+        Random random = new Random(7);
+        String[] first = {"Anna", "Ben", "Carla", "David", "Elif", "Farid", "Grace", "Hiro", "Ines", "Jon"};
+        String[] last = {"Smith", "Okafor", "Novak", "Garcia", "Tanaka", "Haddad", "Meyer", "Rossi"};
+        CallSearchIndex index = new CallSearchIndex();
+        long date = 1_600_000_000_000L;
+        for (int i = 0; i < rows; i++) {
+            int who = (int) Math.abs(random.nextGaussian() * 2000) % 10_000;
+            date += 1 + random.nextInt(600_000);
+            String name = who % 3 == 0 ? null
+                    : first[who % first.length] + " " + last[(who / first.length) % last.length] + " " + who;
+            index.add(i + 1, String.format(Locale.ROOT, "+44 7700 9%05d", who), date, random.nextInt(600), 1, name);
+        }
+
+        // Typing a name and a number one keystroke at a time
+        String[] typed = {"g", "gr", "gra", "grac", "grace", "grace t", "7", "77", "770", "7700 9", "7700 90", "0770"};
+        int[] found = new int[1];
+        for (String q : typed) index.search(q, 20, (id, n, d, du, t, na, c, m) -> found[0]++);
+        int iterations = 200;
+        long start = System.nanoTime();
+        for (int it = 0; it < iterations; it++) {
+            for (String q : typed) index.search(q, 20, (id, n, d, du, t, na, c, m) -> found[0]++);
+        }
+        double avgMicros = (System.nanoTime() - start) / 1000.0 / (iterations * typed.length);
+        System.out.printf(Locale.ROOT, "%d rows, %d numbers: %.1f us per keystroke%n", rows, index.size(), avgMicros);
+
+        assertTrue(found[0] > 0);
+    }
+
+    private static List<String> numbers(CallSearchIndex index, String query) {
+        return numbers(index, query, 20);
+    }
+
+    private static List<String> numbers(CallSearchIndex index, String query, int limit) {
+        List<String> result = new ArrayList<>();
+        index.search(query, limit, (id, number, date, duration, type, name, calls, matched) -> result.add(number));
+        return result;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> result = new ArrayList<>();
+        for (String v : values) result.add(v);
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+/**
+ * Tests for {@link CallStatsEngine}: number grouping, windows kept current as rows come
+ * and go, and local hour/day buckets, including after a time zone change.
+ */
+public class CallStatsEngineTest {
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 24 * HOUR;
+    private static final int INCOMING = 1, OUTGOING = 2, MISSED = 3;
+
+    private TimeZone originalZone;
+
+    @Before
+    public void useUtc() {
+        originalZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void restoreZone() {
+        TimeZone.setDefault(originalZone);
+    }
+
+    @Test
+    public void groupsNumbersAcrossCountryAndTrunkPrefixes() {
+        long key = CallStatsEngine.normalizeNumber("+91 98765 43210");
+        assertEquals(key, CallStatsEngine.normalizeNumber("098765 43210"));
+        assertEquals(key, CallStatsEngine.normalizeNumber("(98765) 43-210"));
+        assertEquals(CallStatsEngine.normalizeNumber("+1 555 010 0100"),
+                CallStatsEngine.normalizeNumber("555-010-0100"));
+        assertNotEquals(key, CallStatsEngine.normalizeNumber("+91 98765 43211"));
+    }
+
+    @Test
+    public void keepsShortCodesApartAndRejectsNumbersWithoutDigits() {
+        assertNotEquals(CallStatsEngine.normalizeNumber("0123"), CallStatsEngine.normalizeNumber("123"));
+        assertEquals(CallStatsEngine.normalizeNumber("*31#"), CallStatsEngine.normalizeNumber("31"));
+        assertEquals(-1, CallStatsEngine.normalizeNumber(null));
+        assertEquals(-1, CallStatsEngine.normalizeNumber(""));
+        assertEquals(-1, CallStatsEngine.normalizeNumber("Unknown"));
+    }
+
+    @Test
+    public void countsPerNumberWithLatestName() {
+        CallLogStore store = new CallLogStore();
+        CallStatsEngine engine = new CallStatsEngine();
+        insert(store, engine, 1, "+91 98765 43210", DAY, 60, INCOMING, "");
+        insert(store, engine, 2, "098765 43210", 2 * DAY, 30, OUTGOING, "Asha");
+        insert(store, engine, 3, "555 0100", 3 * DAY, 0, MISSED, null);
+
+        CallStatsEngine.Aggregates byNumber = engine.query(store, 0, CallStatsEngine.GroupBy.NUMBER);
+        assertEquals(2, byNumber.size);
+        int g = group(byNumber, CallStatsEngine.normalizeNumber("+91 98765 43210"));
+        assertEquals(2, byNumber.calls[g]);
+        assertEquals(1, byNumber.incoming[g]);
+        assertEquals(1, byNumber.outgoing[g]);
+        assertEquals(90, byNumber.talkSeconds[g]);
+        assertEquals("Asha", byNumber.names[g]);
+        assertEquals(3, byNumber.totalCalls);
+    }
+
+    @Test
+    public void windowFollowsAddedAndRemovedRows() {
+        CallLogStore store = new CallLogStore();
+        CallStatsEngine engine = new CallStatsEngine();
+        for (int i = 1; i <= 5; i++) insert(store, engine, i, "555 010" + i, i * DAY, 10, INCOMING, null);
+
+        long since = 3 * DAY;
+        assertEquals(3, engine.query(store, since, CallStatsEngine.GroupBy.TYPE).totalCalls);
+
+        // Rows added later land in the live window, older ones only in all-time
+        insert(store, engine, 6, "555 0106", 6 * DAY, 10, MISSED, null);
+        insert(store, engine, 7, "555 0107", DAY / 2, 10, MISSED, null);
+        CallStatsEngine.Aggregates window = engine.query(store, since, CallStatsEngine.GroupBy.TYPE);
+        assertEquals(4, window.totalCalls);
+        assertEquals(1, window.missed[group(window, MISSED)]);
+        assertEquals(7, engine.query(store, 0, CallStatsEngine.GroupBy.TYPE).totalCalls);
+
+        // Deletions rebuild, and the window is recomputed from what is left
+        store.retainIds(new long[]{1, 2, 3, 7});
+        engine.rebuild(store);
+        assertEquals(1, engine.query(store, since, CallStatsEngine.GroupBy.TYPE).totalCalls);
+        assertEquals(4, engine.query(store, 0, CallStatsEngine.GroupBy.TYPE).totalCalls);
+    }
+
+    @Test
+    public void bucketsByLocalHourAndDay() {
+        CallLogStore store = new CallLogStore();
+        CallStatsEngine engine = new CallStatsEngine();
+        insert(store, engine, 1, "555 0100", 10 * DAY + 5 * HOUR + 30 * 60_000L, 60, INCOMING, null);
+        insert(store, engine, 2, "555 0100", 10 * DAY + 23 * HOUR, 60, INCOMING, null);
+        insert(store, engine, 3, "555 0100", 11 * DAY, 60, INCOMING, null);
+
+        CallStatsEngine.Aggregates hours = engine.query(store, 0, CallStatsEngine.GroupBy.HOUR);
+        assertEquals(1, hours.calls[group(hours, 5)]);
+        assertEquals(1, hours.calls[group(hours, 23)]);
+        assertEquals(1, hours.calls[group(hours, 0)]);
+        CallStatsEngine.Aggregates days = engine.query(store, 0, CallStatsEngine.GroupBy.DAY);
+        assertEquals(2, days.calls[group(days, 10)]);
+        assertEquals(1, days.calls[group(days, 11)]);
+        assertEquals(10 * DAY, engine.dayStart(10));
+    }
+
+    @Test
+    public void regroupsAfterTimeZoneChange() {
+        CallLogStore store = new CallLogStore();
+        CallStatsEngine engine = new CallStatsEngine();
+        insert(store, engine, 1, "555 0100", 10 * DAY + 23 * HOUR, 60, INCOMING, null);
+        assertEquals(10, engine.query(store, 0, CallStatsEngine.GroupBy.DAY).keys[0]);
+
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+        CallStatsEngine.Aggregates hours = engine.query(store, 0, CallStatsEngine.GroupBy.HOUR);
+        assertEquals(1, hours.calls[group(hours, 1)]);
+        CallStatsEngine.Aggregates days = engine.query(store, 0, CallStatsEngine.GroupBy.DAY);
+        assertEquals(1, days.size);
+        assertEquals(11, days.keys[0]);
+        assertEquals(11 * DAY - 2 * HOUR, engine.dayStart(11));
+    }
+
+    private static void insert(CallLogStore store, CallStatsEngine engine, long id, String number,
+                               long date, int duration, int type, String name) {
+        store.insert(id, number, date, duration, type, name);
+        engine.add(number, name, date, duration, type);
+    }
+
+    private static int group(CallStatsEngine.Aggregates stats, long key) {
+        for (int g = 0; g < stats.size; g++) {
+            if (stats.keys[g] == key) return g;
+        }
+        fail("no group " + key);
+        return -1;
+    }
+}
@@ -0,0 +1,170 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link KeywordMatcher} and the accessibility text classifier built on it,
+ * plus an opt-in benchmark of the per-event cost against the old toString/regex/contains
+ * checks, see {@link Benchmarks}.
+ */
+public class KeywordMatcherTest {
+    private static final int A = 1, B = 2, C = 4;
+
+    @Test
+    public void findsOverlappingKeywordsCaseInsensitively() {
+        KeywordMatcher m = new KeywordMatcher(new String[]{"he", "she", "hers"}, new int[]{A, B, C});
+        assertEquals(A | B, m.match("uSHEx"));
+        assertEquals(A | C, m.match("HERS"));
+        assertEquals(0, m.match("h e r s"));
+        assertEquals(0, m.match(""));
+        assertEquals(0, m.match(null));
+    }
+
+    @Test
+    public void followsFailureLinksAfterPartialMatch() {
+        KeywordMatcher m = new KeywordMatcher(new String[]{"ringing", "ing"}, new int[]{A, B});
+        assertEquals(B, m.match("rinring"));
+        assertEquals(A | B, m.match("riringing"));
+        assertEquals(B, m.match("Ringéing"));
+    }
+
+    @Test
+    public void readsCharSequencesWithoutConverting() {
+        KeywordMatcher m = new KeywordMatcher(new String[]{"end call"}, new int[]{A});
+        assertEquals(A, m.match(new StringBuilder("Tap to END CALL")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonAsciiKeywords() {
+        new KeywordMatcher(new String[]{"appel terminé"}, new int[]{A});
+    }
+
+    @Test
+    public void recognizesDurations() {
+        for (String s : new String[]{"0:07", "12:34", " 00:12 ", "1:02:03", "10:00:59"}) {
+            assertTrue(s, AccessibilityCallService.isDuration(s));
+        }
+        for (String s : new String[]{"", ":12", "123:45", "1:2", "1:23:4", "1:23:45:67", "1:23 min", "a1:23"}) {
+            assertFalse(s, AccessibilityCallService.isDuration(s));
+        }
+    }
+
+    @Test
+    public void classifierAgreesWithLegacyChecks() {
+        for (List<CharSequence> event : sampleEvents()) {
+            int legacy = legacyClassify(event);
+            int signals = AccessibilityCallService.classifyText(event);
+            // The old checks had no candidate state: dialing and ringing counted as active
+            int merged = (signals & AccessibilityCallService.SIGNAL_END)
+                    | ((signals & (AccessibilityCallService.SIGNAL_ACTIVE | AccessibilityCallService.SIGNAL_CANDIDATE)) != 0
+                    ? AccessibilityCallService.SIGNAL_ACTIVE : 0);
+            assertEquals(event.toString(), legacy, merged);
+        }
+    }
+
+    @Test
+    public void splitsDialingAndRingingIntoCandidates() {
+        assertEquals(AccessibilityCallService.SIGNAL_CANDIDATE,
+                AccessibilityCallService.classifyText(texts("Calling…", "Mute")));
+        assertEquals(AccessibilityCallService.SIGNAL_CANDIDATE,
+                AccessibilityCallService.classifyText(texts("Ringing")));
+        assertEquals(AccessibilityCallService.SIGNAL_ACTIVE,
+                AccessibilityCallService.classifyText(texts("Ongoing call")));
+    }
+
+    @Test
+    public void benchmarkPerEventCost() {
+        Benchmarks.assumeEnabled();
+        List<List<CharSequence>> events = sampleEvents();
+        int rounds = 200_000;
+        int sink = 0;
+        // Warm up both paths so the JIT has compiled them
+        for (int i = 0; i < rounds; i++) {
+            List<CharSequence> e = events.get(i % events.size());
+            sink += legacyClassify(e) + AccessibilityCallService.classifyText(e);
+        }
+
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        long legacyBytes = allocatedBytes(mx);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) sink += legacyClassify(events.get(i % events.size()));
+        long legacyNanos = System.nanoTime() - t0;
+        legacyBytes = allocatedBytes(mx) - legacyBytes;
+
+        long matcherBytes = allocatedBytes(mx);
+        t0 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) sink += AccessibilityCallService.classifyText(events.get(i % events.size()));
+        long matcherNanos = System.nanoTime() - t0;
+        matcherBytes = allocatedBytes(mx) - matcherBytes;
+
+        System.out.printf(Locale.ROOT,
+                "per event: legacy %.0f ns / %.0f B, matcher %.0f ns / %.0f B (sink %d)%n",
+                (double) legacyNanos / rounds, (double) legacyBytes / rounds,
+                (double) matcherNanos / rounds, (double) matcherBytes / rounds, sink);
+
+        Assume.assumeTrue(legacyBytes >= 0 && matcherBytes >= 0);
+        assertTrue("matcher allocated " + matcherBytes + " bytes", matcherBytes < rounds);
+    }
+
+    private static long allocatedBytes(ThreadMXBean mx) {
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // Text nodes as reported by a few dialer screens
+    private static List<List<CharSequence>> sampleEvents() {
+        List<List<CharSequence>> events = new ArrayList<>();
+        events.add(texts("Calling…", "+1 555 0100", "Mute", "Keypad", "Speaker", "End call"));
+        events.add(texts("Incoming call", "Mobile", "Ringing", "Swipe up to answer"));
+        events.add(texts("00:12", "Jane Doe", "Mute", "Keypad", "Speaker", "Add call", "Hold"));
+        events.add(texts(" 1:02:03 ", "Ongoing call", "Bluetooth"));
+        events.add(texts("Call ended", "0:37"));
+        events.add(texts("Favorites", "Recents", "Contacts", "Voicemail"));
+        events.add(texts("Search contacts & places"));
+        events.add(texts());
+        return events;
+    }
+
+    private static List<CharSequence> texts(String... values) {
+        return new ArrayList<CharSequence>(Arrays.asList(values));
+    }
+
+    // The text checks of AccessibilityCallService.onAccessibilityEvent before KeywordMatcher,
+    // verbatim, with its indicatesActive/indicatesEnd flags as signal bits
+    private static final Pattern DURATION_PATTERN = Pattern.compile("^\\d{1,2}:\\d{2}(:\\d{2})?$");
+
+    private static int legacyClassify(List<CharSequence> texts) {
+        boolean indicatesActive = false;
+        boolean indicatesEnd = false;
+        for (CharSequence t : texts) {
+            if (t == null) continue;
+            String s = t.toString().trim();
+            if (s.isEmpty()) continue;
+            if (DURATION_PATTERN.matcher(s).matches()) {
+                indicatesActive = true;
+            }
+            String sl = s.toLowerCase(Locale.ROOT);
+            if (sl.contains("end call") || sl.contains("call ended") || sl.contains("ended")) {
+                indicatesEnd = true;
+            }
+            if (sl.contains("calling") || sl.contains("on going") || sl.contains("ongoing") || sl.contains("ringing")) {
+                indicatesActive = true;
+            }
+        }
+        return (indicatesActive ? AccessibilityCallService.SIGNAL_ACTIVE : 0)
+                | (indicatesEnd ? AccessibilityCallService.SIGNAL_END : 0);
+    }
+}
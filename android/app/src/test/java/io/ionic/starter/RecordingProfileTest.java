@@ -0,0 +1,39 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for resolving the profile names the settings and plugin accept.
+ */
+public class RecordingProfileTest {
+    @Test
+    public void everyListedNameIsKnownAndResolvesToItself() {
+        for (String name : RecordingProfile.names()) {
+            assertTrue(name, RecordingProfile.isKnown(name));
+            // Opus resolution depends on the device's encoders
+            if (name.equals(RecordingProfile.VOICE_16K_OPUS.name)) continue;
+            assertEquals(name, RecordingProfile.forName(name).name);
+        }
+        assertFalse(RecordingProfile.isKnown("mp3-128k"));
+        assertSame(RecordingProfile.DEFAULT, RecordingProfile.forName(null));
+    }
+
+    @Test
+    public void encodedProfilesAreFarSmallerThanPcm() {
+        RecordingProfile aac = RecordingProfile.VOICE_16K_AAC;
+        assertFalse(aac.isPcm());
+        assertEquals("m4a", aac.extension);
+        assertTrue(aac.bitRate / 8 * 6 <= RecordingProfile.PCM_16K_MONO.getPcmByteRate());
+    }
+
+    @Test
+    public void stereoVariantKeepsFormatAndDoublesBitRate() {
+        RecordingProfile stereo = RecordingProfile.VOICE_16K_AAC.toStereo();
+        assertEquals(2, stereo.channels);
+        assertEquals(48000, stereo.bitRate);
+        assertEquals("voice-16k-stereo-24kbps", stereo.name);
+        assertSame(stereo, stereo.toStereo());
+    }
+}
@@ -0,0 +1,72 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for the MP4 box walk that tells a finished MP4 from one a killed muxer left
+ * without its index.
+ */
+public class RecordingRecoveryTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void finishedFileHasMoov() throws Exception {
+        File f = write("done.m4a", box("ftyp", 16), box("mdat", 5000), box("moov", 700));
+        assertArrayEquals(new long[]{1, 5000}, RecordingRecovery.scanBoxes(f));
+    }
+
+    @Test
+    public void killedMuxerLeavesMdatToEndOfFile() throws Exception {
+        // Size 0 means "to end of file"; a placeholder size runs past it
+        File zero = write("zero.m4a", box("ftyp", 16), header("mdat", 0), new byte[4096]);
+        assertArrayEquals(new long[]{0, 4096}, RecordingRecovery.scanBoxes(zero));
+        File stale = write("stale.m4a", box("ftyp", 16), header("mdat", 1 << 20), new byte[4096]);
+        assertArrayEquals(new long[]{0, 4096}, RecordingRecovery.scanBoxes(stale));
+    }
+
+    @Test
+    public void largeSizeHeaderIsFollowed() throws Exception {
+        ByteBuffer large = ByteBuffer.allocate(16).putInt(1).put("mdat".getBytes(StandardCharsets.US_ASCII))
+                .putLong(16 + 300);
+        File f = write("large.m4a", box("ftyp", 16), large.array(), new byte[300], box("moov", 100));
+        assertArrayEquals(new long[]{1, 300}, RecordingRecovery.scanBoxes(f));
+    }
+
+    @Test
+    public void headerOnlyFileHasNoAudio() throws Exception {
+        File f = write("empty.m4a", box("ftyp", 16));
+        assertArrayEquals(new long[]{0, 0}, RecordingRecovery.scanBoxes(f));
+    }
+
+    private File write(String name, byte[]... parts) throws IOException {
+        File f = tmp.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            for (byte[] p : parts) out.write(p);
+        }
+        return f;
+    }
+
+    // A box with a zeroed payload of the given size
+    private static byte[] box(String type, int payload) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        b.write(header(type, 8 + payload), 0, 8);
+        b.write(new byte[payload], 0, payload);
+        return b.toByteArray();
+    }
+
+    private static byte[] header(String type, int size) {
+        return ByteBuffer.allocate(8).putInt(size).put(type.getBytes(StandardCharsets.US_ASCII)).array();
+    }
+}
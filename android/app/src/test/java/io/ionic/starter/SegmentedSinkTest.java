@@ -0,0 +1,159 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link SegmentedSink}: frame-exact boundaries, no audio lost across a handoff,
+ * the listener's view of each segment, and falling back when a segment cannot be opened.
+ */
+public class SegmentedSinkTest {
+    private static final int RATE = 8000;
+    private static final int FRAME = 4;
+    private static final int BYTE_RATE = RATE * FRAME;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void rotatesOnFrameBoundariesWithoutLosingBytes() throws Exception {
+        File first = new File(tmp.getRoot(), "call_1.wav");
+        Events events = new Events();
+        SegmentedSink sink = new SegmentedSink(first, 20_000, BYTE_RATE, FRAME, FileSink::new, events);
+        // 50 s in chunks that never line up with a frame or a boundary
+        byte[] pcm = counting(BYTE_RATE * 50);
+        for (int off = 0; off < pcm.length; off += 7777) {
+            sink.write(pcm, off, Math.min(7777, pcm.length - off));
+        }
+        sink.close();
+
+        File second = SegmentedSink.segmentFile(first, 1);
+        File third = SegmentedSink.segmentFile(first, 2);
+        assertEquals("call_1_p002.wav", second.getName());
+        assertEquals(20 * BYTE_RATE, first.length());
+        assertEquals(20 * BYTE_RATE, second.length());
+        assertEquals(10 * BYTE_RATE, third.length());
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (File f : new File[]{first, second, third}) joined.write(Files.readAllBytes(f.toPath()));
+        assertArrayEquals(pcm, joined.toByteArray());
+
+        assertEquals(Arrays.asList("open call_1.wav@0", "close call_1.wav 20000", "open call_1_p002.wav@20000",
+                "close call_1_p002.wav 20000", "open call_1_p003.wav@40000", "close call_1_p003.wav 10000"),
+                events.log);
+    }
+
+    @Test
+    public void closeRemovesSegmentOpenedAheadOfAnUnreachedBoundary() throws Exception {
+        File first = new File(tmp.getRoot(), "call_2.wav");
+        SegmentedSink sink = new SegmentedSink(first, 20_000, BYTE_RATE, FRAME, FileSink::new, new Events());
+        // Inside the pre-open window of the first boundary
+        byte[] pcm = new byte[15 * BYTE_RATE];
+        sink.write(pcm, 0, pcm.length);
+        sink.close();
+        assertEquals(pcm.length, first.length());
+        assertFalse(SegmentedSink.segmentFile(first, 1).exists());
+    }
+
+    @Test
+    public void extendsCurrentSegmentWhenNextCannotBeOpened() throws Exception {
+        File first = new File(tmp.getRoot(), "call_3.wav");
+        Events events = new Events();
+        int[] opens = {0};
+        SegmentedSink sink = new SegmentedSink(first, 10_000, BYTE_RATE, FRAME, file -> {
+            // The first attempt at the second segment fails
+            if (opens[0]++ == 1) throw new IOException("disk full");
+            return new FileSink(file);
+        }, events);
+        byte[] pcm = counting(BYTE_RATE * 25);
+        sink.write(pcm, 0, pcm.length);
+        sink.close();
+
+        assertEquals(20 * BYTE_RATE, first.length());
+        assertEquals(5 * BYTE_RATE, SegmentedSink.segmentFile(first, 1).length());
+        assertFalse(SegmentedSink.segmentFile(first, 2).exists());
+        assertTrue(events.log.contains("error call_3_p002.wav"));
+    }
+
+    @Test
+    public void discardedSessionHandsBackItsSegment() throws Exception {
+        File first = new File(tmp.getRoot(), "call_4.wav");
+        Events events = new Events();
+        SegmentedSink sink = new SegmentedSink(first, 5_000, BYTE_RATE, FRAME, FileSink::new, events);
+        // Far enough in that the next segment was opened ahead
+        byte[] pcm = new byte[3 * BYTE_RATE];
+        sink.write(pcm, 0, pcm.length);
+        sink.discard();
+        sink.close();
+        assertEquals(Arrays.asList("open call_4.wav@0", "discard call_4.wav"), events.log);
+        assertFalse(SegmentedSink.segmentFile(first, 1).exists());
+    }
+
+    @Test
+    public void sessionStemIgnoresPartSuffixAndExtension() {
+        assertEquals("call_20260101_101500", SegmentedSink.sessionStem("call_20260101_101500.wav"));
+        assertEquals("call_20260101_101500", SegmentedSink.sessionStem("call_20260101_101500_p012.m4a"));
+        assertEquals("call_x_pabc", SegmentedSink.sessionStem("call_x_pabc.wav"));
+    }
+
+    private static byte[] counting(int length) {
+        byte[] pcm = new byte[length];
+        for (int i = 0; i < length; i++) pcm[i] = (byte) (i * 31 + i / 251);
+        return pcm;
+    }
+
+    private static final class Events implements SegmentedSink.Listener {
+        final List<String> log = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onSegmentOpened(SegmentedSink.Segment segment) {
+            log.add("open " + segment.file.getName() + "@" + segment.startMs);
+        }
+
+        @Override
+        public void onSegmentClosed(SegmentedSink.Segment segment, boolean ok) {
+            log.add("close " + segment.file.getName() + " " + segment.durationMs);
+        }
+
+        @Override
+        public void onSegmentDiscarded(SegmentedSink.Segment segment) {
+            log.add("discard " + segment.file.getName());
+        }
+
+        @Override
+        public void onSegmentError(File file, Exception error) {
+            log.add("error " + file.getName());
+        }
+    }
+
+    private static final class FileSink implements PcmSink {
+        private final FileOutputStream out;
+
+        FileSink(File file) throws IOException {
+            out = new FileOutputStream(file);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
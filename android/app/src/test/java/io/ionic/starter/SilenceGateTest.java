@@ -0,0 +1,180 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tests for {@link SilenceGate}: which audio survives, the segment index that maps the
+ * file back to call time, and the saving on a hold-heavy call. Its throughput is an opt-in
+ * benchmark, see {@link Benchmarks}.
+ */
+public class SilenceGateTest {
+    private static final int RATE = 16000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void keepsShortPausesAndDropsLongOnes() throws Exception {
+        File index = new File(tmp.getRoot(), "a.seg");
+        ByteSink out = new ByteSink();
+        SilenceGate gate = new SilenceGate(out, index, RATE, 1);
+        Random random = new Random(1);
+        write(gate, tone(2000));
+        write(gate, noise(random, 500, 20));
+        write(gate, tone(2000));
+        write(gate, noise(random, 10_000, 20));
+        write(gate, tone(1000));
+        gate.close();
+        assertTrue(out.closed);
+
+        // Everything but 10 s - KEEP_SILENCE_MS - LOOKBACK_MS of the long pause
+        long expectedMs = 2000 + 500 + 2000 + SilenceGate.KEEP_SILENCE_MS + SilenceGate.LOOKBACK_MS + 1000;
+        assertEquals(expectedMs * RATE / 1000 * 2, out.bytes.size());
+
+        int[] rate = new int[1];
+        long[] pairs = SilenceGate.readIndex(index, rate);
+        assertEquals(RATE, rate[0]);
+        assertArrayEquals(new long[]{0, 0,
+                ms(2000 + 500 + 2000 + 10_000 - SilenceGate.LOOKBACK_MS),
+                ms(2000 + 500 + 2000 + SilenceGate.KEEP_SILENCE_MS)}, pairs);
+    }
+
+    @Test
+    public void voiceAfterSilenceSurvivesWithItsOnset() throws Exception {
+        File index = new File(tmp.getRoot(), "b.seg");
+        ByteSink out = new ByteSink();
+        SilenceGate gate = new SilenceGate(out, index, RATE, 1);
+        write(gate, new byte[(int) ms(5000) * 2]);
+        byte[] tone = tone(500);
+        write(gate, tone);
+        gate.close();
+
+        byte[] file = out.bytes.toByteArray();
+        // The tone ends the file untouched, right after the lookback
+        int toneAt = file.length - tone.length;
+        assertEquals(ms(SilenceGate.KEEP_SILENCE_MS + SilenceGate.LOOKBACK_MS) * 2, toneAt);
+        for (int i = 0; i < tone.length; i++) assertEquals(tone[i], file[toneAt + i]);
+    }
+
+    @Test
+    public void stereoAndOddChunksKeepFramesAligned() throws Exception {
+        File index = new File(tmp.getRoot(), "c.seg");
+        ByteSink out = new ByteSink();
+        SilenceGate gate = new SilenceGate(out, index, RATE, 2);
+        byte[] pcm = new byte[(int) ms(4000) * 4 + 6];
+        for (int off = 0; off < pcm.length; off += 777) {
+            gate.write(pcm, off, Math.min(777, pcm.length - off));
+        }
+        gate.close();
+        // The kept pause and lookback, then the one-frame tail after the drop
+        assertEquals(ms(SilenceGate.KEEP_SILENCE_MS + SilenceGate.LOOKBACK_MS) * 4 + 4, out.bytes.size());
+        long[] pairs = SilenceGate.readIndex(index, new int[1]);
+        assertArrayEquals(new long[]{0, 0, ms(4000 - SilenceGate.LOOKBACK_MS),
+                ms(SilenceGate.KEEP_SILENCE_MS)}, pairs);
+    }
+
+    @Test
+    public void keepsLessThanHalfOfHoldHeavyCall() throws Exception {
+        File index = new File(tmp.getRoot(), "d.seg");
+        ByteSink out = new ByteSink();
+        long callMs = writeHoldHeavyCall(new SilenceGate(out, index, RATE, 1));
+
+        double kept = out.bytes.size() / (double) (ms(callMs) * 2);
+        assertTrue("kept " + kept, kept < 0.5);
+        // One 16-byte entry per resumption keeps the index sparse
+        assertTrue(pairsIn(index) > 1 && index.length() < 1024);
+    }
+
+    @Test
+    public void benchmarkHoldHeavyCall() throws Exception {
+        Benchmarks.assumeEnabled();
+        ByteSink out = new ByteSink();
+        long start = System.nanoTime();
+        long callMs = writeHoldHeavyCall(new SilenceGate(out, new File(tmp.getRoot(), "b.seg"), RATE, 1));
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long callBytes = ms(callMs) * 2;
+        System.out.printf(Locale.ROOT, "%d min call: kept %.0f%% of %d KB, %.0fx realtime%n",
+                callMs / 60_000, out.bytes.size() * 100.0 / callBytes, callBytes / 1024, callMs / 1000.0 / seconds);
+    }
+
+    // 20 minutes: talk in bursts around a 12 minute hold with line noise; returns the call length
+    private static long writeHoldHeavyCall(SilenceGate gate) throws IOException {
+        Random random = new Random(3);
+        long callMs = 0;
+        for (int minute = 0; minute < 20; minute++) {
+            boolean hold = minute >= 4 && minute < 16;
+            for (int s = 0; s < 60; s += 5) {
+                boolean talk = !hold && random.nextInt(3) > 0;
+                write(gate, talk ? tone(5000) : noise(random, 5000, 30));
+                callMs += 5000;
+            }
+        }
+        gate.close();
+        return callMs;
+    }
+
+    private static int pairsIn(File index) throws IOException {
+        return SilenceGate.readIndex(index, new int[1]).length / 2;
+    }
+
+    private static long ms(long ms) {
+        return ms * RATE / 1000;
+    }
+
+    // Writes in engine-sized batches that do not line up with the analysis windows
+    private static void write(SilenceGate gate, byte[] pcm) throws IOException {
+        for (int off = 0; off < pcm.length; off += 5000) {
+            gate.write(pcm, off, Math.min(5000, pcm.length - off));
+        }
+    }
+
+    // A voiced-like 220 Hz tone at about -12 dBFS
+    private static byte[] tone(int durationMs) {
+        int n = (int) ms(durationMs);
+        byte[] pcm = new byte[n * 2];
+        for (int i = 0; i < n; i++) {
+            int s = (int) (8000 * Math.sin(2 * Math.PI * 220 * i / RATE));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    // Low-level background noise
+    private static byte[] noise(Random random, int durationMs, int amplitude) {
+        int n = (int) ms(durationMs);
+        byte[] pcm = new byte[n * 2];
+        for (int i = 0; i < n; i++) {
+            int s = random.nextInt(2 * amplitude + 1) - amplitude;
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    private static final class ByteSink implements PcmSink {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean closed;
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            bytes.write(data, offset, length);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link StereoMixer}: interleaving, holding a channel back by whole frames and
+ * turning capture timestamps into those holds.
+ */
+public class StereoMixerTest {
+    private static final int RATE = 8000;
+
+    @Test
+    public void interleavesLeftThenRightUpToTheShorterInput() {
+        StereoMixer mixer = new StereoMixer(16);
+        int frames = mixer.mix(mono(1, 2, 3, 4), 0, 4, mono(-1, -2, -3), 0, 3);
+        assertEquals(3, frames);
+        assertEquals(3, mixer.consumed(StereoMixer.LEFT));
+        assertEquals(3, mixer.consumed(StereoMixer.RIGHT));
+        assertArrayEquals(new short[]{1, -1, 2, -2, 3, -3}, stereo(mixer, frames));
+    }
+
+    @Test
+    public void outputCapacityBoundsOneCall() {
+        StereoMixer mixer = new StereoMixer(2);
+        byte[] left = mono(1, 2, 3);
+        byte[] right = mono(4, 5, 6);
+        assertEquals(2, mixer.mix(left, 0, 3, right, 0, 3));
+        assertEquals(1, mixer.mix(left, 4, 1, right, 4, 1));
+        assertArrayEquals(new short[]{3, 6}, stereo(mixer, 1));
+    }
+
+    @Test
+    public void delayedChannelStartsWithSilenceAndLosesNothing() {
+        StereoMixer mixer = new StereoMixer(16);
+        mixer.delay(StereoMixer.RIGHT, 2);
+        int frames = mixer.mix(mono(1, 2, 3, 4), 0, 4, mono(7, 8, 9), 0, 3);
+        assertEquals(4, frames);
+        assertEquals(2, mixer.consumed(StereoMixer.RIGHT));
+        assertArrayEquals(new short[]{1, 0, 2, 0, 3, 7, 4, 8}, stereo(mixer, frames));
+    }
+
+    @Test
+    public void midStreamHoldRepeatsLastSampleUnlessSilenced() {
+        StereoMixer mixer = new StereoMixer(16);
+        mixer.mix(mono(1), 0, 1, mono(5), 0, 1);
+        mixer.delay(StereoMixer.LEFT, 1);
+        int frames = mixer.mix(mono(2), 0, 1, mono(6, 7), 0, 2);
+        assertArrayEquals(new short[]{1, 6, 2, 7}, stereo(mixer, frames));
+
+        mixer.silence(StereoMixer.RIGHT);
+        mixer.delay(StereoMixer.RIGHT, 2);
+        frames = mixer.mix(mono(3, 4), 0, 2, new byte[0], 0, 0);
+        assertArrayEquals(new short[]{3, 0, 4, 0}, stereo(mixer, frames));
+    }
+
+    @Test
+    public void holdingBothChannelsCancelsOut() {
+        StereoMixer mixer = new StereoMixer(16);
+        mixer.delay(StereoMixer.LEFT, 5);
+        mixer.delay(StereoMixer.RIGHT, 3);
+        assertEquals(2, mixer.held(StereoMixer.LEFT));
+        assertEquals(0, mixer.held(StereoMixer.RIGHT));
+    }
+
+    @Test
+    public void alignHoldsBackTheNewerChannel() {
+        StereoMixer mixer = new StereoMixer(16);
+        // The far end's next frame was captured 2 ms after the mic's: 16 frames at 8 kHz
+        assertEquals(16, mixer.align(1_000_000_000L, 1_002_000_000L, RATE, 0));
+        assertEquals(16, mixer.held(StereoMixer.RIGHT));
+        // The same instants again: the hold already covers it
+        assertEquals(0, mixer.align(1_000_000_000L, 1_002_000_000L, RATE, 0));
+        // The mic has since drifted 1 ms ahead
+        assertEquals(-8, mixer.align(1_001_000_000L, 1_002_000_000L, RATE, 0));
+        assertEquals(8, mixer.held(StereoMixer.RIGHT));
+    }
+
+    @Test
+    public void alignIgnoresJitterWithinTolerance() {
+        StereoMixer mixer = new StereoMixer(16);
+        assertEquals(0, mixer.align(1_000_000_000L, 1_000_400_000L, RATE, 4));
+        assertEquals(0, mixer.held(StereoMixer.RIGHT));
+        assertEquals(-5, mixer.align(1_000_625_000L, 1_000_000_000L, RATE, 4));
+        assertEquals(5, mixer.held(StereoMixer.LEFT));
+    }
+
+    private static byte[] mono(int... samples) {
+        byte[] pcm = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            pcm[i * 2] = (byte) samples[i];
+            pcm[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        return pcm;
+    }
+
+    private static short[] stereo(StereoMixer mixer, int frames) {
+        byte[] out = mixer.output();
+        short[] samples = new short[frames * 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((out[i * 2] & 0xff) | (out[i * 2 + 1] << 8));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,211 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Round-trip tests for {@link WavFileWriter}. The multi-gigabyte cases rely on sparse
+ * files, so they only run on Linux where {@code setLength} does not allocate blocks.
+ */
+public class WavFileWriterTest {
+    private static final long FOUR_GB = 0x100000000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void closeWritesStandardHeader() throws Exception {
+        File f = tmp.newFile("plain.wav");
+        WavFileWriter w = new WavFileWriter(f, 16000, 1, 16);
+        w.write(pattern(3200, 0), 0, 3200);
+        w.close();
+
+        WavFileWriter.Info info = WavFileWriter.readInfo(f);
+        assertFalse(info.rf64);
+        assertEquals(1, info.formatTag);
+        assertEquals(16000, info.sampleRate);
+        assertEquals(1, info.channels);
+        assertEquals(16, info.bitsPerSample);
+        assertEquals(WavFileWriter.HEADER_SIZE, info.dataOffset);
+        assertEquals(3200, info.dataLength);
+        assertEquals(WavFileWriter.HEADER_SIZE + 3200, f.length());
+        assertEquals("RIFF", tagAt(f, 0));
+        assertEquals(WavFileWriter.HEADER_SIZE + 3200 - 8, intAt(f, 4));
+    }
+
+    @Test
+    public void unclosedFileIsPlayableUpToLastCheckpoint() throws Exception {
+        File f = tmp.newFile("killed.wav");
+        // 100 ms at 8 kHz mono 16-bit = 1600 bytes per checkpoint
+        WavFileWriter w = new WavFileWriter(f, 8000, 1, 16, 100);
+        w.write(new byte[1600], 0, 1600);
+        w.write(new byte[1000], 0, 1000);
+
+        WavFileWriter.Info info = WavFileWriter.readInfo(f);
+        assertEquals(1600, info.dataLength);
+        assertEquals(WavFileWriter.HEADER_SIZE + 2600, f.length());
+        w.close();
+    }
+
+    @Test
+    public void repairRecomputesSizesFromFileLength() throws Exception {
+        File f = tmp.newFile("crashed.wav");
+        WavFileWriter w = new WavFileWriter(f, 8000, 1, 16, 60_000);
+        w.write(new byte[4001], 0, 4001);
+        // Never closed: header still says 0, and the last frame is torn
+
+        WavFileWriter.Info info = WavFileWriter.repair(f);
+        assertEquals(4000, info.dataLength);
+        assertEquals(WavFileWriter.HEADER_SIZE + 4000, f.length());
+    }
+
+    @Test
+    public void repairPlaceholderWritesCanonicalHeader() throws Exception {
+        File f = tmp.newFile("placeholder.wav");
+        byte[] audio = pattern(8001, 5);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.write(new byte[WavFileWriter.PLACEHOLDER_HEADER_SIZE]);
+            raf.write(audio);
+        }
+
+        WavFileWriter.Info info = WavFileWriter.repairPlaceholder(f, 44100, 1, 16);
+        assertEquals(44100, info.sampleRate);
+        assertEquals(1, info.channels);
+        assertEquals(44, info.dataOffset);
+        assertEquals(8000, info.dataLength);
+        assertEquals("RIFF", tagAt(f, 0));
+        assertEquals(36 + 8000, intAt(f, 4));
+        assertArrayEquals(Arrays.copyOf(audio, 8000), readAt(f, 44, 8000));
+
+        // Already has a header: left alone
+        assertNull(WavFileWriter.repairPlaceholder(f, 8000, 2, 16));
+        assertEquals(44100, WavFileWriter.readInfo(f).sampleRate);
+    }
+
+    @Test
+    public void resumedWriterSwitchesToRf64PastFourGigabytes() throws Exception {
+        assumeSparseFiles();
+        File f = tmp.newFile("long.wav");
+        new WavFileWriter(f, 44100, 2, 16).close();
+        long preallocated = FOUR_GB - 1024;
+        setLength(f, WavFileWriter.HEADER_SIZE + preallocated);
+
+        WavFileWriter w = WavFileWriter.resume(f, 1000);
+        assertFalse(w.isRf64());
+        byte[] tail = pattern(8192, 7);
+        w.write(tail, 0, tail.length);
+        assertTrue(w.isRf64());
+        w.close();
+
+        long expected = preallocated + tail.length;
+        WavFileWriter.Info info = WavFileWriter.readInfo(f);
+        assertTrue(info.rf64);
+        assertEquals(expected, info.dataLength);
+        assertEquals(WavFileWriter.HEADER_SIZE, info.dataOffset);
+        assertEquals(44100, info.sampleRate);
+        assertEquals(2, info.channels);
+
+        assertEquals("RF64", tagAt(f, 0));
+        assertEquals(0xFFFFFFFFL, intAt(f, 4));
+        assertEquals("ds64", tagAt(f, 12));
+        assertEquals(WavFileWriter.HEADER_SIZE - 8 + expected, longAt(f, 20));
+        assertEquals(expected, longAt(f, 28));
+        assertEquals(expected / 4, longAt(f, 36));
+        assertEquals(0xFFFFFFFFL, intAt(f, WavFileWriter.HEADER_SIZE - 4));
+        assertArrayEquals(tail, readAt(f, WavFileWriter.HEADER_SIZE + preallocated, tail.length));
+    }
+
+    @Test
+    public void staysRiffUpToTheLastRepresentableSize() throws Exception {
+        assumeSparseFiles();
+        File f = tmp.newFile("edge.wav");
+        new WavFileWriter(f, 8000, 1, 16).close();
+        long maxData = 0xFFFFFFFFL - (WavFileWriter.HEADER_SIZE - 8) - 1;
+        setLength(f, WavFileWriter.HEADER_SIZE + maxData);
+
+        WavFileWriter.Info info = WavFileWriter.repair(f);
+        assertFalse(info.rf64);
+        assertEquals(maxData, info.dataLength);
+
+        setLength(f, WavFileWriter.HEADER_SIZE + maxData + 2);
+        info = WavFileWriter.repair(f);
+        assertTrue(info.rf64);
+        assertEquals(maxData + 2, info.dataLength);
+    }
+
+    @Test
+    public void repairClampsLegacyHeaderPastFourGigabytes() throws Exception {
+        assumeSparseFiles();
+        File f = tmp.newFile("legacy.wav");
+        writeLegacyHeader(f, 8000, 1, 16);
+        setLength(f, 44 + FOUR_GB + 100);
+
+        WavFileWriter.Info info = WavFileWriter.repair(f);
+        // No room for ds64 in a 44-byte header: sizes become the "unknown" marker
+        assertFalse(info.rf64);
+        assertEquals(44, info.dataOffset);
+        assertEquals(0xFFFFFFFFL, info.dataLength);
+        assertEquals("fmt ", tagAt(f, 12));
+    }
+
+    private static void assumeSparseFiles() {
+        Assume.assumeTrue("sparse files are only assumed on Linux",
+                System.getProperty("os.name", "").toLowerCase().contains("linux"));
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) b[i] = (byte) (i * 31 + seed);
+        return b;
+    }
+
+    private static void setLength(File f, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static byte[] readAt(File f, long position, int length) throws IOException {
+        byte[] b = new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek(position);
+            raf.readFully(b);
+        }
+        return b;
+    }
+
+    private static String tagAt(File f, long position) throws IOException {
+        return new String(readAt(f, position, 4), "US-ASCII");
+    }
+
+    private static long intAt(File f, long position) throws IOException {
+        return ByteBuffer.wrap(readAt(f, position, 4)).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL;
+    }
+
+    private static long longAt(File f, long position) throws IOException {
+        return ByteBuffer.wrap(readAt(f, position, 8)).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    private static void writeLegacyHeader(File f, int sampleRate, int channels, int bits) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        b.put("RIFF".getBytes("US-ASCII")).putInt(36).put("WAVE".getBytes("US-ASCII"));
+        b.put("fmt ".getBytes("US-ASCII")).putInt(16).putShort((short) 1).putShort((short) channels);
+        b.putInt(sampleRate).putInt(sampleRate * channels * bits / 8);
+        b.putShort((short) (channels * bits / 8)).putShort((short) bits);
+        b.put("data".getBytes("US-ASCII")).putInt(0);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.write(b.array());
+        }
+    }
+}
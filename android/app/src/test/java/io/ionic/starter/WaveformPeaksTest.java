@@ -0,0 +1,118 @@
+package io.ionic.starter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Round-trip tests for {@link WaveformPeaks}: the pyramid written during capture, range
+ * reads per level, and sidecars left behind by an unclosed recording.
+ */
+public class WaveformPeaksTest {
+    private static final int RATE = 16000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void buildsEveryLevelAndForwardsAudio() throws Exception {
+        File sidecar = new File(tmp.getRoot(), "a.peaks");
+        CountingSink inner = new CountingSink();
+        WaveformPeaks.Writer w = new WaveformPeaks.Writer(inner, sidecar, RATE, 1);
+        // 60 s of a ramp that repeats every second, written in odd-sized chunks
+        byte[] pcm = ramp(RATE * 60);
+        for (int off = 0; off < pcm.length; off += 3001) {
+            w.write(pcm, off, Math.min(3001, pcm.length - off));
+        }
+        w.close();
+        assertEquals(pcm.length, inner.bytes);
+        assertTrue(inner.closed);
+
+        WaveformPeaks.Range all = WaveformPeaks.read(sidecar, 0, 0, 1);
+        // Coarsest level: 256 * 4^5 frames per peak
+        assertEquals(256L * 1024, all.windowFrames);
+        assertEquals((RATE * 60 + 256L * 1024 - 1) / (256L * 1024), all.count());
+
+        WaveformPeaks.Range fine = WaveformPeaks.read(sidecar, 0, 0, RATE * 60 / 256);
+        assertEquals(256, fine.windowFrames);
+        assertEquals(RATE * 60 / 256, fine.count());
+        for (int i = 0; i < fine.count(); i++) {
+            assertTrue(fine.minMax[2 * i] <= fine.minMax[2 * i + 1]);
+        }
+        // Every coarse peak spans a full ramp period
+        assertEquals(-128, all.minMax[0]);
+        assertEquals(127, all.minMax[1]);
+    }
+
+    @Test
+    public void readsTheRequestedRangeAtTheRequestedDetail() throws Exception {
+        File sidecar = new File(tmp.getRoot(), "b.peaks");
+        WaveformPeaks.Writer w = new WaveformPeaks.Writer(new CountingSink(), sidecar, RATE, 1);
+        byte[] pcm = new byte[RATE * 2 * 10];
+        // Silence, then a full-scale burst from 4 s to 5 s
+        for (int i = RATE * 4; i < RATE * 5; i++) {
+            pcm[2 * i] = (byte) 0xff;
+            pcm[2 * i + 1] = (byte) ((i & 1) == 0 ? 0x7f : 0x80);
+        }
+        w.write(pcm, 0, pcm.length);
+        w.close();
+
+        WaveformPeaks.Range r = WaveformPeaks.read(sidecar, 4000, 5000, 50);
+        // 1 s is 62.5 level-0 peaks and 15.6 level-1 peaks; level 0 is the coarsest with 50
+        assertEquals(256, r.windowFrames);
+        assertEquals(4000.0, r.startMs(), r.windowMs());
+        assertTrue(r.count() >= 62 && r.count() <= 64);
+        // 4 s falls on a window boundary, so the first peak is all burst
+        assertEquals(-128, r.minMax[0]);
+        assertEquals(127, r.minMax[1]);
+
+        WaveformPeaks.Range before = WaveformPeaks.read(sidecar, 0, 3000, 10);
+        for (byte b : before.minMax) assertEquals(0, b);
+    }
+
+    @Test
+    public void unclosedSidecarServesLevelZero() throws Exception {
+        File sidecar = new File(tmp.getRoot(), "c.peaks");
+        WaveformPeaks.Writer w = new WaveformPeaks.Writer(new CountingSink(), sidecar, RATE, 2);
+        // 30 s of stereo is 1875 level-0 peaks, flushed in 512-peak blocks
+        byte[] pcm = ramp(RATE * 2 * 30);
+        w.write(pcm, 0, pcm.length);
+
+        WaveformPeaks.Range r = WaveformPeaks.read(sidecar, 0, 0, 100);
+        assertEquals(256, r.windowFrames);
+        assertEquals(1536, r.count());
+        w.close();
+        assertEquals(RATE * 30 / 256, WaveformPeaks.read(sidecar, 0, 0, 100_000).count());
+    }
+
+    // 16-bit samples sweeping the full range once per RATE samples
+    private static byte[] ramp(int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            int s = (int) ((i % RATE) * 65535L / (RATE - 1)) - 32768;
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        return pcm;
+    }
+
+    private static final class CountingSink implements PcmSink {
+        long bytes;
+        boolean closed;
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            bytes += length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+}
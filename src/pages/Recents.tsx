@@ -1,5 +1,5 @@
 // Recents.tsx
-import React, { useEffect, useState } from "react";
+import React, { useEffect, useRef, useState } from "react";
 import {
   IonPage,
   IonContent,
@@ -24,9 +24,10 @@ import {
   personCircleOutline,
   time,
   search,
+  micOutline,
 } from "ionicons/icons";
 
-import CallHistory, { CallHistoryEntry } from "../plugins/call-history";
+import CallHistory, { CallHistoryEntry, streamCallHistory } from "../plugins/call-history";
 import "./CallHistory.css"; // reuse same css
 
 export const Recents: React.FC = () => {
@@ -34,31 +35,56 @@ export const Recents: React.FC = () => {
   const [loading, setLoading] = useState(false);
   const [error, setError] = useState("");
   const [searchText, setSearchText] = useState("");
+  // Native matches over the whole log; null while no search is active or it failed
+  const [searchResults, setSearchResults] = useState<CallHistoryEntry[] | null>(null);
+  const searchSeq = useRef(0);
+
+  const cancelStream = useRef<(() => Promise<void>) | undefined>(undefined);
+  const mounted = useRef(true);
 
   useEffect(() => {
+    mounted.current = true;
     loadCallHistory();
+    return () => {
+      // Stop the native side from walking the log for a view that is gone
+      mounted.current = false;
+      cancelStream.current?.();
+      cancelStream.current = undefined;
+    };
   }, []);
 
+  // Rows are rendered chunk by chunk as they stream in
   const loadCallHistory = async () => {
+    cancelStream.current?.();
+    cancelStream.current = undefined;
     setLoading(true);
     setError("");
+    setCalls([]);
 
     try {
-      if (typeof CallHistory.getCallHistory !== "function") {
+      if (typeof CallHistory.streamCallHistory !== "function") {
         throw new Error("Call history feature is not available on this device");
       }
 
-      const result = await CallHistory.getCallHistory({ limit: 50 });
-      if (result.calls && result.calls.length > 0) {
-        setCalls(result.calls);
-      } else {
-        setCalls(generateDummyData());
-      }
+      let received = 0;
+      const cancel = await streamCallHistory({ limit: 50, chunkSize: 20 }, (chunk) => {
+        if (chunk.calls.length > 0) {
+          received += chunk.calls.length;
+          setCalls((prev) => prev.concat(chunk.calls));
+          setLoading(false);
+        }
+        if (chunk.done) {
+          if (chunk.error) setError(chunk.error);
+          if (received === 0 && !chunk.cancelled) setCalls(generateDummyData());
+          setLoading(false);
+        }
+      });
+      if (mounted.current) cancelStream.current = cancel;
+      else cancel();
     } catch (err: any) {
       console.error("Error loading call history:", err);
       setError(err.message || "Failed to load call history");
       setCalls(generateDummyData());
-    } finally {
       setLoading(false);
     }
   };
@@ -145,11 +171,30 @@ export const Recents: React.FC = () => {
     }
   };
 
-  const filteredCalls = calls.filter(
-    (c) =>
-      c.name?.toLowerCase().includes(searchText.toLowerCase()) ||
-      c.number?.toLowerCase().includes(searchText.toLowerCase())
-  );
+  useEffect(() => {
+    const query = searchText.trim();
+    const seq = ++searchSeq.current;
+    if (!query || typeof CallHistory.searchCallHistory !== "function") {
+      setSearchResults(null);
+      return;
+    }
+    CallHistory.searchCallHistory({ query, limit: 50 })
+      .then(({ matches }) => {
+        // Drop answers to keystrokes that have since been superseded
+        if (seq === searchSeq.current && mounted.current) setSearchResults(matches);
+      })
+      .catch(() => {
+        if (seq === searchSeq.current && mounted.current) setSearchResults(null);
+      });
+  }, [searchText]);
+
+  const filteredCalls =
+    searchResults ??
+    calls.filter(
+      (c) =>
+        c.name?.toLowerCase().includes(searchText.toLowerCase()) ||
+        c.number?.toLowerCase().includes(searchText.toLowerCase())
+    );
 
   return (
     <IonPage>
@@ -198,6 +243,12 @@ export const Recents: React.FC = () => {
                       {formatDuration(call.duration)}
                     </>
                   )}
+                  {call.recordings && call.recordings.length > 0 && (
+                    <>
+                      {" "}
+                      <IonIcon icon={micOutline} color="danger" />
+                    </>
+                  )}
                 </p>
               </IonLabel>
               <IonNote slot="end">{formatDate(call.date)}</IonNote>
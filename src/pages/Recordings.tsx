@@ -16,14 +16,20 @@ import {
   useIonViewDidEnter,
   IonRefresher,
   IonRefresherContent,
-  RefresherCustomEvent
+  IonInfiniteScroll,
+  IonInfiniteScrollContent,
+  RefresherCustomEvent,
+  InfiniteScrollCustomEvent
 } from '@ionic/react';
 import { play as playIcon, pause as pauseIcon } from 'ionicons/icons';
-import { Filesystem, Directory } from '@capacitor/filesystem';
+import { Capacitor } from '@capacitor/core';
+import CallRecorder, { RecordingSegment, toCallTime } from '../plugins/call-recorder';
+
+const PAGE_SIZE = 50;
 
 type Recording = {
   name: string;
-  uri?: string;        // resolved file URI if available
+  uri?: string;        // file URI fallback when no playback URL is available
   mime?: string;       // optional MIME type
 };
 
@@ -36,10 +42,14 @@ const formatTime = (sec: number) => {
 
 const RecordingsPage: React.FC = () => {
   const [recordings, setRecordings] = useState<Recording[]>([]);
+  // Keyset token of the next catalog page; undefined once everything is loaded
+  const [nextPage, setNextPage] = useState<string | undefined>(undefined);
   const [activeIndex, setActiveIndex] = useState<number | null>(null);
   const [isPlaying, setIsPlaying] = useState(false);
   const [duration, setDuration] = useState<number>(0);
   const [currentTime, setCurrentTime] = useState<number>(0);
+  // Skipped-silence map of the active recording, so the labels show call time
+  const [segments, setSegments] = useState<RecordingSegment[]>([]);
   const audioRef = useRef<HTMLAudioElement | null>(null);
 
   const handleRefresh = (event: RefresherCustomEvent) => {
@@ -49,34 +59,39 @@ const RecordingsPage: React.FC = () => {
       event.detail.complete();
     }, 2000);
   }
+  // One indexed catalog query per page; no directory listing or per-file URI lookups
+  const fetchPage = async (before?: string) => {
+    const page = await CallRecorder.getRecordings({ limit: PAGE_SIZE, before });
+    const items: Recording[] = page.recordings.map(r => ({
+      name: r.name,
+      uri: Capacitor.convertFileSrc(`file://${r.path}`),
+      mime: r.mime,
+    }));
+    setNextPage(page.next);
+    return items;
+  };
+
   const loadRecordings = async () => {
     try {
-      const result = await Filesystem.readdir({
-        path: 'Music/CallRecords',
-        directory: Directory.External
-      });
-      const mp4Files = result.files
-        .map(f => ('name' in f ? f.name : (f as any))) // compat for different result shapes
-        .filter((name: string) => name.endsWith('.mp4') || name.endsWith('.m4a') || name.endsWith('.aac') || name.endsWith('.mp3') || name.endsWith('.webm') || name.endsWith('.amr') || name.endsWith('.3gp') || name.endsWith('.wav'));
+      setRecordings(await fetchPage());
+    } catch (err) {
+      console.error('Error reading recordings', err);
+    }
+  };
 
-      const withUri: Recording[] = [];
-      for (const name of mp4Files) {
-        try {
-          const fileUri = await Filesystem.getUri({
-            path: `Music/CallRecords/${name}`,
-            directory: Directory.External
-          });
-          withUri.push({ name, uri: fileUri.uri });
-        } catch {
-          // Fallback: keep only name, will base64 read on play
-          withUri.push({ name });
-        }
+  const loadMore = async (event: InfiniteScrollCustomEvent) => {
+    try {
+      if (nextPage) {
+        const items = await fetchPage(nextPage);
+        setRecordings(prev => prev.concat(items));
       }
-      setRecordings(withUri);
     } catch (err) {
       console.error('Error reading recordings', err);
+    } finally {
+      event.target.complete();
     }
   };
+
   // Load recordings
   useEffect(() => {
     loadRecordings();
@@ -120,25 +135,15 @@ const RecordingsPage: React.FC = () => {
     };
   }, []);
 
-  const resolveAudioSrc = async (rec: Recording): Promise<string> => {
-    const file = await Filesystem.readFile({
-      path: `Music/CallRecords/${rec.name}`,
-      directory: Directory.External
-    });
-  
-    const ext = rec.name.split('.').pop()?.toLowerCase();
-    const mime =
-      ext === 'mp3' ? 'audio/mpeg' :
-      ext === 'm4a' ? 'audio/mp4' :
-      ext === 'aac' ? 'audio/aac' :
-      ext === 'wav' ? 'audio/wav' :
-      ext === 'amr' ? 'audio/amr' :
-      ext === '3gp' ? 'audio/3gpp' :
-      'audio/mp4';
-  
-    return `data:${mime};base64,${file.data}`;
+  // Same-origin range URL: the player streams and seeks without loading the whole file
+  const resolveStreamSrc = async (rec: Recording): Promise<string | undefined> => {
+    try {
+      return (await CallRecorder.getPlaybackUrl({ id: rec.name })).url;
+    } catch (err) {
+      console.warn('Playback URL unavailable', err);
+      return undefined;
+    }
   };
-  
 
   const playIndex = async (index: number) => {
     const rec = recordings[index];
@@ -168,20 +173,14 @@ const RecordingsPage: React.FC = () => {
       audioRef.current = null;
     }
   
-    let src: string | undefined = undefined;
-    // Prefer native URI playback when available (avoids base64 overhead and uses system decoders)
-    if (rec.uri) {
-      src = rec.uri;
-    }
-
-    // Fallback to base64 if no URI or if URI playback fails
-    const ensurePlayable = async (): Promise<string> => {
-      if (src) return src;
-      return await resolveAudioSrc(rec);
-    };
+    const [streamSrc, segs] = await Promise.all([
+      resolveStreamSrc(rec),
+      CallRecorder.getSegments({ id: rec.name }).then(r => r.segments, () => []),
+    ]);
+    setSegments(segs);
 
     try {
-      const audio = new Audio(src || '');
+      const audio = new Audio();
       audioRef.current = audio;
       setActiveIndex(index);
       setCurrentTime(0);
@@ -190,18 +189,14 @@ const RecordingsPage: React.FC = () => {
       const detach = attachAudioEvents(audio);
 
       try {
-        if (!src) {
-          // No URI assigned, resolve to base64 first
-          const b64 = await resolveAudioSrc(rec);
-          audio.src = b64;
-        }
+        audio.src = streamSrc ?? rec.uri ?? '';
         await audio.play();
         setIsPlaying(true);
       } catch (firstErr) {
-        console.warn('URI play failed or no URI, falling back to base64', firstErr);
+        if (!streamSrc || !rec.uri) throw firstErr;
+        console.warn('Stream play failed, falling back to file URI', firstErr);
+        audio.src = rec.uri;
         try {
-          const b64 = await resolveAudioSrc(rec);
-          audio.src = b64;
           await audio.play();
           setIsPlaying(true);
         } catch (err) {
@@ -241,13 +236,15 @@ const RecordingsPage: React.FC = () => {
         <IonList inset={true}>
           {recordings.map((rec, idx) => {
             const isActive = idx === activeIndex;
-            const left = isActive ? formatTime(currentTime) : '00:00';
-            const right = isActive ? `-${formatTime((duration || 0) - (currentTime || 0))}` : '--:--';
+            const callNow = toCallTime(segments, (currentTime || 0) * 1000) / 1000;
+            const callEnd = toCallTime(segments, (duration || 0) * 1000) / 1000;
+            const left = isActive ? formatTime(callNow) : '00:00';
+            const right = isActive ? `-${formatTime(callEnd - callNow)}` : '--:--';
             return (
               <IonItem key={rec.name} lines="full">
                 <IonLabel>
                   <h2>{rec.name}</h2>
-                  <p>{rec.uri ? 'Local file (URI)' : 'Local file (base64 fallback)'}</p>
+                  <p>{rec.mime ?? 'Local file'}</p>
                   {isActive && (
                     <div style={{ marginTop: 8 }}>
                       <div style={{ display: 'flex', alignItems: 'center', gap: 12 }}>
@@ -281,6 +278,9 @@ const RecordingsPage: React.FC = () => {
             );
           })}
         </IonList>
+        <IonInfiniteScroll disabled={!nextPage} onIonInfinite={loadMore}>
+          <IonInfiniteScrollContent />
+        </IonInfiniteScroll>
         <IonRefresher slot="fixed" onIonRefresh={handleRefresh}>
           <IonRefresherContent></IonRefresherContent>
         </IonRefresher>
@@ -1,4 +1,4 @@
-import { registerPlugin } from '@capacitor/core';
+import { registerPlugin, PluginListenerHandle } from '@capacitor/core';
 
 export interface CallHistoryEntry {
   id: string;
@@ -7,12 +7,145 @@ export interface CallHistoryEntry {
   duration: number;
   type: string;
   name: string;
+  /** Ids (file names) of recordings overlapping the call; absent when there are none. */
+  recordings?: string[];
+}
+
+export type CallType = 'INCOMING' | 'OUTGOING' | 'MISSED' | 'VOICEMAIL' | 'REJECTED' | 'BLOCKED';
+
+export interface CallHistoryQuery {
+  /** Page size, at most 500 (default 100). */
+  limit?: number;
+  /** `next` token of the previous page, or a ms timestamp to start strictly before. */
+  before?: string;
+  /** Only calls at or after this ms timestamp. */
+  since?: number;
+  types?: CallType[];
+  /** Exact number as stored in the call log. */
+  number?: string;
+}
+
+export interface CallHistoryPage {
+  calls: CallHistoryEntry[];
+  /** Present when another page may follow; pass it back as `before`. */
+  next?: string;
+}
+
+export interface CallHistoryChunk {
+  streamId: string;
+  calls: CallHistoryEntry[];
+  /** Set on the final event, which carries no rows. */
+  done: boolean;
+  count?: number;
+  cancelled?: boolean;
+  error?: string;
+  next?: string;
+}
+
+export type CallStatsGroupBy = 'number' | 'hour' | 'type' | 'day';
+
+export interface CallStatsQuery {
+  /** Only calls at or after this ms timestamp; use a stable boundary (e.g. midnight) so repeat calls stay cheap. */
+  since?: number;
+  /** Default `number`. */
+  groupBy?: CallStatsGroupBy;
+  /** Default `calls` for numbers, `key` otherwise. */
+  sortBy?: 'calls' | 'talkTime' | 'key';
+  /** Top N groups after sorting. */
+  limit?: number;
+}
+
+export interface CallStatsGroup {
+  /** Number as first seen, hour of day `0`-`23`, call type, or `yyyy-MM-dd`. */
+  key: string;
+  /** Latest cached contact name (number groups). */
+  name?: string;
+  /** Local midnight in ms (day groups). */
+  start?: number;
+  calls: number;
+  incoming: number;
+  outgoing: number;
+  missed: number;
+  /** Rejected and blocked calls. */
+  rejected: number;
+  talkSeconds: number;
+  lastDate: number;
+}
+
+export interface CallStats {
+  groupBy: CallStatsGroupBy;
+  since: number;
+  totalCalls: number;
+  totalTalkSeconds: number;
+  /** Groups before `limit` was applied. */
+  groupCount: number;
+  groups: CallStatsGroup[];
+}
+
+export interface CallSearchMatch extends CallHistoryEntry {
+  /** Calls with this number; the entry itself is the latest. */
+  calls: number;
+  matched: 'number' | 'name';
 }
 
 export interface CallHistoryPlugin {
-  getCallHistory(options: { limit?: number }): Promise<{ calls: CallHistoryEntry[] }>;
+  getCallHistory(options: CallHistoryQuery): Promise<CallHistoryPage>;
+  getCallStats(options?: CallStatsQuery): Promise<CallStats>;
+  /** Numbers whose digits or cached name match `query`, best first; `limit` defaults to 20. */
+  searchCallHistory(options: { query: string; limit?: number }): Promise<{ matches: CallSearchMatch[] }>;
+  /** The call a recording (by file name) belongs to, or null. */
+  getCallForRecording(options: { recordingId: string }): Promise<{ call: CallHistoryEntry | null }>;
+  /** `limit` defaults to the whole log; rows arrive as `callHistoryChunk` events. */
+  streamCallHistory(options: CallHistoryQuery & { chunkSize?: number }): Promise<{ streamId: string }>;
+  cancelCallHistoryStream(options: { streamId: string }): Promise<{ cancelled: boolean }>;
+  addListener(
+    eventName: 'callHistoryChunk',
+    listener: (chunk: CallHistoryChunk) => void,
+  ): Promise<PluginListenerHandle>;
 }
 
 const CallHistory = registerPlugin<CallHistoryPlugin>('CallHistory');
 
+/**
+ * Starts a history stream and feeds its chunks to `onChunk` until the final one.
+ * Resolves with a function that cancels the stream (e.g. when the view unmounts).
+ */
+export async function streamCallHistory(
+  options: CallHistoryQuery & { chunkSize?: number },
+  onChunk: (chunk: CallHistoryChunk) => void,
+): Promise<() => Promise<void>> {
+  let streamId: string | undefined;
+  let finished = false;
+  const early: CallHistoryChunk[] = [];
+
+  const deliver = (chunk: CallHistoryChunk) => {
+    if (chunk.streamId !== streamId || finished) return;
+    if (chunk.done) {
+      finished = true;
+      handle.remove();
+    }
+    onChunk(chunk);
+  };
+
+  const handle = await CallHistory.addListener('callHistoryChunk', (chunk) => {
+    if (streamId === undefined) early.push(chunk);
+    else deliver(chunk);
+  });
+
+  try {
+    streamId = (await CallHistory.streamCallHistory(options)).streamId;
+  } catch (err) {
+    handle.remove();
+    throw err;
+  }
+  early.splice(0).forEach(deliver);
+
+  return async () => {
+    if (finished || streamId === undefined) return;
+    finished = true;
+    handle.remove();
+    await CallHistory.cancelCallHistoryStream({ streamId });
+  };
+}
+
 export default CallHistory;
\ No newline at end of file
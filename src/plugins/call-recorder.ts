@@ -1,21 +1,213 @@
-import { registerPlugin } from '@capacitor/core';
+import { registerPlugin, PluginListenerHandle } from '@capacitor/core';
 
 export interface RecordingMeta {
+  /** File name; also what call history rows list under `recordings`. */
   id: string;
   name: string;
+  /** Absolute path; use `Capacitor.convertFileSrc` to play it in the WebView. */
   path: string;
   createdAt: number;
+  endedAt: number;
+  durationMs: number;
+  sizeBytes: number;
+  mime: string;
+  number?: string;
   method?: 'playback+mic'|'mic-only'|'speaker';
 }
 
+export interface RecordingsQuery {
+  /** Page size, at most 500 (default 100). */
+  limit?: number;
+  /** `next` token of the previous page. */
+  before?: string;
+  number?: string;
+}
+
+export interface PeaksQuery {
+  id: string;
+  /** Range in ms from the start of the recording; defaults to all of it. */
+  start?: number;
+  end?: number;
+  /** Peaks wanted across the range, e.g. the bar width in pixels (default 800). */
+  width?: number;
+}
+
+export interface WaveformPeaks {
+  /** Offset in ms of the first peak. */
+  start: number;
+  windowMs: number;
+  /** Per-window min and max, -128..127; at least `width` of them when the audio is long enough. */
+  min: number[];
+  max: number[];
+}
+
+export interface LatencyPercentiles {
+  p50: number;
+  p95: number;
+  p99: number;
+}
+
+export type StartLatencyStage = 'command' | 'prepared' | 'started' | 'firstWrite';
+
+export interface StartLatencyRecord extends Partial<Record<StartLatencyStage, number>> {
+  source: string;
+  recordedAt: number;
+  prewarmed: boolean;
+}
+
+export interface StartLatencyStats {
+  device: string;
+  sdk: number;
+  count: number;
+  prewarmed: number;
+  /** Milliseconds from the trigger event to each stage. */
+  stages: Partial<Record<StartLatencyStage, LatencyPercentiles>>;
+  recent: StartLatencyRecord[];
+}
+
+/** Capture/encode profiles; `pcm-*` record WAV, the others AAC (m4a) or Opus (ogg). */
+export type RecordingProfileName =
+  | 'pcm-16k-mono'
+  | 'pcm-44k-mono'
+  | 'voice-16k-mono-24kbps'
+  | 'voice-8k-mono-12kbps'
+  | 'opus-16k-mono-24kbps';
+
+export interface RecorderSettings {
+  /** Profile new recordings use unless `startRecording` names one (default `voice-16k-mono-24kbps`). */
+  profile: RecordingProfileName;
+  /** Every profile `profile` accepts; read-only. */
+  profiles: RecordingProfileName[];
+  /** Seconds buffered in memory while ringing/dialing and kept at the head of the file; 0 = off. */
+  preRollSeconds: number;
+  maxPreRollSeconds: number;
+  /** Whether call events start recordings automatically. */
+  autoRecord: boolean;
+  /** Whether long silences (hold, dead air) are left out of new recordings. */
+  skipSilence: boolean;
+  /** Whether finished WAV recordings are re-encoded as compact AAC in the background. */
+  transcode: boolean;
+  /** Minutes of call per file before recording rotates to the next part; 0 = one file per call. */
+  segmentMinutes: number;
+  maxSegmentMinutes: number;
+  /** Megabytes recordings may use before the least recently used are deleted; 0 = no quota. */
+  retentionQuotaMb: number;
+  /** Days recordings are kept; 0 = indefinitely. */
+  retentionMaxAgeDays: number;
+  /**
+   * Record call playback and the mic together in stereo (far end right, local left) once
+   * {@link CallRecorderPlugin.requestPlaybackCapture} is granted; turning it off drops the grant.
+   */
+  dualCapture: boolean;
+  /** Whether playback capture is currently granted; read-only. */
+  playbackCaptureGranted: boolean;
+}
+
+/** One file of a call recorded in parts; `id` is what the other methods take. */
+export interface SessionPart {
+  id: string;
+  /** Where the part starts in the call. */
+  startMs: number;
+  durationMs: number;
+  /** False for the part being written, or one cut short by a crash. */
+  complete: boolean;
+  /** False once the part has been deleted. */
+  available: boolean;
+}
+
+export interface RecordingSession {
+  session: string;
+  createdAt: number;
+  segmentMs: number;
+  /** Whether recording ended normally. */
+  complete: boolean;
+  parts: SessionPart[];
+}
+
+/** What the startup scan did to one recording a killed process left incomplete. */
+export interface RecoveryResult {
+  id: string;
+  /** `quarantined` files had no MP4 index and were moved to `.damaged` for external tools. */
+  action: 'repaired' | 'removed' | 'quarantined' | 'failed';
+  detail: string;
+  durationMs: number;
+}
+
+export interface RecoveryReport {
+  running: boolean;
+  scanned?: number;
+  startedAt?: number;
+  finishedAt?: number;
+  results?: RecoveryResult[];
+}
+
+export interface StorageUsage {
+  /** Bytes held by recordings, including one in progress. */
+  usedBytes: number;
+  /** The retention quota in bytes; 0 = none. */
+  quotaBytes: number;
+  /** Space left on the volume holding the recordings. */
+  freeBytes: number;
+  recordings: number;
+}
+
+export interface TranscodeStatus {
+  pending: number;
+  running: number;
+  /** Jobs given up after repeated failures; their WAV originals are kept. */
+  failed: number;
+}
+
+/** From `fileMs` into the file, the call continues at `callMs`; the first is always {0, 0}. */
+export interface RecordingSegment {
+  callMs: number;
+  fileMs: number;
+}
+
+/** Maps a playback position in a silence-skipped file back to call time. */
+export const toCallTime = (segments: RecordingSegment[], fileMs: number): number => {
+  let s = segments[0] ?? { callMs: 0, fileMs: 0 };
+  for (const seg of segments) {
+    if (seg.fileMs > fileMs) break;
+    s = seg;
+  }
+  return s.callMs + (fileMs - s.fileMs);
+};
+
 export interface CallRecorderPlugin {
   requestPermissions(): Promise<{granted: boolean}>;
-  startRecording(opts?: { filename?: string, auto?: boolean }): Promise<{ success: boolean, id?: string }>;
-  stopRecording(id?: string): Promise<{ success: boolean, path?: string }>;
-  setAutoRecord(enabled: boolean): Promise<{ success: boolean }>;
+  /** Shows the system capture dialog so recordings can take the far end from playback (Android 10+). */
+  requestPlaybackCapture(): Promise<{granted: boolean}>;
+  /** Starts recording now regardless of auto-record; files are named by start time. */
+  startRecording(opts?: { profile?: RecordingProfileName }): Promise<{ success: boolean }>;
+  stopRecording(): Promise<{ success: boolean, path?: string }>;
+  setAutoRecord(opts: { enabled: boolean }): Promise<{ success: boolean }>;
   isRecording(): Promise<{ recording: boolean }>;
-  getRecordings(): Promise<{ recordings: RecordingMeta[] }>;
+  /** Finished recordings from the native catalog, newest first. */
+  getRecordings(opts?: RecordingsQuery): Promise<{ recordings: RecordingMeta[], next?: string }>;
+  /**
+   * URL on the app's own origin that streams a recording with `Range` support, for an
+   * audio element.
+   */
+  getPlaybackUrl(opts: { id: string }): Promise<{ url: string, mime: string }>;
+  /** Min/max peaks from the sidecar written during capture; no audio is decoded. */
+  getPeaks(opts: PeaksQuery): Promise<WaveformPeaks>;
+  /** Where the file skips silence; see {@link toCallTime}. */
+  getSegments(opts: { id: string }): Promise<{ segments: RecordingSegment[] }>;
+  /** All parts of the call that recording `id` belongs to, in order. */
+  getSession(opts: { id: string }): Promise<RecordingSession>;
   listenCallState(): Promise<{ listening: boolean }>;
+  getSettings(): Promise<RecorderSettings>;
+  updateSettings(opts: Partial<Omit<RecorderSettings, 'maxPreRollSeconds' | 'maxSegmentMinutes' | 'profiles' | 'playbackCaptureGranted'>>): Promise<RecorderSettings>;
+  getTranscodeStatus(): Promise<TranscodeStatus>;
+  getStorageUsage(): Promise<StorageUsage>;
+  /** Outcome of the startup scan that repairs recordings interrupted by a crash. */
+  getRecoveryReport(): Promise<RecoveryReport>;
+  addListener(
+    eventName: 'recordingsRecovered',
+    listenerFunc: (report: Omit<RecoveryReport, 'running'>) => void,
+  ): Promise<PluginListenerHandle>;
+  getStartLatencyStats(opts?: { recent?: number }): Promise<StartLatencyStats>;
 }
 
 const CallRecorder = registerPlugin<CallRecorderPlugin>('CallRecorder');